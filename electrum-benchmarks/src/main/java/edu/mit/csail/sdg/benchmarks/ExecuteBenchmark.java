@@ -0,0 +1,111 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4compiler.ast.Command;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.translator.A4Options;
+import edu.mit.csail.sdg.alloy4compiler.translator.A4Solution;
+import edu.mit.csail.sdg.alloy4compiler.translator.TranslateAlloyToKodkod;
+
+/** Measures {@code TranslateAlloyToKodkod.execute_command} on each command of each model.
+ *
+ * <p> In "translate" mode the problem is only translated into CNF (using the CNF output solver, whose files are
+ * written to a temporary directory and deleted after each invocation), while in "solve" mode it is also solved by
+ * SAT4J and no file is written.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-benchmarks
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExecuteBenchmark {
+
+   @Param({"puzzles/hanoi.ele", "case_studies/firewire.ele", "algorithms/peterson.ele", "algorithms/span_tree.ele",
+           "algorithms/ring.ele", "systems/hotel.ele"})
+   public String model;
+
+   @Param({"0", "1"})
+   public int command;
+
+   @Param({"translate", "solve"})
+   public String mode;
+
+   private Module world;
+
+   private Command cmd;
+
+   private A4Options opt;
+
+   /** The directory of the CNF files in "translate" mode; null in "solve" mode. */
+   private File tmp;
+
+   @Setup(Level.Trial)
+   public void setup() throws Err, IOException {
+      world = Models.parse(model);
+      cmd = Models.command(world, command);
+      opt = Models.options(model);
+      if (!mode.equals("translate")) return;
+      tmp = Files.createTempDirectory("electrum-bench").toFile();
+      opt.tempDirectory = tmp.getAbsolutePath();
+      opt.solver = A4Options.SatSolver.CNF;
+   }
+
+   @TearDown(Level.Invocation)
+   public void clean() {
+      if (tmp == null) return;
+      File[] files = tmp.listFiles();
+      if (files != null) for(File f: files) f.delete();
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      if (tmp == null) return;
+      clean();
+      tmp.delete();
+   }
+
+   @Benchmark
+   public A4Solution execute() throws Err {
+      return TranslateAlloyToKodkod.execute_command(A4Reporter.NOP, world.getAllReachableSigs(), cmd, opt);
+   }
+}
@@ -0,0 +1,76 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.benchmarks;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorAPI;
+import edu.mit.csail.sdg.alloy4.Util;
+import edu.mit.csail.sdg.alloy4compiler.ast.Command;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.parser.CompUtil;
+import edu.mit.csail.sdg.alloy4compiler.translator.A4Options;
+import edu.mit.csail.sdg.alloy4compiler.translator.A4Solution;
+import edu.mit.csail.sdg.alloy4compiler.translator.TranslateAlloyToKodkod;
+
+/** This class provides the Electrum example models shared by the benchmarks.
+ *
+ * <p> The models are read directly from the electrum jar (through {@link Util#jarPrefix()}),
+ * so that the util modules they open are found the same way as in the analyzer.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-benchmarks
+ */
+
+final class Models {
+
+   /** This class cannot be instantiated. */
+   private Models() { }
+
+   /** Returns the filename of the given model, relative to the Electrum examples directory (eg. "puzzles/hanoi.ele"). */
+   static String file(String model) {
+      return Util.jarPrefix() + "models/examples/electrum/" + model;
+   }
+
+   /** Parses and typechecks the given model. */
+   static Module parse(String model) throws Err {
+      return CompUtil.parseEverything_fromFile(A4Reporter.NOP, null, file(model));
+   }
+
+   /** Returns the options used by every benchmark: SAT4J, so that no JNI library is needed. */
+   static A4Options options(String model) {
+      A4Options opt = new A4Options();
+      opt.solver = A4Options.SatSolver.SAT4J;
+      opt.skolemDepth = 1;
+      opt.originalFilename = file(model);
+      return opt;
+   }
+
+   /** Returns the command with the given index, or throws ErrorAPI if the model does not have that many commands. */
+   static Command command(Module world, int index) throws Err {
+      if (index >= world.getAllCommands().size())
+         throw new ErrorAPI("The model has only " + world.getAllCommands().size() + " commands.");
+      return world.getAllCommands().get(index);
+   }
+
+   /** Parses the given model and solves its first run command (or its first command, if it has no run commands). */
+   static A4Solution solveFirstRun(Module world, String model) throws Err {
+      Command cmd = null;
+      for(Command c: world.getAllCommands()) if (!c.check) { cmd = c; break; }
+      if (cmd == null) cmd = command(world, 0);
+      return TranslateAlloyToKodkod.execute_command(A4Reporter.NOP, world.getAllReachableSigs(), cmd, options(model));
+   }
+}
@@ -0,0 +1,95 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.benchmarks;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorAPI;
+import edu.mit.csail.sdg.alloy4.XMLNode;
+import edu.mit.csail.sdg.alloy4compiler.ast.Func;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.translator.A4Solution;
+import edu.mit.csail.sdg.alloy4compiler.translator.A4SolutionReader;
+
+/** Measures writing a solution to XML with {@code A4SolutionWriter} and reading it back with {@code A4SolutionReader}.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-benchmarks
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+
+   @Param({"puzzles/hanoi.ele", "algorithms/peterson.ele", "algorithms/span_tree.ele", "algorithms/ring.ele", "systems/hotel.ele"})
+   public String model;
+
+   private Module world;
+
+   private A4Solution sol;
+
+   private String xml;
+
+   @Setup(Level.Trial)
+   public void setup() throws Err {
+      world = Models.parse(model);
+      sol = Models.solveFirstRun(world, model);
+      if (!sol.satisfiable()) throw new ErrorAPI("The first run command of " + model + " is unsatisfiable.");
+      xml = write();
+   }
+
+   @Benchmark
+   public String write() throws Err {
+      StringWriter out = new StringWriter();
+      PrintWriter pw = new PrintWriter(out);
+      sol.writeXML(pw, new ArrayList<Func>(), new HashMap<String,String>());
+      pw.flush();
+      return out.toString();
+   }
+
+   @Benchmark
+   public A4Solution read() throws Exception {
+      return A4SolutionReader.read(world.getAllReachableSigs(), new XMLNode(new StringReader(xml)));
+   }
+
+   @Benchmark
+   public A4Solution roundTrip() throws Exception {
+      return A4SolutionReader.read(world.getAllReachableSigs(), new XMLNode(new StringReader(write())));
+   }
+}
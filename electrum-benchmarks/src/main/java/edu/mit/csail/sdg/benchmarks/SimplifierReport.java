@@ -0,0 +1,105 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4compiler.ast.Command;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.translator.A4Options;
+import edu.mit.csail.sdg.alloy4compiler.translator.TranslateAlloyToKodkod;
+
+/** Reports the size of the CNF of every command of the Electrum example models, and how many primary variables
+ * were removed by the Simplifier.
+ *
+ * <p> Each command is only translated (using the CNF output solver, whose files are written to a temporary
+ * directory and deleted afterwards), and one tab-separated line is printed per command with the model, the
+ * command, the number of primary variables removed by the Simplifier, and the number of primary variables,
+ * variables and clauses of the CNF. Running it against two builds of the analyzer (eg. before and after
+ * a change to the Simplifier) and comparing the outputs measures the effect of the change.
+ *
+ * <p> The models are given as arguments (relative to the Electrum examples directory, eg. "puzzles/hanoi.ele");
+ * if there are none, every example model is reported.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-benchmarks
+ */
+
+public final class SimplifierReport {
+
+   /** The Electrum example models. */
+   private static final String[] examples = {
+      "algorithms/dijkstra.ele", "algorithms/messaging.ele", "algorithms/peterson.ele", "algorithms/ring.ele",
+      "algorithms/span_tree.ele", "algorithms/stable_mutex_ring.ele", "algorithms/stable_orient_ring.ele",
+      "case_studies/firewire.ele", "case_studies/train.ele", "puzzles/farmer.ele", "puzzles/hanoi.ele",
+      "systems/hotel.ele", "systems/javatypes_soundness.ele", "systems/lift_spl.ele", "systems/views.ele",
+      "toys/birthday.ele", "toys/ex1.ele", "toys/life.ele", "toys/railway.ele"
+   };
+
+   /** Mutable; records the numbers reported while translating one command. */
+   private static final class Counter extends A4Reporter {
+      /** The number of primary variables removed by the Simplifier. */
+      private long removed;
+      /** The numbers of primary variables, variables and clauses of the CNF. */
+      private int primaryVars, vars, clauses;
+      /** {@inheritDoc} */
+      @Override public void bound(String msg) {
+         if (msg.startsWith("Simplifier removed ")) removed = Long.parseLong(msg.substring(19, msg.indexOf(' ', 19)));
+      }
+      /** {@inheritDoc} */
+      @Override public void solve(int primaryVars, int vars, int clauses) {
+         this.primaryVars = primaryVars;
+         this.vars = vars;
+         this.clauses = clauses;
+      }
+   }
+
+   /** This class cannot be instantiated. */
+   private SimplifierReport() { }
+
+   /** Translates every command of the given models (or of every example model) and prints the numbers of each one. */
+   public static void main(String[] args) throws Err, IOException {
+      File tmp = Files.createTempDirectory("electrum-simplifier").toFile();
+      System.out.println("model\tcommand\tremoved\tprimary\tvars\tclauses");
+      try {
+         for(String model: args.length > 0 ? args : examples) {
+            Module world = Models.parse(model);
+            for(Command cmd: world.getAllCommands()) {
+               A4Options opt = Models.options(model);
+               opt.tempDirectory = tmp.getAbsolutePath();
+               opt.solver = A4Options.SatSolver.CNF;
+               Counter rep = new Counter();
+               TranslateAlloyToKodkod.execute_command(rep, world.getAllReachableSigs(), cmd, opt);
+               System.out.println(model + "\t" + cmd.label + "\t" + rep.removed + "\t" + rep.primaryVars + "\t" + rep.vars + "\t" + rep.clauses);
+               clean(tmp);
+            }
+         }
+      } finally {
+         clean(tmp);
+         tmp.delete();
+      }
+   }
+
+   /** Deletes the CNF files written to the given directory. */
+   private static void clean(File tmp) {
+      File[] files = tmp.listFiles();
+      if (files != null) for(File f: files) f.delete();
+   }
+}
@@ -289,6 +289,14 @@ public class A4Preferences {
    /** True if Alloy Analyzer should not report models that overflow. */
    public static final BooleanPref NoOverflow = new BooleanPref("NoOverflow", "Prevent overflows", true);
 
+   /** True if Alloy Analyzer should report the CNF size of each constraint before solving. */
+   // [HASLab]
+   public static final BooleanPref CostProfiling = new BooleanPref("CostProfiling", "Profile the cost of each constraint");
+
+   /** True if Alloy Analyzer should only compute the unsat core after reporting the outcome. */
+   // [HASLab]
+   public static final BooleanPref LazyCore = new BooleanPref("LazyCore", "Compute the unsat core after the outcome");
+
    /** The latest X coordinate of the Alloy Analyzer's main window. */
    public static final IntPref AnalyzerX = new IntPref("AnalyzerX", 0, -1, 65535);
 
@@ -151,5 +151,30 @@ public class A4Reporter {
    public void configs(int configs) {
       if (parent != null) parent.configs(configs);
    }
-   
+
+   /** This method is called at the end of each phase of the analysis to report the resources it consumed (see {@link PhaseTimer}).
+    *
+    * @param phase - the phase that just finished (eg. PhaseTimer.PARSE, PhaseTimer.SAT...)
+    * @param wallTime - the number of nanoseconds of wall-clock time the phase took
+    * @param cpuTime - the number of nanoseconds of CPU time the phase took on the calling thread (or -1 if unavailable)
+    * @param allocated - the number of bytes allocated during the phase by the calling thread (or -1 if unavailable)
+    */
+   // [HASLab]
+   public void phase(String phase, long wallTime, long cpuTime, long allocated) {
+      if (parent != null) parent.phase(phase, wallTime, cpuTime, allocated);
+   }
+
+   /** If cost profiling is enabled, this method is called by the translator for each source constraint, by decreasing cost.
+    *
+    * @param label - a short description of the constraint (eg. a fact, a field declaration...)
+    * @param pos - the position of the constraint (or Pos.UNKNOWN if unknown)
+    * @param gates - the number of gates (non-primary variables) generated by the constraint
+    * @param vars - the total number of variables generated by the constraint
+    * @param clauses - the total number of clauses generated by the constraint
+    */
+   // [HASLab]
+   public void cost(String label, Pos pos, long gates, long vars, long clauses) {
+      if (parent != null) parent.cost(label, pos, gates, vars, clauses);
+   }
+
 }
\ No newline at end of file
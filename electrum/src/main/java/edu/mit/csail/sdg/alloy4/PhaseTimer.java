@@ -0,0 +1,132 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** Immutable; this measures the wall-clock time, CPU time and allocated bytes of one phase of the analysis.
+ *
+ * <p> CPU time and allocation are measured on the calling thread, so a timer must be started and
+ * stopped by the same thread; if the JVM cannot measure them, they are reported as -1.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-metrics
+ */
+
+public final class PhaseTimer {
+
+   /** The phase that parses the Alloy source files. */
+   public static final String PARSE = "parse";
+
+   /** The phase that resolves names and typechecks the parsed modules. */
+   public static final String RESOLVE = "resolve";
+
+   /** The phase that computes the scope of each sig. */
+   public static final String SCOPE = "scope";
+
+   /** The phase that computes the bounds of each sig and field. */
+   public static final String BOUNDS = "bounds";
+
+   /** The phase that translates the facts and the command into Kodkod formulas. */
+   public static final String FACTS = "facts";
+
+   /** The phase that simplifies the bounds using the Simplifier. */
+   public static final String SIMPLIFY = "simplify";
+
+   /** The phase where Pardinus translates the Kodkod problem into CNF. */
+   public static final String TRANSLATE = "translate";
+
+   /** The phase where the SAT solver runs. */
+   public static final String SAT = "sat";
+
+   /** The phase that renames the atoms and skolems of a solution. */
+   public static final String RENAME = "rename";
+
+   /** The thread bean used to measure CPU time, or null if unavailable. */
+   private static final ThreadMXBean bean;
+
+   /** True if we can query the number of bytes allocated by the current thread. */
+   private static final boolean allocSupported;
+
+   static {
+      ThreadMXBean b = null;
+      boolean a = false;
+      try {
+         b = ManagementFactory.getThreadMXBean();
+         if (!b.isCurrentThreadCpuTimeSupported()) b = null; else if (!b.isThreadCpuTimeEnabled()) b.setThreadCpuTimeEnabled(true);
+         if (b instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sb = (com.sun.management.ThreadMXBean)b;
+            if (sb.isThreadAllocatedMemorySupported()) {
+               if (!sb.isThreadAllocatedMemoryEnabled()) sb.setThreadAllocatedMemoryEnabled(true);
+               a = true;
+            }
+         }
+      } catch(Throwable ex) {
+         // metrics are best-effort only
+      }
+      bean = b;
+      allocSupported = a;
+   }
+
+   /** The name of the phase being measured. */
+   public final String phase;
+
+   /** The wall-clock time (in nanoseconds) when this timer was started. */
+   private final long wall;
+
+   /** The CPU time (in nanoseconds) of the current thread when this timer was started, or -1. */
+   private final long cpu;
+
+   /** The number of bytes allocated by the current thread when this timer was started, or -1. */
+   private final long alloc;
+
+   /** Constructs a timer for the given phase, starting now. */
+   private PhaseTimer(String phase) {
+      this.phase = phase;
+      this.cpu = cpuTime();
+      this.alloc = allocatedBytes();
+      this.wall = System.nanoTime();
+   }
+
+   /** Starts measuring the given phase on the current thread. */
+   public static PhaseTimer start(String phase) { return new PhaseTimer(phase); }
+
+   /** Stops measuring this phase and reports its metrics to the given reporter (if nonnull). */
+   public void stop(A4Reporter rep) {
+      long w = System.nanoTime() - wall, c = cpuTime(), a = allocatedBytes();
+      if (rep != null) rep.phase(phase, w, (cpu<0 || c<0) ? -1 : c-cpu, (alloc<0 || a<0) ? -1 : a-alloc);
+   }
+
+   /** Stops measuring this phase, reports its metrics to the given reporter, then starts measuring the next phase. */
+   public PhaseTimer next(A4Reporter rep, String nextPhase) {
+      stop(rep);
+      return new PhaseTimer(nextPhase);
+   }
+
+   /** Returns the CPU time (in nanoseconds) consumed so far by the current thread, or -1 if unavailable. */
+   private static long cpuTime() {
+      try { return bean==null ? -1 : bean.getCurrentThreadCpuTime(); } catch(Throwable ex) { return -1; }
+   }
+
+   /** Returns the number of bytes allocated so far by the current thread, or -1 if unavailable. */
+   private static long allocatedBytes() {
+      if (!allocSupported) return -1;
+      try {
+         return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+      } catch(Throwable ex) { return -1; }
+   }
+}
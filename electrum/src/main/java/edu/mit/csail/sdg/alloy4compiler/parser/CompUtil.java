@@ -31,6 +31,7 @@ import edu.mit.csail.sdg.alloy4.ConstList;
 import edu.mit.csail.sdg.alloy4.Err;
 import edu.mit.csail.sdg.alloy4.ErrorFatal;
 import edu.mit.csail.sdg.alloy4.ErrorSyntax;
+import edu.mit.csail.sdg.alloy4.PhaseTimer;
 import edu.mit.csail.sdg.alloy4.Pos;
 import edu.mit.csail.sdg.alloy4.Util;
 import edu.mit.csail.sdg.alloy4compiler.ast.Command;
@@ -229,9 +230,15 @@ public final class CompUtil {
             Map<String,String> fc = new LinkedHashMap<String,String>(loaded);
             loaded.clear();
             List<Object> seenDollar = new ArrayList<Object>();
-            CompModule root = parseRecursively(seenDollar, loaded, fc, new Pos(filename,1,1), filename, null, "", thispath, 1);
-            root.seenDollar = seenDollar.size()>0;
-            return CompModule.resolveAll(rep==null ? A4Reporter.NOP : rep, root);
+            PhaseTimer timer = PhaseTimer.start(PhaseTimer.PARSE); // [HASLab]
+            try {
+                CompModule root = parseRecursively(seenDollar, loaded, fc, new Pos(filename,1,1), filename, null, "", thispath, 1);
+                root.seenDollar = seenDollar.size()>0;
+                timer = timer.next(rep, PhaseTimer.RESOLVE); // [HASLab]
+                return CompModule.resolveAll(rep==null ? A4Reporter.NOP : rep, root);
+            } finally {
+                timer.stop(rep); // [HASLab] even if the model has errors
+            }
         } catch(FileNotFoundException ex) {
             throw new ErrorSyntax("File cannot be found.\n"+ex.getMessage(), ex);
         } catch(IOException ex) {
@@ -258,9 +265,15 @@ public final class CompUtil {
             Map<String,String> fc = new LinkedHashMap<String,String>(loaded);
             loaded.clear();
             List<Object> seenDollar = new ArrayList<Object>();
-            CompModule root = parseRecursively(seenDollar, loaded, fc, new Pos(filename,1,1), filename, null, "", thispath, initialResolutionMode);
-            root.seenDollar = seenDollar.size()>0;
-            return CompModule.resolveAll(rep==null ? A4Reporter.NOP : rep, root);
+            PhaseTimer timer = PhaseTimer.start(PhaseTimer.PARSE); // [HASLab]
+            try {
+                CompModule root = parseRecursively(seenDollar, loaded, fc, new Pos(filename,1,1), filename, null, "", thispath, initialResolutionMode);
+                root.seenDollar = seenDollar.size()>0;
+                timer = timer.next(rep, PhaseTimer.RESOLVE); // [HASLab]
+                return CompModule.resolveAll(rep==null ? A4Reporter.NOP : rep, root);
+            } finally {
+                timer.stop(rep); // [HASLab] even if the model has errors
+            }
         } catch(FileNotFoundException ex) {
             throw new ErrorSyntax("File cannot be found.\n"+ex.getMessage(), ex);
         } catch(IOException ex) {
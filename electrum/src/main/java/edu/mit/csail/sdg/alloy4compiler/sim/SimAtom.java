@@ -18,8 +18,12 @@ package edu.mit.csail.sdg.alloy4compiler.sim;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Immutable; represents an atom.
  *
@@ -28,28 +32,90 @@ import java.util.WeakHashMap;
  * <br> the equals() method is much slower than "==" for SimAtom,
  * <br> so you should always try to use "==" on SimAtom.
  *
- * <p><b>Thread Safety:</b>  Safe.
+ * <p><b>Thread Safety:</b>  Safe (and canonicalization is lock-free).
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-simulator
  */
 
 public final class SimAtom {
 
-    /** This map is used to canonicalize the atoms. */
-    private static final WeakHashMap<SimAtom,WeakReference<SimAtom>> map = new WeakHashMap<SimAtom,WeakReference<SimAtom>>();
+    /** This map is used to canonicalize the atoms; atoms are weakly referenced so that unused ones can be garbage collected. */
+    // [HASLab] lock-free, was a synchronized WeakHashMap
+    private static final ConcurrentHashMap<String,Ref> map = new ConcurrentHashMap<String,Ref>();
+
+    /** This queue receives the references of atoms that have been garbage collected, so their entries can be purged from the map. */
+    // [HASLab]
+    private static final ReferenceQueue<SimAtom> collected = new ReferenceQueue<SimAtom>();
+
+    /** This counter is used to give each atom a distinct id, when there is no id to reuse. */
+    // [HASLab]
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    /** The ids of the atoms that have been garbage collected, which are reused so that the ids of the live atoms stay dense. */
+    // [HASLab]
+    private static final ConcurrentLinkedQueue<Integer> free = new ConcurrentLinkedQueue<Integer>();
+
+    /** A weak reference to an atom that remembers the label it is stored under and the id it had. */
+    // [HASLab]
+    private static final class Ref extends WeakReference<SimAtom> {
+        /** The label of the atom. */
+        private final String label;
+        /** The id of the atom. */
+        private final int id;
+        /** Constructs a weak reference to the given atom. */
+        private Ref(SimAtom atom) { super(atom, collected); label = atom.string; id = atom.id; }
+    }
 
     /** The String label for the atom; all distinct atoms have distinct labels. */
     private String string;
 
+    /** A small integer that is distinct for every live atom; tuples are hashed, compared and indexed on these ids.
+     * <p> The id of an atom is only reused once the atom has been garbage collected, and thus once no tuple refers to it.
+     */
+    // [HASLab]
+    final int id;
+
+    /** True if the label is an integer literal (in which case its value is cached in num). */
+    // [HASLab]
+    private final boolean isInt;
+
+    /** The integer value of the label, if isInt is true. */
+    // [HASLab]
+    private final int num;
+
     /** Construct a SimAtom; this constructor must only be called by make() since we want to canonicalize all SimAtom instances out there. */
-    private SimAtom(String x) { this.string = x; }
+    private SimAtom(String x, int id) {
+        this.string = x;
+        this.id = id; // [HASLab]
+        // [HASLab] parse the integer once, rather than on every toInt()
+        int ans=0, i=0, n=x.length();
+        boolean neg = n>0 && x.charAt(0)=='-';
+        if (neg) i++;
+        boolean digit = i<n && x.charAt(i)>='0' && x.charAt(i)<='9';
+        // Due to Java's 2's complement arithmetic, this will successfully
+        // convert all integers ranging from Integer.MIN to Integer.MAX
+        if (digit) for(;i<n;i++) ans = ans*10 + (x.charAt(i) - '0');
+        this.isInt = digit;
+        this.num = neg ? -ans : ans;
+    }
 
     /** Construct a SimAtom for the given label, or if an existing SimAtom hasn't been garbage collected yet then return that instead. */
     public static SimAtom make(String label) {
-        synchronized(map) {
-            SimAtom x = new SimAtom(label);
-            WeakReference<SimAtom> ans = map.get(x);
-            if (ans != null) { SimAtom y = ans.get(); if (y!=null) return y; }
-            map.put(x, new WeakReference<SimAtom>(x));
-            return x;
+        // [HASLab] lock-free canonicalization; when two threads race, exactly one atom gets published
+        for(Reference<? extends SimAtom> ref; (ref = collected.poll()) != null; ) {
+            map.remove(((Ref)ref).label, ref);
+            free.offer(((Ref)ref).id);
+        }
+        while(true) {
+            Ref old = map.get(label);
+            SimAtom y = old==null ? null : old.get();
+            if (y != null) return y;
+            Integer id = free.poll();
+            SimAtom x = new SimAtom(label, id!=null ? id : counter.getAndIncrement());
+            Ref ref = new Ref(x);
+            if (old==null ? map.putIfAbsent(label, ref)==null : map.replace(label, old, ref)) return x;
+            ref.clear(); // never published, so its id can be reused right away
+            free.offer(x.id);
         }
     }
 
@@ -111,14 +177,7 @@ public final class SimAtom {
      * If the atom does not start with "-" or "0-9", then return defaultValue.
      */
     public Integer toInt(Integer defaultValue) throws NumberFormatException {
-        int ans=0, i=0, n=string.length();
-        if (n==0) return defaultValue;
-        // Due to Java's 2's complement arithmetic, this will successfully
-        // convert all integers ranging from Integer.MIN to Integer.MAX
-        if (string.charAt(0)=='-') i++;
-        if (string.charAt(i)<'0' || string.charAt(i)>'9') return defaultValue;
-        for(;i<n;i++) ans = ans*10 + (string.charAt(i) - '0');
-        if (string.charAt(0)=='-') return (-ans); else return ans;
+        return isInt ? Integer.valueOf(num) : defaultValue; // [HASLab] parsed once at construction
     }
 
     /** Return the product of this atom and that atom. */
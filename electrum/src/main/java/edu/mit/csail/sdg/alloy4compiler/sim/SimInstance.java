@@ -17,16 +17,30 @@ package edu.mit.csail.sdg.alloy4compiler.sim;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.mit.csail.sdg.alloy4.ConstList.TempList;
 import edu.mit.csail.sdg.alloy4.Env;
@@ -44,6 +58,8 @@ import edu.mit.csail.sdg.alloy4compiler.ast.Sig.SubsetSig;
 import edu.mit.csail.sdg.alloy4compiler.ast.Module;
 
 /** Mutable; represents an instance. 
+ * 
+ * @modified Nuno Macedo // [HASLab] electrum-simulator
  * */
 
 public final class SimInstance extends VisitReturn<Object> {
@@ -69,6 +85,47 @@ public final class SimInstance extends VisitReturn<Object> {
     /** Caches parameter-less functions to a Boolean, Integer, or SimTupleset. */
     private final Map<Func,Object> cacheForConstants = new IdentityHashMap<Func,Object>();
 
+    /** Caches the value (a Boolean or a SimTupleset) of closed subexpressions, that is, those with no variable bound in the current environment;
+     * each entry must be removed when one of the relations it reads changes (see {@link #invalidate}).
+     */
+    // [HASLab]
+    private final Map<Expr,Object> memo = new IdentityHashMap<Expr,Object>();
+
+    /** The memoized tuplesets that were invalidated in the current epoch, as they were when the epoch began;
+     * they are brought up to date from the changes of the relations they read (see {@link #update}), rather than evaluated again.
+     * <br> An epoch begins with the first change to a sig, field or skolem after every stale value has been brought up to date.
+     */
+    // [HASLab]
+    private final Map<Expr,SimTupleset> stale = new IdentityHashMap<Expr,SimTupleset>();
+
+    /** The value when the current epoch began of each sig, field and skolem that changed since. */
+    // [HASLab]
+    private final Map<Expr,SimTupleset> changes = new IdentityHashMap<Expr,SimTupleset>();
+
+    /** The current value, and the tuples added and removed since the current epoch began, of each changed relation and of each expression brought up to date. */
+    // [HASLab]
+    private final Map<Expr,SimTupleset[]> deltas = new IdentityHashMap<Expr,SimTupleset[]>();
+
+    /** Caches the dependencies of each subexpression that has been considered for memoization. */
+    // [HASLab]
+    private final Map<Expr,Deps> deps = new IdentityHashMap<Expr,Deps>();
+
+    /** Caches the constraints that validate() builds for each sig, field and declaration, so that their values can be memoized across calls. */
+    // [HASLab]
+    private final Map<Pair<String,Object>,Expr> constraints = new HashMap<Pair<String,Object>,Expr>();
+
+    /** The maximum number of entries in the memo and dependency tables (they are flushed when full). */
+    // [HASLab]
+    private static final int MEMO_LIMIT = 4096;
+
+    /** If nonnull, this instance is a state of this trace, over which temporal operators are evaluated. */
+    // [HASLab]
+    SimTrace trace = null;
+
+    /** If this instance is a state of a trace, the position being evaluated (see {@link SimTrace}); outside an evaluation, its index in the trace. */
+    // [HASLab]
+    int time = 0;
+
     /** This is used to detect "function recursion" (which we currently do not allow). */
     private final List<Func> current_function = new ArrayList<Func>();
 
@@ -91,6 +148,24 @@ public final class SimInstance extends VisitReturn<Object> {
     private boolean wasOverflow;
     public boolean wasOverflow() { return wasOverflow; }
 
+    /** If true, quantifiers over large enough domains are evaluated in parallel (see {@link #setParallel}). */
+    // [HASLab]
+    private boolean parallel = false;
+
+    /** Quantifiers whose outermost domain has fewer bindings than this are always evaluated sequentially. */
+    // [HASLab]
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    /** Enables or disables the parallel evaluation of quantifiers and comprehensions.
+     * <p> When enabled, the bindings of the outermost variable of each quantification are split across the
+     * common fork/join pool, each task evaluating its share on a private copy of this instance. The results are
+     * the same as those of sequential evaluation, but any registered SimCallback must then be thread-safe.
+     * <p> States of a SimTrace are always evaluated sequentially, since evaluating a temporal formula updates the
+     * other states of the trace.
+     */
+    // [HASLab]
+    public void setParallel(boolean parallel) { this.parallel = parallel; }
+
     /** Helper method that encodes the given string using UTF-8 and write to the output stream. */
     private static void write(BufferedOutputStream out, String string) throws IOException {
         out.write(string.getBytes("UTF-8"));
@@ -129,9 +204,6 @@ public final class SimInstance extends VisitReturn<Object> {
         }
     }
 
-    /** Temporary buffer used by the parser; access to this buffer must be synchronized on SimInstance's class. */
-    private static byte[] readcache = null;
-
     /** Helper method that read a non-negative integer followed by a line break. */
     private static int readNonNegativeIntThenLinebreak(BufferedInputStream bis) throws IOException {
         int n = 0;
@@ -145,16 +217,14 @@ public final class SimInstance extends VisitReturn<Object> {
         }
     }
 
-    /** Helper method that read "key =" then return the key part (with leading and trailing spaces removed).
-     * This method can only be called after you've synchronized on SimInstance's class.
-     */
+    /** Helper method that read "key =" then return the key part (with leading and trailing spaces removed). */
     private static String readkey(BufferedInputStream bis) throws IOException {
+        byte[] readcache = new byte[64]; // [HASLab] local, so that several files can be read at once; to ensure proper detection of out-of-memory error, this number must be 2^n for some n>=0
         int n = 0;
         while(true) {
             int c = bis.read();
             if (c<0) return "";
             if (c=='=') break;
-            if (readcache==null) readcache = new byte[64]; // to ensure proper detection of out-of-memory error, this number must be 2^n for some n>=0
             while(n >= readcache.length) {
                byte[] readcache2 = new byte[readcache.length * 2];
                System.arraycopy(readcache, 0, readcache2, 0, readcache.length);
@@ -169,8 +239,128 @@ public final class SimInstance extends VisitReturn<Object> {
         return new String(readcache, i, n-i, "UTF-8");
     }
 
-    /** Construct a new simulation context by reading the given file. */
-    public static synchronized SimInstance read(Module root, String filename, List<ExprVar> vars) throws Err, IOException {
+    /** The magic number that starts a binary snapshot ("SIMB"). */
+    // [HASLab]
+    private static final int SNAPSHOT_MAGIC = 0x53494D42;
+
+    /** The version of the binary snapshot format. */
+    // [HASLab]
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /** Write the bitwidth, maxseq, set of all atoms, and map of all sig/field/var into the given file, as a binary snapshot.
+     * <p> The snapshot holds a table of all atoms, followed by each relation as its key, arity, number of tuples,
+     * and the table index of each atom of each tuple; it can be read back with {@link #read}.
+     */
+    // [HASLab]
+    public void writeSnapshot(String filename) throws IOException {
+        Map<String,SimTupleset> rels = new LinkedHashMap<String,SimTupleset>();
+        for(Map.Entry<Expr,SimTupleset> entry: sfs.entrySet()) {
+            String key = key(entry.getKey());
+            if (key != null) rels.put(key, entry.getValue());
+        }
+        Map<SimAtom,Integer> atoms = new IdentityHashMap<SimAtom,Integer>();
+        List<SimAtom> table = new ArrayList<SimAtom>();
+        for(SimTupleset ts: rels.values()) for(SimTuple t: ts) for(SimAtom a: t) if (!atoms.containsKey(a)) { atoms.put(a, table.size()); table.add(a); }
+        FileOutputStream fos = null;
+        DataOutputStream out = null;
+        try {
+            fos = new FileOutputStream(filename);
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(maxseq);
+            out.writeInt(bitwidth);
+            out.writeInt(table.size());
+            for(SimAtom a: table) { byte[] b = a.toString().getBytes("UTF-8"); out.writeInt(b.length); out.write(b); }
+            out.writeInt(rels.size());
+            for(Map.Entry<String,SimTupleset> e: rels.entrySet()) {
+                byte[] b = e.getKey().getBytes("UTF-8");
+                out.writeInt(b.length);
+                out.write(b);
+                SimTupleset ts = e.getValue();
+                out.writeInt(ts.arity());
+                out.writeInt(ts.size());
+                for(SimTuple t: ts) for(SimAtom a: t) out.writeInt(atoms.get(a));
+            }
+            out.flush();
+            out.close();
+            out = null;
+            fos = null;
+        } finally {
+            Util.close(out);
+            Util.close(fos);
+        }
+    }
+
+    /** Returns the key under which the given sig, field or var is saved (or null if it is not saved). */
+    // [HASLab]
+    private static String key(Expr e) {
+        if (e instanceof Sig) return "sig " + ((Sig)e).label;
+        if (e instanceof Field) return "field " + ((Field)e).sig.label + " " + ((Field)e).label;
+        if (e instanceof ExprVar) return "var " + ((ExprVar)e).label;
+        return null;
+    }
+
+    /** Reads a binary snapshot into a heap buffer, closing the file before it is decoded; this does not lock anything, so several snapshots can be read at once.
+     * <br> The file is not mapped in memory, since a mapping is only released when its buffer is garbage collected.
+     */
+    // [HASLab]
+    private static Pair<int[],Map<String,SimTupleset>> readSnapshot(String filename) throws IOException {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(filename, "r");
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Binary snapshot too large.");
+            ByteBuffer buf = ByteBuffer.allocate((int)channel.size());
+            while(buf.hasRemaining()) if (channel.read(buf) < 0) throw new IOException("Unexpected EOF");
+            buf.flip();
+            file.close();
+            file = null;
+            if (buf.getInt() != SNAPSHOT_MAGIC) throw new IOException("Not a binary snapshot.");
+            if (buf.getInt() != SNAPSHOT_VERSION) throw new IOException("Unsupported binary snapshot version.");
+            int maxseq = buf.getInt(), bitwidth = buf.getInt();
+            int count = buf.getInt();
+            if (count < 0 || count > buf.remaining()/4) throw new IOException("Malformed atom table in binary snapshot."); // each atom takes at least 4 bytes
+            SimAtom[] table = new SimAtom[count];
+            for(int i=0; i<table.length; i++) table[i] = SimAtom.make(readString(buf));
+            Map<String,SimTupleset> sfs = new HashMap<String,SimTupleset>();
+            for(int r=buf.getInt(); r>0; r--) {
+                String key = readString(buf);
+                int arity = buf.getInt(), size = buf.getInt();
+                if (size < 0 || (size > 0 && arity <= 0) || (long)size*arity > buf.remaining()/4) throw new IOException("Malformed relation "+key+" in binary snapshot.");
+                List<SimTuple> tuples = new ArrayList<SimTuple>(size);
+                for(int t=0; t<size; t++) {
+                    SimAtom[] atoms = new SimAtom[arity];
+                    for(int i=0; i<arity; i++) {
+                        int a = buf.getInt();
+                        if (a<0 || a>=table.length) throw new IOException("Malformed relation "+key+" in binary snapshot.");
+                        atoms[i] = table[a];
+                    }
+                    tuples.add(SimTuple.make(Arrays.asList(atoms)));
+                }
+                sfs.put(key, SimTupleset.make(tuples));
+            }
+            return new Pair<int[],Map<String,SimTupleset>>(new int[]{maxseq, bitwidth}, sfs);
+        } catch(BufferUnderflowException ex) {
+            throw new IOException("Unexpected EOF");
+        } finally {
+            Util.close(file);
+        }
+    }
+
+    /** Reads a length-prefixed UTF-8 string from the given buffer. */
+    // [HASLab]
+    private static String readString(ByteBuffer buf) throws IOException {
+        int n = buf.getInt();
+        if (n < 0 || n > buf.remaining()) throw new IOException("Unexpected EOF");
+        byte[] b = new byte[n];
+        buf.get(b);
+        return new String(b, "UTF-8");
+    }
+
+    /** Reads the textual format written by {@link #write(String)}. */
+    // [HASLab] refactored
+    private static Pair<int[],Map<String,SimTupleset>> readText(String filename) throws IOException {
         FileInputStream fis = null;
         BufferedInputStream bis = null;
         try {
@@ -182,8 +372,6 @@ public final class SimInstance extends VisitReturn<Object> {
             // read bitwidth
             if (!readkey(bis).equals("bitwidth")) throw new IOException("Expecting bitwidth = ...");
             int bitwidth = readNonNegativeIntThenLinebreak(bis);
-            // construct the SimInstance object with no atoms and no relations
-            SimInstance ans = new SimInstance(root, bitwidth, maxseq);
             // parse all the relations
             Map<String,SimTupleset> sfs = new HashMap<String,SimTupleset>();
             while(true) {
@@ -191,35 +379,59 @@ public final class SimInstance extends VisitReturn<Object> {
                 if (key.length() == 0) break; // we don't expect any more data after this
                 sfs.put(key, SimTupleset.read(bis));
             }
-            // now for each user-supplied sig, if we saw its value earlier, then assign its value in the new SimInstance's sfs map
-            for(final Sig s: root.getAllReachableSigs()) if (!s.builtin) {
-                SimTupleset ts = sfs.get("sig " + s.label);
-                if (ts!=null) ans.sfs.put(s, ts);
-                for(final Field f: s.getFields()) if (!f.defined) {
-                    ts = sfs.get("field " + s.label + " " + f.label);
-                    if (ts!=null) ans.sfs.put(f, ts);
-                }
-            }
-            // now for each user-supplied var, if we saw its value earlier, then assign its value in the new SimInstance's sfs map
-            if (vars!=null) for(ExprVar v: vars) {
-                SimTupleset ts = sfs.get("var " + v.label);
-                if (ts!=null) ans.sfs.put(v, ts);
-            }
             // close the files then return the answer
             bis.close();
             bis = null;
             fis.close();
             fis = null;
-            return ans;
+            return new Pair<int[],Map<String,SimTupleset>>(new int[]{maxseq, bitwidth}, sfs);
         } finally {
-            // free the temporary array
-            readcache = null;
             // if an exception occurred, we'll try to close to files anyway, since open file descriptors is a scarce resource
             Util.close(bis);
             Util.close(fis);
         }
     }
 
+    /** Returns true if the given file starts with the binary snapshot magic number. */
+    // [HASLab]
+    private static boolean isSnapshot(String filename) throws IOException {
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(filename);
+            byte[] b = new byte[4];
+            for(int n=0; n<4; ) { int k = fis.read(b, n, 4-n); if (k<0) return false; n += k; }
+            return ((b[0]&0xFF)<<24 | (b[1]&0xFF)<<16 | (b[2]&0xFF)<<8 | (b[3]&0xFF)) == SNAPSHOT_MAGIC;
+        } finally {
+            Util.close(fis);
+        }
+    }
+
+    /** Construct a new simulation context by reading the given file (either a binary snapshot, or the textual format).
+     * <p> This method is thread-safe, and several files can be read at once.
+     */
+    public static SimInstance read(Module root, String filename, List<ExprVar> vars) throws Err, IOException {
+        // [HASLab] binary snapshots are decoded from a buffer, textual files are parsed
+        Pair<int[],Map<String,SimTupleset>> data = isSnapshot(filename) ? readSnapshot(filename) : readText(filename);
+        // construct the SimInstance object with no atoms and no relations
+        SimInstance ans = new SimInstance(root, data.a[1], data.a[0]);
+        Map<String,SimTupleset> sfs = data.b;
+        // now for each user-supplied sig, if we saw its value earlier, then assign its value in the new SimInstance's sfs map
+        for(final Sig s: root.getAllReachableSigs()) if (!s.builtin) {
+            SimTupleset ts = sfs.get("sig " + s.label);
+            if (ts!=null) ans.sfs.put(s, ts);
+            for(final Field f: s.getFields()) if (!f.defined) {
+                ts = sfs.get("field " + s.label + " " + f.label);
+                if (ts!=null) ans.sfs.put(f, ts);
+            }
+        }
+        // now for each user-supplied var, if we saw its value earlier, then assign its value in the new SimInstance's sfs map
+        if (vars!=null) for(ExprVar v: vars) {
+            SimTupleset ts = sfs.get("var " + v.label);
+            if (ts!=null) ans.sfs.put(v, ts);
+        }
+        return ans;
+    }
+
     /** Construct a new simulation context with the given bitwidth and the given maximum sequence length. */
     public SimInstance(Module root, int bitwidth, int maxseq) throws Err {
         if (bitwidth<0 || bitwidth>32) throw new ErrorType("Bitwidth must be between 0 and 32.");
@@ -233,7 +445,8 @@ public final class SimInstance extends VisitReturn<Object> {
         shiftmask = Util.shiftmask(bitwidth);
     }
 
-    /** Construct a deep copy of this instance (except that it shares the same root Module object as the old instance) */
+    /** Construct a deep copy of this instance (except that it shares the same root Module object as the old instance);
+     * the copy does not belong to the trace of the old instance, if any. */
     public SimInstance(SimInstance old) throws Err {
         root = old.root;
         bitwidth = old.bitwidth;
@@ -246,11 +459,405 @@ public final class SimInstance extends VisitReturn<Object> {
         cacheSTRING = old.cacheSTRING;
         callbacks = new HashMap<Func,SimCallback>(old.callbacks);
         for(Map.Entry<Expr,SimTupleset> e: old.sfs.entrySet()) sfs.put(e.getKey(), e.getValue());
+        memo.putAll(old.memo); // [HASLab]
+        deps.putAll(old.deps); // [HASLab]
+        stale.putAll(old.stale); // [HASLab]
+        changes.putAll(old.changes); // [HASLab]
+        deltas.putAll(old.deltas); // [HASLab]
     }
 
     /** Register a callback. */
     public void addCallback(Func predicateOrFunction, SimCallback callback) {
         callbacks.put(predicateOrFunction, callback);
+        forget(); // [HASLab]
+    }
+
+    /** Immutable; the relations read by an expression, and the variables that occur free in it. */
+    // [HASLab]
+    private static final class Deps {
+        /** The variables that occur free in the expression. */
+        final Set<ExprVar> vars;
+        /** The sigs, fields and skolems read by the expression (including through function calls and defined fields). */
+        final Set<Expr> reads;
+        /** True if the expression reads univ, String or iden (and thus depends on every relation). */
+        final boolean all;
+        /** True if a function body or field definition called by the expression reads a variable that may denote an atom. */
+        final boolean atoms;
+        /** True if the expression has temporal operators (and thus its value depends on the position in a trace). */
+        final boolean temporal;
+        /** Constructs the given dependencies. */
+        Deps(Set<ExprVar> vars, Set<Expr> reads, boolean all, boolean atoms, boolean temporal) { this.vars=vars; this.reads=reads; this.all=all; this.atoms=atoms; this.temporal=temporal; }
+        /** The dependencies of an expression that reads nothing. */
+        static final Deps NONE = new Deps(Collections.<ExprVar>emptySet(), Collections.<Expr>emptySet(), false, false, false);
+        /** The dependencies of an expression that depends on every relation. */
+        static final Deps ALL = new Deps(Collections.<ExprVar>emptySet(), Collections.<Expr>emptySet(), true, false, false);
+        /** Returns true if a change to the given sig, field or skolem may change the value of the expression. */
+        boolean affectedBy(Expr relation) {
+            return all || reads.contains(relation) || ((atoms || !vars.isEmpty()) && relation instanceof Sig);
+        }
+        /** Returns true if these dependencies include those of that. */
+        private boolean covers(Deps that) {
+            return (all || !that.all) && (atoms || !that.atoms) && (temporal || !that.temporal) && vars.containsAll(that.vars) && reads.containsAll(that.reads);
+        }
+        /** Returns the union of these dependencies and those of that (reusing either one if it already includes the other). */
+        Deps union(Deps that) {
+            if (covers(that)) return this; else if (that.covers(this)) return that;
+            Set<ExprVar> v = Collections.newSetFromMap(new IdentityHashMap<ExprVar,Boolean>());
+            Set<Expr> r = Collections.newSetFromMap(new IdentityHashMap<Expr,Boolean>());
+            v.addAll(vars); v.addAll(that.vars);
+            r.addAll(reads); r.addAll(that.reads);
+            return new Deps(v, r, all || that.all, atoms || that.atoms, temporal || that.temporal);
+        }
+        /** Returns these dependencies without the given variables (which are bound by an enclosing expression). */
+        Deps without(Collection<ExprVar> bound) {
+            if (Collections.disjoint(vars, bound)) return this;
+            Set<ExprVar> v = Collections.newSetFromMap(new IdentityHashMap<ExprVar,Boolean>());
+            Set<Expr> r = Collections.newSetFromMap(new IdentityHashMap<Expr,Boolean>());
+            v.addAll(vars); v.removeAll(bound);
+            r.addAll(reads); r.removeAll(bound);
+            return new Deps(v, r, all, atoms, temporal);
+        }
+        /** Returns these dependencies as those of a function body or field definition, whose free variables are bound by the caller. */
+        Deps body() {
+            return vars.isEmpty() ? this : new Deps(Collections.<ExprVar>emptySet(), reads, all, true, temporal);
+        }
+        /** Returns these dependencies marked as temporal. */
+        Deps temporal() {
+            return temporal ? this : new Deps(vars, reads, all, atoms, true);
+        }
+    }
+
+    /** Computes the dependencies of an expression from the (cached) dependencies of its subexpressions, so each node is only visited once. */
+    // [HASLab]
+    private final class DepsBuilder extends VisitReturn<Deps> {
+        /** The function bodies and field definitions whose dependencies are being computed (to guard against recursion). */
+        private final Set<Expr> pending = Collections.newSetFromMap(new IdentityHashMap<Expr,Boolean>());
+        /** Returns the dependencies of the given function body or field definition. */
+        private Deps body(Expr x) throws Err {
+            if (!pending.add(x)) return Deps.ALL; // a recursive call: conservatively, it depends on everything
+            try { return deps(x).body(); } finally { pending.remove(x); }
+        }
+        @Override public Deps visit(ExprBinary x) throws Err {
+            Deps ans = deps(x.left).union(deps(x.right));
+            return isTemporal(x) ? ans.temporal() : ans;
+        }
+        @Override public Deps visit(ExprList x) throws Err {
+            Deps ans = Deps.NONE;
+            for(Expr y: x.args) ans = ans.union(deps(y));
+            return ans;
+        }
+        @Override public Deps visit(ExprCall x) throws Err {
+            Deps ans = body(x.fun.getBody());
+            for(Expr y: x.args) ans = ans.union(deps(y));
+            return ans;
+        }
+        @Override public Deps visit(ExprConstant x) throws Err {
+            return x.op==ExprConstant.Op.IDEN ? Deps.ALL : Deps.NONE;
+        }
+        @Override public Deps visit(ExprITE x) throws Err {
+            return deps(x.cond).union(deps(x.left)).union(deps(x.right));
+        }
+        @Override public Deps visit(ExprLet x) throws Err {
+            return deps(x.expr).union(deps(x.sub).without(Util.asList(x.var)));
+        }
+        @Override public Deps visit(ExprQt x) throws Err {
+            Deps ans = Deps.NONE;
+            List<ExprVar> bound = new ArrayList<ExprVar>();
+            for(Decl d: x.decls) {
+                ans = ans.union(deps(d.expr).without(bound));
+                for(ExprHasName v: d.names) if (v instanceof ExprVar) bound.add((ExprVar)v);
+            }
+            return ans.union(deps(x.sub).without(bound));
+        }
+        @Override public Deps visit(ExprUnary x) throws Err {
+            Deps ans = deps(x.sub);
+            return isTemporal(x) ? ans.temporal() : ans;
+        }
+        @Override public Deps visit(ExprVar x) throws Err {
+            Set<ExprVar> v = Collections.newSetFromMap(new IdentityHashMap<ExprVar,Boolean>());
+            Set<Expr> r = Collections.newSetFromMap(new IdentityHashMap<Expr,Boolean>());
+            v.add(x); r.add(x);
+            return new Deps(v, r, false, false, false);
+        }
+        @Override public Deps visit(Sig x) throws Err {
+            if (x==Sig.UNIV || x.isSame(Sig.STRING)) return Deps.ALL; else if (x.builtin) return Deps.NONE;
+            Set<Expr> r = Collections.newSetFromMap(new IdentityHashMap<Expr,Boolean>());
+            r.add(x);
+            return new Deps(Collections.<ExprVar>emptySet(), r, false, false, false);
+        }
+        @Override public Deps visit(Field x) throws Err {
+            Set<Expr> r = Collections.newSetFromMap(new IdentityHashMap<Expr,Boolean>());
+            r.add(x);
+            if (x.defined) r.add(x.sig);
+            Deps ans = new Deps(Collections.<ExprVar>emptySet(), r, false, false, false);
+            return x.defined ? ans.union(body(x.decl().expr)) : ans;
+        }
+    }
+
+    /** Computes the dependencies of expressions not seen before. */
+    // [HASLab]
+    private final DepsBuilder depsBuilder = new DepsBuilder();
+
+    /** Returns the dependencies of the given expression (computing them from those of its subexpressions if needed). */
+    // [HASLab]
+    private Deps deps(Expr x) throws Err {
+        Deps ans = deps.get(x);
+        if (ans != null) return ans;
+        ans = x.accept(depsBuilder);
+        if (deps.size() >= MEMO_LIMIT) { deps.clear(); forget(); }
+        deps.put(x, ans);
+        return ans;
+    }
+
+    /** Evaluates the given expression, reusing its memoized value if it is closed in the current environment. */
+    // [HASLab]
+    private Object eval(Expr x) throws Err {
+        // leaves are cheap enough to evaluate directly
+        if (x instanceof ExprVar || x instanceof ExprConstant || x instanceof Sig || (x instanceof Field && !((Field)x).defined)) return visitThis(x);
+        if (x instanceof ExprUnary && ((ExprUnary)x).op==ExprUnary.Op.NOOP) return eval(((ExprUnary)x).sub); // memoize what it wraps
+        if (trace!=null && deps(x).temporal) return visitThis(x); // its value depends on the position
+        Object ans = memo.get(x);
+        if (ans != null && closed(x)) return ans;
+        if (stale.containsKey(x) && closed(x)) {
+            SimTupleset[] now = update(x);
+            if (now != null) return now[0];
+            stale.remove(x);
+        }
+        ans = visitThis(x);
+        if ((ans instanceof Boolean || ans instanceof SimTupleset) && closed(x)) {
+            if (memo.size() >= MEMO_LIMIT) forget();
+            memo.put(x, ans);
+        }
+        return ans;
+    }
+
+    /** Returns true if no free variable of the given expression is bound in the current environment. */
+    // [HASLab]
+    private boolean closed(Expr x) throws Err {
+        for(ExprVar v: deps(x).vars) if (env.has(v)) return false;
+        return true;
+    }
+
+    /** Returns true if the given expression is a temporal operator (including the prime operator). */
+    // [HASLab]
+    private static boolean isTemporal(Expr x) {
+        if (x instanceof ExprUnary) switch(((ExprUnary)x).op) {
+            case AFTER: case ALWAYS: case EVENTUALLY: case PREVIOUS: case HISTORICALLY: case ONCE: case PRIME: return true;
+            default: return false;
+        }
+        if (x instanceof ExprBinary) switch(((ExprBinary)x).op) {
+            case UNTIL: case RELEASE: case SINCE: case TRIGGER: return true;
+            default: return false;
+        }
+        return false;
+    }
+
+    /** Evaluates the given expression at the given position of the trace, in the current environment. */
+    // [HASLab]
+    Object evalAt(int position, Expr x) throws Err {
+        if (trace == null) throw new ErrorAPI("Temporal expressions can only be evaluated over a SimTrace.");
+        SimInstance s = trace.state(position);
+        Env<ExprVar,Object> oldenv = s.env;
+        int oldtime = s.time;
+        s.env = env;
+        s.time = position;
+        try {
+            if (!x.errors.isEmpty()) throw x.errors.pick();
+            return s.eval(x);
+        } finally {
+            s.env = oldenv;
+            s.time = oldtime;
+        }
+    }
+
+    /** Evaluates the given formula at the given position of the trace, in the current environment. */
+    // [HASLab]
+    boolean cformAt(int position, Expr x) throws Err {
+        Object y = evalAt(position, x);
+        if (y instanceof Boolean) return Boolean.TRUE.equals(y);
+        throw new ErrorFatal(x.span(), "This should have been a formula.\nInstead it is "+y);
+    }
+
+    /** Returns a key identifying the given expression together with the current values of its free variables. */
+    // [HASLab]
+    List<Object> bindings(Expr x) throws Err {
+        List<Object> ans = new ArrayList<Object>();
+        ans.add(x);
+        for(ExprVar v: deps(x).vars) if (env.has(v)) { ans.add(v); ans.add(env.get(v)); }
+        return ans;
+    }
+
+    /** Evaluates a temporal formula at the current position of the trace. */
+    // [HASLab]
+    private Object temporal(Expr x) throws Err {
+        if (trace == null) throw new ErrorAPI("Temporal formulas can only be evaluated over a SimTrace.");
+        return trace.valuation(this, x)[time];
+    }
+
+    /** Removes every memoized value. */
+    // [HASLab]
+    private void forget() {
+        memo.clear();
+        stale.clear();
+        changes.clear();
+        deltas.clear();
+    }
+
+    /** Removes the memoized values that may depend on the given sig, field or skolem, whose value was the given one (or unknown, if null).
+     * <p> The removed tuplesets that can be brought up to date from the change become stale (see {@link #update}).
+     */
+    // [HASLab]
+    private void invalidate(Expr relation, SimTupleset oldvalue) {
+        if (trace != null) trace.changed();
+        if (stale.isEmpty()) { changes.clear(); deltas.clear(); } // a new epoch
+        if (oldvalue == null) { stale.clear(); changes.clear(); deltas.clear(); }
+        for(Iterator<Map.Entry<Expr,SimTupleset[]>> it = deltas.entrySet().iterator(); it.hasNext(); ) {
+            Deps d = deps.get(it.next().getKey());
+            if (d==null || d.affectedBy(relation)) it.remove();
+        }
+        deltas.remove(relation);
+        for(Iterator<Map.Entry<Expr,Object>> it = memo.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Expr,Object> e = it.next();
+            Expr x = e.getKey();
+            Object value = e.getValue();
+            Deps d = deps.get(x);
+            if (d!=null && !d.affectedBy(relation)) continue;
+            it.remove();
+            // a value computed after an earlier change in this epoch is not as it was when the epoch began
+            if (oldvalue!=null && d!=null && value instanceof SimTupleset && incremental(x) && !affected(d)) stale.put(x, (SimTupleset)value);
+        }
+        if (oldvalue!=null && !changes.containsKey(relation)) changes.put(relation, oldvalue);
+    }
+
+    /** Returns true if an expression with the given dependencies may have changed in the current epoch. */
+    // [HASLab]
+    private boolean affected(Deps d) {
+        for(Expr r: changes.keySet()) if (d.affectedBy(r)) return true;
+        return false;
+    }
+
+    /** Returns true if the value of the given expression can be brought up to date from the changes to its subexpressions. */
+    // [HASLab]
+    private static boolean incremental(Expr x) {
+        if (x instanceof ExprUnary) return ((ExprUnary)x).op==ExprUnary.Op.CLOSURE;
+        if (!(x instanceof ExprBinary)) return false;
+        ExprBinary b = (ExprBinary)x;
+        switch(b.op) {
+            case JOIN: return !b.left.isSame(Sig.UNIV) && !b.right.isSame(Sig.UNIV);
+            case PLUS: case MINUS: return true;
+            default: return false;
+        }
+    }
+
+    /** Returns the current value of the given closed expression, together with the tuples added and removed since the current epoch began;
+     * or null if they cannot be obtained without evaluating the expression in full.
+     * <p> A stale union, difference or join is brought up to date from the changes to its operands, in time proportional to the size of
+     * the changes rather than to the size of the operands where possible, and is memoized again. So is a stale closure whose operand
+     * only gained tuples; a closure whose operand lost tuples, and every other expression (eg. reflexive closure, intersection,
+     * product or override), is evaluated in full instead, since removing a tuple may break any path through it.
+     */
+    // [HASLab]
+    private SimTupleset[] update(Expr x) throws Err {
+        x = x.deNOP();
+        SimTupleset[] ans = deltas.get(x);
+        if (ans != null) return ans;
+        SimTupleset old = changes.get(x);
+        if (old != null) {
+            SimTupleset now = cset(x);
+            ans = new SimTupleset[]{now, now.difference(old), old.difference(now)};
+            deltas.put(x, ans);
+            return ans;
+        }
+        if (!affected(deps(x))) return new SimTupleset[]{cset(x), SimTupleset.EMPTY, SimTupleset.EMPTY};
+        old = stale.get(x);
+        if (old == null || !incremental(x)) return null;
+        final SimTupleset plus, minus;
+        if (x instanceof ExprUnary) { // CLOSURE
+            SimTupleset[] s = update(((ExprUnary)x).sub);
+            if (s == null || !s[2].empty()) return null;
+            plus = extend(old, s[1]);
+            minus = SimTupleset.EMPTY;
+        } else {
+            ExprBinary b = (ExprBinary)x;
+            SimTupleset[] l = update(b.left), r = update(b.right);
+            if (l == null || r == null) return null;
+            switch(b.op) {
+                case PLUS:
+                    plus = l[1].union(r[1]).difference(old);
+                    minus = removed(old, l[2].union(r[2]), l[0], r[0]);
+                    break;
+                case MINUS:
+                    plus = l[1].difference(r[0]).union(r[2].intersect(l[0])).difference(old);
+                    minus = l[2].union(r[1]).intersect(old);
+                    break;
+                default: // JOIN
+                    plus = l[1].join(r[0]).union(l[0].join(r[1])).difference(old);
+                    TempList<SimTuple> gone = new TempList<SimTuple>();
+                    for(SimTuple t: l[2].join(r[0].union(r[2])).union(l[0].union(l[2]).join(r[2])))
+                        if (old.has(t) && !joins(l[0], r[0], t)) gone.add(t);
+                    minus = SimTupleset.make(gone.makeConst());
+            }
+        }
+        SimTupleset now = old.difference(minus).union(plus);
+        ans = new SimTupleset[]{now, plus, minus};
+        stale.remove(x);
+        deltas.put(x, ans);
+        if (memo.size() >= MEMO_LIMIT) forget();
+        memo.put(x, now);
+        return ans;
+    }
+
+    /** Returns the given candidates that are in the given old value but in none of the given sets. */
+    // [HASLab]
+    private static SimTupleset removed(SimTupleset old, SimTupleset candidates, SimTupleset a, SimTupleset b) {
+        TempList<SimTuple> ans = new TempList<SimTuple>();
+        for(SimTuple t: candidates) if (old.has(t) && !a.has(t) && !b.has(t)) ans.add(t);
+        return SimTupleset.make(ans.makeConst());
+    }
+
+    /** Returns the tuples that must be added to the given transitive closure once the given edges are added to the relation it closes.
+     * <p> Adding the edge a->b connects every atom that reaches a (or a itself) to every atom that b reaches (or b itself);
+     * the edges are added one at a time, remembering the new tuples so that later edges see the paths created by earlier ones.
+     */
+    // [HASLab]
+    private static SimTupleset extend(SimTupleset old, SimTupleset edges) {
+        TempList<SimTuple> ans = new TempList<SimTuple>();
+        Set<SimTuple> added = new HashSet<SimTuple>();
+        Map<SimAtom,List<SimAtom>> succ = new IdentityHashMap<SimAtom,List<SimAtom>>(), pred = new IdentityHashMap<SimAtom,List<SimAtom>>();
+        for(SimTuple e: edges) {
+            if (old.has(e) || added.contains(e)) continue;
+            List<SimAtom> from = new ArrayList<SimAtom>(), to = new ArrayList<SimAtom>();
+            from.add(e.head());
+            for(SimTuple t: old.endWith(SimTuple.make(e.head()))) from.add(t.head());
+            if (pred.containsKey(e.head())) from.addAll(pred.get(e.head()));
+            to.add(e.tail());
+            for(SimTuple t: old.beginWith(SimTuple.make(e.tail()))) to.add(t.head());
+            if (succ.containsKey(e.tail())) to.addAll(succ.get(e.tail()));
+            for(SimAtom a: from) for(SimAtom b: to) {
+                SimTuple t = SimTuple.make(a, b);
+                if (old.has(t) || !added.add(t)) continue;
+                ans.add(t);
+                if (!succ.containsKey(a)) succ.put(a, new ArrayList<SimAtom>());
+                succ.get(a).add(b);
+                if (!pred.containsKey(b)) pred.put(b, new ArrayList<SimAtom>());
+                pred.get(b).add(a);
+            }
+        }
+        return SimTupleset.make(ans.makeConst());
+    }
+
+    /** Returns true if the given tuple is in the join of a and b (without computing the join). */
+    // [HASLab]
+    private static boolean joins(SimTupleset a, SimTupleset b, SimTuple t) {
+        if (a.empty() || b.empty()) return false;
+        int ka = a.arity(), kb = b.arity();
+        if (ka==1) { // then t is the tail of a tuple of b
+            for(SimTuple m: b.endWith(t)) if (a.has(m)) return true;
+            return false;
+        }
+        SimTupleset mids = a.beginWith(t.head(ka-1));
+        for(SimTuple m: mids) if (b.has(kb==1 ? m : m.product(t.tail(kb-1)))) return true;
+        return false;
     }
 
     /** Returns true if the given atom is an Int atom, or String atom, or is in at least one of the sig. */
@@ -283,6 +890,7 @@ public final class SimInstance extends VisitReturn<Object> {
           for(; s!=null; s=s.parent) if (!s.builtin) {
               SimTupleset old = sfs.get(s);
               if (old==null || old.empty()) sfs.put(s, add); else if (!add.in(old)) sfs.put(s, old.union(add)); else break;
+              invalidate(s, old==null ? SimTupleset.EMPTY : old); // [HASLab]
           }
           return atom;
         }
@@ -302,7 +910,7 @@ public final class SimInstance extends VisitReturn<Object> {
        for(Map.Entry<Expr,SimTupleset> x: sfs.entrySet()) {
           SimTupleset oldvalue = x.getValue();
           SimTupleset newvalue = oldvalue.removeAll(atom);
-          if (oldvalue.longsize() != newvalue.longsize()) { changed=true; x.setValue(newvalue); }
+          if (oldvalue.longsize() != newvalue.longsize()) { changed=true; x.setValue(newvalue); invalidate(x.getKey(), oldvalue); } // [HASLab]
        }
        if (changed) { cacheUNIV=null; return true; } else { return false; }
     }
@@ -311,10 +919,11 @@ public final class SimInstance extends VisitReturn<Object> {
      * <p> The resulting instance may or may not satisfy all facts, and should be checked for consistency.
      */
     public void init(Sig sig, SimTupleset value) throws Err {
-        if (value==null) { sfs.remove(sig); return; }
+        if (value==null) { sfs.remove(sig); invalidate(sig, null); return; } // [HASLab]
         if (value.arity()>1) throw new ErrorType("Evaluator encountered an error: sig "+sig.label+" arity must not be " + value.arity());
         if (sig.builtin) throw new ErrorAPI("Evaluator cannot prebind the builtin sig \"" + sig.label + "\"");
-        sfs.put(sig, value);
+        SimTupleset old = sfs.put(sig, value); // [HASLab]
+        invalidate(sig, old); // [HASLab]
         cacheUNIV = null;
         cacheSTRING = null;
         cacheForConstants.clear();
@@ -324,10 +933,11 @@ public final class SimInstance extends VisitReturn<Object> {
      * <p> The resulting instance may or may not satisfy all facts, and should be checked for consistency.
      */
     public void init(Field field, SimTupleset value) throws Err {
-        if (value==null) { sfs.remove(field); return; }
+        if (value==null) { sfs.remove(field); invalidate(field, null); return; } // [HASLab]
         if (!value.empty() && value.arity()!=field.type().arity()) throw new ErrorType("Evaluator encountered an error: field "+field.label+" arity must not be " + value.arity());
         if (field.defined) throw new ErrorAPI("Evaluator cannot prebind the value of a defined field.");
-        sfs.put(field, value);
+        SimTupleset old = sfs.put(field, value); // [HASLab]
+        invalidate(field, old); // [HASLab]
         cacheUNIV = null;
         cacheSTRING = null;
         cacheForConstants.clear();
@@ -337,9 +947,10 @@ public final class SimInstance extends VisitReturn<Object> {
      * <p> The resulting instance may or may not satisfy all facts, and should be checked for consistency.
      */
     public void init(ExprVar var, SimTupleset value) throws Err {
-        if (value==null) { sfs.remove(var); return; }
+        if (value==null) { sfs.remove(var); invalidate(var, null); return; } // [HASLab]
         if (!value.empty() && value.arity()!=var.type().arity()) throw new ErrorType("Evaluator encountered an error: skolem "+var.label+" arity must not be " + value.arity());
-        sfs.put(var, value);
+        SimTupleset old = sfs.put(var, value); // [HASLab]
+        invalidate(var, old); // [HASLab]
         cacheUNIV = null;
         cacheSTRING = null;
         cacheForConstants.clear();
@@ -359,7 +970,7 @@ public final class SimInstance extends VisitReturn<Object> {
      */
     public boolean cform(Expr x) throws Err {
         if (!x.errors.isEmpty()) throw x.errors.pick();
-        Object y = visitThis(x);
+        Object y = eval(x); // [HASLab] memoized
         if (y instanceof Boolean) return Boolean.TRUE.equals(y);
         throw new ErrorFatal(x.span(), "This should have been a formula.\nInstead it is "+y);
     }
@@ -382,7 +993,7 @@ public final class SimInstance extends VisitReturn<Object> {
      */
     public SimTupleset cset(Expr x) throws Err {
         if (!x.errors.isEmpty()) throw x.errors.pick();
-        Object y = visitThis(x);
+        Object y = eval(x); // [HASLab] memoized
         if (y instanceof SimTupleset) return (SimTupleset)y;
         if (y instanceof Integer) return SimTupleset.make(SimTuple.make(SimAtom.make(((Integer) y).intValue())));
         throw new ErrorFatal(x.span(), "This should have been a set or a relation.\nInstead it is "+y);
@@ -455,6 +1066,8 @@ public final class SimInstance extends VisitReturn<Object> {
               { int p=cint(x.left), q=cint(x.right), r=(p==0 ? 0 : (q==0 ? (p<0 ? 1 : -1) : (p/q))); return trunc(r); }
           case REM:
               { int p=cint(x.left), q=cint(x.right), r=(p==0 ? 0 : (q==0 ? (p<0 ? 1 : -1) : (p/q))); return trunc(p-r*q); }
+          case UNTIL: case RELEASE: case SINCE: case TRIGGER:
+              return temporal(x); // [HASLab]
         }
         throw new ErrorFatal(x.pos, "Unsupported operator ("+x.op+") encountered during ExprBinary.accept()");
     }
@@ -572,6 +1185,10 @@ public final class SimInstance extends VisitReturn<Object> {
           case CLOSURE:     return cset(x.sub).closure();
           case RCLOSURE:    return cset(x.sub).closure().union(cset(ExprConstant.IDEN));
           case TRANSPOSE:   return cset(x.sub).transpose();
+          case AFTER: case ALWAYS: case EVENTUALLY: case PREVIOUS: case HISTORICALLY: case ONCE:
+                            return temporal(x); // [HASLab]
+          case PRIME:       if (trace == null) throw new ErrorAPI("Primed expressions can only be evaluated over a SimTrace."); // [HASLab]
+                            return evalAt(trace.next(time), x.sub);
         }
         throw new ErrorFatal(x.pos, "Unsupported operator ("+x.op+") encountered during ExprUnary.accept()");
     }
@@ -642,7 +1259,7 @@ public final class SimInstance extends VisitReturn<Object> {
         if (ans instanceof SimTupleset) return (SimTupleset)ans; else throw new ErrorFatal("Unknown field "+x+" encountered during evaluation.");
     }
 
-    /** Helper method for enumerating all possibilties for a quantification-expression. */
+    /** Helper method for enumerating all possibilties for a quantification-expression; for ALL, it counts the bindings where the body is false. */
     private int enumerate(final TempList<SimTuple> store, int sum, final ExprQt x, final Expr body, final int i) throws Err { // if op is ALL NO SOME ONE LONE then it always returns 0 1 2
        final int n = x.count();
        final ExprVar v = x.get(i);
@@ -661,7 +1278,7 @@ public final class SimInstance extends VisitReturn<Object> {
           env.put(v, binding);
           if (i<n-1) sum = enumerate(store, sum, x, body, i+1);
              else if (x.op==ExprQt.Op.SUM) sum += cint(body);
-             else if (x.op!=ExprQt.Op.COMPREHENSION) sum += cform(body)?1:0;
+             else if (x.op!=ExprQt.Op.COMPREHENSION) sum += cform(body)!=(x.op==ExprQt.Op.ALL)?1:0; // [HASLab] rather than evaluating a negated body
              else if (cform(body)) {
                SimTuple a=null, b;
                for(int j=0; j<n; j++) { b=((SimTupleset)(env.get(x.get(j)))).getTuple(); if (a==null) a=b; else a=a.product(b); }
@@ -673,16 +1290,100 @@ public final class SimInstance extends VisitReturn<Object> {
        return sum;
     }
 
+    /** Helper method that enumerates the outermost variable of a quantification-expression in parallel, if worthwhile;
+     * returns null if the domain is too small, in which case the caller must enumerate sequentially.
+     * <p> Each task evaluates a contiguous chunk of the bindings on its own copy of this instance; comprehension tuples
+     * are concatenated in chunk order, so the result is the same as that of enumerate().
+     */
+    // [HASLab]
+    private Integer enumerateParallel(final TempList<SimTuple> store, final ExprQt x, final Expr body) throws Err {
+       final Expr bound = x.getBound(0);
+       final Iterator<SimTupleset> it;
+       switch(bound.mult()) {
+         case LONEOF: it = cset(bound).loneOf(); break;
+         case ONEOF:  it = cset(bound).oneOf();  break;
+         case SOMEOF: it = cset(bound).someOf(); break;
+         default:     it = cset(bound).setOf();
+       }
+       final List<SimTupleset> bindings = new ArrayList<SimTupleset>();
+       while(it.hasNext()) bindings.add(it.next());
+       final int tasks = Math.min(bindings.size() / (PARALLEL_THRESHOLD / 4), 4 * ForkJoinPool.getCommonPoolParallelism());
+       if (bindings.size() < PARALLEL_THRESHOLD || tasks < 2) return null;
+       // counting quantifiers can stop as soon as two hits are found (or one, for ALL/NO/SOME)
+       final boolean counting = x.op!=ExprQt.Op.COMPREHENSION && x.op!=ExprQt.Op.SUM;
+       final int enough = (x.op==ExprQt.Op.LONE || x.op==ExprQt.Op.ONE) ? 2 : 1;
+       final AtomicInteger hits = new AtomicInteger(0);
+       final List<ForkJoinTask<Object[]>> forks = new ArrayList<ForkJoinTask<Object[]>>(tasks);
+       for(int t=0; t<tasks; t++) {
+          final int from = (int)((long)bindings.size() * t / tasks), to = (int)((long)bindings.size() * (t+1) / tasks);
+          final SimInstance worker = new SimInstance(this);
+          worker.cacheForConstants.putAll(cacheForConstants);
+          worker.current_function.addAll(current_function);
+          forks.add(ForkJoinTask.adapt(new Callable<Object[]>() {
+             public Object[] call() throws Err {
+                TempList<SimTuple> part = (store==null) ? null : new TempList<SimTuple>();
+                int sum = 0;
+                for(int i=from; i<to; i++) {
+                   if (counting && hits.get() >= enough) break;
+                   SimTupleset binding = bindings.get(i);
+                   if (bound.mult==2 && !worker.isIn(binding, bound)) continue;
+                   worker.env.put(x.get(0), binding);
+                   int n;
+                   if (x.count()>1) n = worker.enumerate(part, 0, x, body, 1);
+                   else if (x.op==ExprQt.Op.SUM) n = worker.cint(body);
+                   else if (x.op!=ExprQt.Op.COMPREHENSION) n = worker.cform(body)!=(x.op==ExprQt.Op.ALL)?1:0;
+                   else { n = 0; if (worker.cform(body)) part.add(binding.getTuple()); }
+                   worker.env.remove(x.get(0));
+                   if (counting) { if (n>0) hits.addAndGet(n); } else sum += n;
+                }
+                return new Object[]{ sum, part, worker.wasOverflow };
+             }
+          }).fork());
+       }
+       int sum = 0;
+       for(ForkJoinTask<Object[]> f: forks) {
+          final Object[] ans;
+          try {
+             ans = f.join();
+          } catch(RuntimeException ex) {
+             for(ForkJoinTask<Object[]> g: forks) g.cancel(false);
+             for(Throwable cause = ex; cause != null; cause = cause.getCause()) if (cause instanceof Err) throw (Err)cause;
+             throw ex;
+          }
+          sum += (Integer)ans[0];
+          if (store!=null) { @SuppressWarnings("unchecked") TempList<SimTuple> part = (TempList<SimTuple>)ans[1]; store.addAll(part.makeConst()); }
+          if ((Boolean)ans[2]) wasOverflow = true;
+       }
+       return counting ? Math.min(hits.get(), 2) : sum;
+    }
+
     /** {@inheritDoc} */
     @Override public Object visit(ExprQt x) throws Err {
         Expr xx = x.desugar();
         if (xx instanceof ExprQt) x = (ExprQt)xx; else return visitThis(xx);
+        if (parallel && trace==null) { // [HASLab] temporal evaluation shares the states of the trace
+           Integer n = null;
+           TempList<SimTuple> ans = (x.op == ExprQt.Op.COMPREHENSION) ? new TempList<SimTuple>() : null;
+           switch(x.op) {
+             case COMPREHENSION: case ALL: case NO: case SOME: case LONE: case ONE: case SUM: n = enumerateParallel(ans, x, x.sub); break;
+             default:
+           }
+           if (n != null) switch(x.op) {
+             case COMPREHENSION: return SimTupleset.make(ans.makeConst());
+             case ALL: case NO: return n == 0;
+             case SOME: return n >= 1;
+             case LONE: return n <= 1;
+             case ONE:  return n == 1;
+             case SUM:  return trunc(n);
+             default:
+           }
+        }
         if (x.op == ExprQt.Op.COMPREHENSION) {
            TempList<SimTuple> ans = new TempList<SimTuple>();
            enumerate(ans, 0, x, x.sub, 0);
            return SimTupleset.make(ans.makeConst());
         }
-        if (x.op == ExprQt.Op.ALL)  return enumerate(null, 0, x, x.sub.not(), 0) == 0;
+        if (x.op == ExprQt.Op.ALL)  return enumerate(null, 0, x, x.sub,       0) == 0; // [HASLab] counts the bindings where x.sub is false
         if (x.op == ExprQt.Op.NO)   return enumerate(null, 0, x, x.sub,       0) == 0;
         if (x.op == ExprQt.Op.SOME) return enumerate(null, 0, x, x.sub,       0) >= 1;
         if (x.op == ExprQt.Op.LONE) return enumerate(null, 0, x, x.sub,       0) <= 1;
@@ -792,6 +1493,9 @@ public final class SimInstance extends VisitReturn<Object> {
     }
 
     /** Checks whether this instance satisfies every fact defined in the given model.
+     * <p> Constraints are built once, and their values (and those of their closed subexpressions) are memoized
+     * with the sigs and fields they read; so after a small change through init/makeAtom/deleteAtom, re-validating
+     * only re-evaluates the constraints that read the changed relations.
      * @param world - this must be the root of the Alloy model
      * @return an empty String if yes, nonempty String if no
      */
@@ -803,8 +1507,11 @@ public final class SimInstance extends VisitReturn<Object> {
              if (s.isSome!=null && !(visit(s).longsize()>=1)) return "There must be at least one "+s;
              if (s instanceof SubsetSig) {
                 SubsetSig p = (SubsetSig)s;
-                Expr sum = null;
-                for(Sig par: p.parents) sum = par.plus(sum);
+                Expr sum = constraints.get(new Pair<String,Object>("parents", s)); // [HASLab] reuse the same expression
+                if (sum == null) {
+                   for(Sig par: p.parents) sum = par.plus(sum);
+                   constraints.put(new Pair<String,Object>("parents", s), sum);
+                }
                 if (p.exact) {
                    if (!equal(s, sum)) return "Sig "+s+" must be equal to the union of its parents "+p.parents;
                 } else {
@@ -815,12 +1522,17 @@ public final class SimInstance extends VisitReturn<Object> {
                 if (!isIn(s, p.parent)) return "Sig "+s+" must be equal or subset of its parent "+p.parent;
              }
              if (s.isAbstract!=null) {
-                Expr sum = null;
-                for(Sig x: ((PrimSig)s).children()) sum = x.plus(sum);
+                Expr sum = constraints.get(new Pair<String,Object>("children", s)); // [HASLab] reuse the same expression
+                if (sum == null && !constraints.containsKey(new Pair<String,Object>("children", s))) {
+                   for(Sig x: ((PrimSig)s).children()) sum = x.plus(sum);
+                   constraints.put(new Pair<String,Object>("children", s), sum);
+                }
                 if (sum!=null && !equal(s, sum)) return "Abstract sig "+s+" must be equal to the union of its subsigs";
              }
              for(Decl d: s.getFieldDecls()) for(ExprHasName f: d.names) if (!((Field)f).defined) {
-                if (!cform(s.decl.get().join(f).in(d.expr).forAll(s.decl))) {
+                Expr bound = constraints.get(new Pair<String,Object>("bound", f)); // [HASLab] reuse the same expression
+                if (bound == null) constraints.put(new Pair<String,Object>("bound", f), bound = s.decl.get().join(f).in(d.expr).forAll(s.decl));
+                if (!cform(bound)) {
                    return "Field "+f+" violated its bound: " + visit((Field)f) + "\n" + d.expr;
                 }
                 SimTupleset setS = visit(s);
@@ -829,16 +1541,24 @@ public final class SimInstance extends VisitReturn<Object> {
              }
              for(Decl d: s.getFieldDecls()) {
                 if (d.disjoint!=null && d.names.size()>0) {
-                   if (!cform(ExprList.makeDISJOINT(null, null, d.names))) return "Fields must be disjoint.";
+                   Expr disj = constraints.get(new Pair<String,Object>("disjoint", d)); // [HASLab] reuse the same expression
+                   if (disj == null) constraints.put(new Pair<String,Object>("disjoint", d), disj = ExprList.makeDISJOINT(null, null, d.names));
+                   if (!cform(disj)) return "Fields must be disjoint.";
                 }
                 if (d.disjoint2!=null) for(ExprHasName f: d.names) {
-                   Decl that = s.oneOf("that");
-                   Expr formula = s.decl.get().equal(that.get()).not().implies(s.decl.get().join(f).intersect(that.get().join(f)).no());
-                   if (!cform(formula.forAll(that).forAll(s.decl))) return "Fields must be disjoint.";
+                   Expr formula = constraints.get(new Pair<String,Object>("disjoint2", f)); // [HASLab] reuse the same expression
+                   if (formula == null) {
+                      Decl that = s.oneOf("that");
+                      formula = s.decl.get().equal(that.get()).not().implies(s.decl.get().join(f).intersect(that.get().join(f)).no());
+                      constraints.put(new Pair<String,Object>("disjoint2", f), formula = formula.forAll(that).forAll(s.decl));
+                   }
+                   if (!cform(formula)) return "Fields must be disjoint.";
                 }
              }
              for(Expr f: s.getFacts()) {
-                if (!cform(f.forAll(s.decl))) {
+                Expr fact = constraints.get(new Pair<String,Object>("fact", f)); // [HASLab] reuse the same expression
+                if (fact == null) constraints.put(new Pair<String,Object>("fact", f), fact = f.forAll(s.decl));
+                if (!cform(fact)) {
                    f = f.deNOP(); if (f instanceof ExprUnary) {
                       ExprUnary u = (ExprUnary)f;
                       f = u.sub.deNOP();
@@ -0,0 +1,212 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.sim;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.csail.sdg.alloy4.ConstList;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorAPI;
+import edu.mit.csail.sdg.alloy4.ErrorFatal;
+import edu.mit.csail.sdg.alloy4compiler.ast.Expr;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprBinary;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprCall;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprUnary;
+import edu.mit.csail.sdg.alloy4compiler.ast.Func;
+import edu.mit.csail.sdg.alloy4compiler.ast.VisitQuery;
+
+/** Mutable; represents a lasso trace of SimInstance states, over which temporal formulas and primed expressions can be evaluated.
+ *
+ * <p> The trace is the sequence of states 0..n-1, after which it loops back to the state at the loop index.
+ * Each temporal subformula is evaluated bottom-up once over all positions of the trace (for each binding of its free
+ * variables), rather than recursively from each state; its valuation is then reused until the trace changes.
+ *
+ * <p> Past operators may have different values in different iterations of the loop, so the loop is unrolled
+ * as many times as the number of past operators in the formula being evaluated (plus one), after which
+ * every past formula is known to have stabilized.
+ *
+ * <p> The states must not be shared with other traces, and must not be changed while a formula is being evaluated;
+ * changing a state through init/makeAtom/deleteAtom discards the cached valuations.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-simulator
+ */
+
+public final class SimTrace {
+
+    /** The states of the trace. */
+    private final ConstList<SimInstance> states;
+
+    /** The index of the state that follows the last state. */
+    private final int loop;
+
+    /** The number of positions considered, after unrolling the loop for past operators. */
+    private int positions;
+
+    /** Caches the valuation of each temporal subformula (and binding of its free variables) over all positions. */
+    private final Map<List<Object>,boolean[]> valuations = new HashMap<List<Object>,boolean[]>();
+
+    /** Constructs a trace over the given states, where the last state is followed by the state at the given loop index.
+     * @throws ErrorAPI if there are no states, if the loop index is out of range, or if some state already belongs to another trace
+     */
+    public SimTrace(List<SimInstance> states, int loop) throws ErrorAPI {
+        if (states.isEmpty()) throw new ErrorAPI("A trace must have at least one state.");
+        if (loop<0 || loop>=states.size()) throw new ErrorAPI("The loop index "+loop+" must be between 0 and "+(states.size()-1)+".");
+        for(SimInstance s: states) if (s.trace!=null && s.trace!=this) throw new ErrorAPI("A state cannot belong to more than one trace.");
+        this.states = ConstList.make(states);
+        this.loop = loop;
+        this.positions = states.size();
+        for(int i=0; i<states.size(); i++) { states.get(i).trace = this; states.get(i).time = i; }
+    }
+
+    /** Returns the number of states in this trace. */
+    public int length() { return states.size(); }
+
+    /** Returns the index of the state that follows the last state. */
+    public int loop() { return loop; }
+
+    /** Returns the i-th state of this trace. */
+    public SimInstance get(int i) { return states.get(i); }
+
+    /** Discards the cached valuations (this is called automatically whenever a state of this trace changes). */
+    public void changed() { valuations.clear(); }
+
+    /** Returns the state at the given position (positions beyond the last state are unrolled iterations of the loop). */
+    SimInstance state(int position) {
+        int n = states.size();
+        return states.get(position<n ? position : loop + (position-loop) % (n-loop));
+    }
+
+    /** Returns the position that follows the given position. */
+    int next(int position) {
+        return position+1 < positions ? position+1 : positions - (states.size()-loop);
+    }
+
+    /** Returns true if the given formula holds at the first state of this trace. */
+    public boolean holds(Expr formula) throws Err {
+        return holds(formula, 0);
+    }
+
+    /** Returns true if the given formula holds at the i-th state of this trace (in the first iteration of the loop). */
+    public boolean holds(Expr formula, int i) throws Err {
+        Object ans = eval(formula, i);
+        if (ans instanceof Boolean) return (Boolean)ans;
+        throw new ErrorFatal(formula.span(), "This should have been a formula.\nInstead it is "+ans);
+    }
+
+    /** Evaluates the given expression at the i-th state of this trace (in the first iteration of the loop). */
+    public Object eval(Expr expr, int i) throws Err {
+        if (i<0 || i>=states.size()) throw new ErrorAPI("The state "+i+" must be between 0 and "+(states.size()-1)+".");
+        if (!expr.errors.isEmpty()) throw expr.errors.pick();
+        int n = states.size(), p = loop + (n-loop) * (pastOperators(expr)+1);
+        if (p != positions) { positions = p; valuations.clear(); }
+        return states.get(i).evalAt(i, expr);
+    }
+
+    /** Returns the valuation of the given temporal formula over every position, given the current environment of the given state. */
+    boolean[] valuation(SimInstance from, Expr x) throws Err {
+        List<Object> key = from.bindings(x);
+        boolean[] ans = valuations.get(key);
+        if (ans != null) return ans;
+        final int n = positions, l = positions - (states.size()-loop); // the positions l..n-1 form the (last unrolled) loop
+        ans = new boolean[n];
+        if (x instanceof ExprUnary) {
+            ExprUnary u = (ExprUnary)x;
+            boolean[] s = new boolean[n];
+            for(int p=0; p<n; p++) s[p] = from.cformAt(p, u.sub);
+            switch(u.op) {
+              case AFTER:
+                for(int p=0; p<n; p++) ans[p] = s[next(p)];
+                break;
+              case ALWAYS: case EVENTUALLY: {
+                boolean always = u.op==ExprUnary.Op.ALWAYS, loopval = always;
+                for(int p=l; p<n; p++) loopval = always ? (loopval && s[p]) : (loopval || s[p]);
+                for(int p=l; p<n; p++) ans[p] = loopval;
+                for(int p=l-1; p>=0; p--) ans[p] = always ? (s[p] && ans[p+1]) : (s[p] || ans[p+1]);
+                break;
+              }
+              case PREVIOUS:
+                for(int p=1; p<n; p++) ans[p] = s[p-1];
+                break;
+              case HISTORICALLY:
+                ans[0] = s[0];
+                for(int p=1; p<n; p++) ans[p] = s[p] && ans[p-1];
+                break;
+              case ONCE:
+                ans[0] = s[0];
+                for(int p=1; p<n; p++) ans[p] = s[p] || ans[p-1];
+                break;
+              default: throw new ErrorFatal(x.pos, "Unsupported temporal operator ("+u.op+") encountered during trace evaluation.");
+            }
+        } else if (x instanceof ExprBinary) {
+            ExprBinary b = (ExprBinary)x;
+            boolean[] left = new boolean[n], right = new boolean[n];
+            for(int p=0; p<n; p++) { left[p] = from.cformAt(p, b.left); right[p] = from.cformAt(p, b.right); }
+            switch(b.op) {
+              case UNTIL: case RELEASE: {
+                // least (until) or greatest (release) fixpoint; two backward passes over the loop suffice to propagate across it
+                boolean until = b.op==ExprBinary.Op.UNTIL;
+                for(int p=l; p<n; p++) ans[p] = !until;
+                for(int pass=0; pass<2; pass++) for(int p=n-1; p>=l; p--) ans[p] = step(until, left[p], right[p], ans[next(p)]);
+                for(int p=l-1; p>=0; p--) ans[p] = step(until, left[p], right[p], ans[p+1]);
+                break;
+              }
+              case SINCE:
+                for(int p=0; p<n; p++) ans[p] = right[p] || (left[p] && p>0 && ans[p-1]);
+                break;
+              case TRIGGER:
+                for(int p=0; p<n; p++) ans[p] = right[p] && (left[p] || p==0 || ans[p-1]);
+                break;
+              default: throw new ErrorFatal(x.pos, "Unsupported temporal operator ("+b.op+") encountered during trace evaluation.");
+            }
+        } else {
+            throw new ErrorFatal(x.pos, "Unsupported temporal formula encountered during trace evaluation.");
+        }
+        valuations.put(key, ans);
+        return ans;
+    }
+
+    /** One step of the until (left U right) or release (left R right) recurrence, given the value at the next position. */
+    private static boolean step(boolean until, boolean left, boolean right, boolean next) {
+        return until ? (right || (left && next)) : (right && (left || next));
+    }
+
+    /** Returns an upper bound on the nesting of past operators in the given expression (including through function calls). */
+    private static int pastOperators(Expr x) throws Err {
+        final int[] count = new int[1];
+        final Set<Func> funcs = Collections.newSetFromMap(new IdentityHashMap<Func,Boolean>());
+        x.accept(new VisitQuery<Object>() {
+            @Override public Object visit(ExprUnary x) throws Err {
+                if (x.op==ExprUnary.Op.PREVIOUS || x.op==ExprUnary.Op.ONCE || x.op==ExprUnary.Op.HISTORICALLY) count[0]++;
+                return x.sub.accept(this);
+            }
+            @Override public Object visit(ExprBinary x) throws Err {
+                if (x.op==ExprBinary.Op.SINCE || x.op==ExprBinary.Op.TRIGGER) count[0]++;
+                return super.visit(x);
+            }
+            @Override public Object visit(ExprCall x) throws Err {
+                if (funcs.add(x.fun)) x.fun.getBody().accept(this);
+                return super.visit(x);
+            }
+        });
+        return count[0];
+    }
+}
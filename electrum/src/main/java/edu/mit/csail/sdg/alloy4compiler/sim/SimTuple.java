@@ -27,6 +27,8 @@ import java.util.NoSuchElementException;
 /** Immutable; represents a tuple.
  *
  * <p><b>Thread Safety:</b>  Safe.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-simulator
  */
 
 public final class SimTuple implements Iterable<SimAtom> {
@@ -108,6 +110,19 @@ public final class SimTuple implements Iterable<SimAtom> {
     /** Return the i-th atom from this tuple. */
     public SimAtom get(int i) { return array[i]; }
 
+    /** Return the id of the i-th atom from this tuple. */
+    // [HASLab]
+    int id(int i) { return array[i].id; }
+
+    /** Returns this tuple packed into a long (the id of its first atom in the high half, and of its last atom in the low half);
+     * two tuples of arity 1 or 2 are equal iff their packed values are equal. */
+    // [HASLab]
+    long pack() { return pack(array[0].id, array[array.length-1].id); }
+
+    /** Returns the tuple (a,b) packed into a long. */
+    // [HASLab]
+    static long pack(int a, int b) { return ((long)a << 32) | (b & 0xFFFFFFFFL); }
+
     /** Returns true if this tuple contains at least one occurrence of the given atom. */
     public boolean has(SimAtom atom) {
         for(int i=array.length-1; i>=0; i--) if (array[i]==atom) return true;
@@ -126,9 +141,8 @@ public final class SimTuple implements Iterable<SimAtom> {
     public SimTuple replace(Map<SimAtom,SimAtom> map) {
         SimAtom[] newarray = new SimAtom[array.length];
         for(int i=array.length-1; i>=0; i--) {
-            SimAtom oldX = array[i];
-            SimAtom newX = map.get(oldX);
-            newarray[i] = (newX==null ? oldX : newX);
+            SimAtom newX = map.get(array[i]);
+            newarray[i] = (newX==null ? array[i] : newX);
         }
         return new SimTuple(newarray);
     }
@@ -170,8 +184,8 @@ public final class SimTuple implements Iterable<SimAtom> {
     @Override public int hashCode() {
         int ans = hashCode;
         if (ans == 0) {
-            // We already know each SimAtom has been canonicalized, so just computing its IdentityHashCode is faster
-            for(int i=array.length-1; i>=0; i--) ans = ans*31 + System.identityHashCode(array[i]);
+            // We already know each SimAtom has been canonicalized, so just combining their ids is faster
+            for(int i=array.length-1; i>=0; i--) ans = ans*31 + array[i].id; // [HASLab] was System.identityHashCode
             if (ans==0) ans++; // so that we don't end up re-computing this SimTuple's hashcode over and over again
             hashCode = ans;
         }
@@ -19,7 +19,10 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -32,7 +35,10 @@ import edu.mit.csail.sdg.alloy4.ErrorAPI;
 import edu.mit.csail.sdg.alloy4.ErrorType;
 import edu.mit.csail.sdg.alloy4.Util;
 
-/** Immutable; represents a tupleset. */
+/** Immutable; represents a tupleset.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-simulator
+ */
 
 public final class SimTupleset implements Iterable<SimTuple> {
 
@@ -49,6 +55,22 @@ public final class SimTupleset implements Iterable<SimTuple> {
     private final int max;
     private final boolean next;
 
+    /** Tuplesets with at most this many tuples are scanned linearly rather than indexed. */
+    // [HASLab]
+    private static final int INDEX_THRESHOLD = 16;
+
+    /** If nonnull, it caches the set of tuples in "tuples", for constant-time membership tests of tuples of arity 3 or more (built lazily). */
+    // [HASLab]
+    private volatile HashSet<SimTuple> index;
+
+    /** If nonnull, it caches the tuples in "tuples" packed into longs and sorted, for membership tests of unary and binary tuples (built lazily). */
+    // [HASLab]
+    private volatile long[] packed;
+
+    /** If nonnull, it caches the id of the first atom of every tuple (in the high half) and its position (in the low half), sorted, for joins (built lazily). */
+    // [HASLab] was a map from atoms to lists of tuples
+    private volatile long[] heads;
+
     /** Construct a tupleset with the given 4 values (Note: caller MUST make sure there are no duplicates, even between (min,max) and tuples, and that all tuples are of same arity!) */
     private SimTupleset(Collection<SimTuple> tuples, int min, int max, boolean next) {
        this.tuples = ConstList.make(tuples);
@@ -113,6 +135,82 @@ public final class SimTupleset implements Iterable<SimTuple> {
         if (i<tuples.size()) return tuples.get((int)i); else return null;
     }
 
+    /** Returns true if the list of tuples contains the given tuple (using the hashed index if the list is large). */
+    // [HASLab]
+    private boolean contains(SimTuple that) {
+        if (tuples.size() <= INDEX_THRESHOLD) return tuples.contains(that);
+        if (that.arity() <= 2) return Arrays.binarySearch(packed(), that.pack()) >= 0;
+        HashSet<SimTuple> ans = index;
+        if (ans == null) { ans = new HashSet<SimTuple>(tuples); index = ans; } // racing threads build equal indexes, so this is benign
+        return ans.contains(that);
+    }
+
+    /** Returns the packed tuples of the list of tuples in ascending order (computing them if needed); racing threads build equal arrays, so this is benign. */
+    // [HASLab]
+    private long[] packed() {
+        long[] ans = packed;
+        if (ans == null) {
+           ans = new long[tuples.size()];
+           for(int i=0; i<ans.length; i++) ans[i] = tuples.get(i).pack();
+           Arrays.sort(ans);
+           packed = ans;
+        }
+        return ans;
+    }
+
+    /** Returns the first atom id and position of every tuple in this tupleset, sorted by atom id (computing them if needed). */
+    // [HASLab]
+    private long[] heads() {
+        long[] ans = heads;
+        if (ans == null) {
+           if (longsize() > Integer.MAX_VALUE) throw new OutOfMemoryError();
+           ans = new long[size()];
+           int i = 0;
+           for(SimTuple x: this) { ans[i] = ((long)x.id(0) << 32) | i; i++; }
+           Arrays.sort(ans);
+           heads = ans;
+        }
+        return ans;
+    }
+
+    /** Returns the index in the given heads() array of the first tuple that begins with the given atom id (or where it would be, if there is none). */
+    // [HASLab]
+    private static int first(long[] heads, int id) {
+        int i = Arrays.binarySearch(heads, (long)id << 32);
+        return i>=0 ? i : -i-1;
+    }
+
+    /** A set of packed tuples hashed by open addressing, to discard duplicates without building a SimTuple for each of them. */
+    // [HASLab]
+    private static final class PackedSet {
+        /** The slots of the table; a slot is free iff the corresponding entry of used is false. */
+        private long[] keys = new long[16];
+        /** Whether each slot is taken. */
+        private boolean[] used = new boolean[16];
+        /** The number of slots taken. */
+        private int size = 0;
+        /** Adds the given packed tuple, and returns true if it was not in the set already. */
+        boolean add(long key) {
+           if (2*(size+1) > keys.length) grow();
+           int mask = keys.length-1;
+           for(int i=mix(key) & mask; ; i=(i+1) & mask) {
+              if (!used[i]) { used[i]=true; keys[i]=key; size++; return true; }
+              if (keys[i]==key) return false;
+           }
+        }
+        /** Doubles the size of the table. */
+        private void grow() {
+           long[] oldkeys = keys;
+           boolean[] oldused = used;
+           keys = new long[2*oldkeys.length];
+           used = new boolean[2*oldkeys.length];
+           size = 0;
+           for(int i=0; i<oldkeys.length; i++) if (oldused[i]) add(oldkeys[i]);
+        }
+        /** Spreads the bits of the given packed tuple. */
+        private static int mix(long key) { long h = key * 0x9E3779B97F4A7C15L; return (int)(h ^ (h >>> 32)); }
+    }
+
     /** Returns true if this is empty. */
     public boolean empty() {
         return min>=max && tuples.size()==0;
@@ -141,7 +239,7 @@ public final class SimTupleset implements Iterable<SimTuple> {
            Integer a = that.get(0).toInt(null), b = that.get(1).toInt(null);
            if (a!=null && b!=null && a<b && a.intValue()==b.intValue()-1 && min<=a && b<=max) return true;
         }
-        return tuples.contains(that);
+        return contains(that); // [HASLab]
     }
 
     /** Returns true if this tupleset is unary and contains the given atom. */
@@ -151,7 +249,8 @@ public final class SimTupleset implements Iterable<SimTuple> {
           Integer a = that.toInt(null);
           if (a!=null && min<=a && a<=max) return true;
        }
-       for(int i=tuples.size()-1; i>=0; i--) if (tuples.get(i).get(0)==that) return true;
+       if (tuples.size() > INDEX_THRESHOLD) return Arrays.binarySearch(packed(), SimTuple.pack(that.id, that.id)) >= 0; // [HASLab]
+       for(int i=tuples.size()-1; i>=0; i--) if (tuples.get(i).id(0)==that.id) return true; // [HASLab]
        return false;
     }
 
@@ -207,36 +306,34 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public SimTupleset head(int n) {
        if (n<=0 || empty()) return EMPTY; else if (arity() <= n) return this;
        if (min<max) { // if we get here, than arity must be 2, and n must be 1.
-          TempList<SimTuple> ans = new TempList<SimTuple>(tuples.size());
+          LinkedHashSet<SimTuple> ans = new LinkedHashSet<SimTuple>(); // [HASLab]
           for(SimTuple x: tuples) {
              Integer a = x.head().toInt(null);
              if (a!=null && a>=min && a<max) continue;
-             SimTuple y = SimTuple.make(x.head());
-             if (!ans.contains(y)) ans.add(y);
+             ans.add(SimTuple.make(x.head()));
           }
-          return new SimTupleset(ans.makeConst(), min, max-1, false);
+          return new SimTupleset(ans, min, max-1, false);
        }
-       TempList<SimTuple> ans = new TempList<SimTuple>(tuples.size());
-       for(SimTuple x: this) { SimTuple y = x.head(n); if (!ans.contains(y)) ans.add(y); }
-       return new SimTupleset(ans.makeConst());
+       LinkedHashSet<SimTuple> ans = new LinkedHashSet<SimTuple>(); // [HASLab]
+       for(SimTuple x: this) ans.add(x.head(n));
+       return new SimTupleset(ans);
     }
 
     /** Return the tupleset where each tuple is truncated to the last N atoms; if n is zero or negative, we return the emptyset; if n >= this.arity, we return this as is. */
     public SimTupleset tail(int n) {
        if (n<=0 || empty()) return EMPTY; else if (arity() <= n) return this;
        if (min<max) { // if we get here, than arity must be 2, and n must be 1.
-          TempList<SimTuple> ans = new TempList<SimTuple>(tuples.size());
+          LinkedHashSet<SimTuple> ans = new LinkedHashSet<SimTuple>(); // [HASLab]
           for(SimTuple x: tuples) {
              Integer a = x.tail().toInt(null);
              if (a!=null && a>min && a<=max) continue;
-             SimTuple y = SimTuple.make(x.tail());
-             if (!ans.contains(y)) ans.add(y);
+             ans.add(SimTuple.make(x.tail()));
           }
-          return new SimTupleset(ans.makeConst(), min+1, max, false);
+          return new SimTupleset(ans, min+1, max, false);
        }
-       TempList<SimTuple> ans = new TempList<SimTuple>(tuples.size());
-       for(SimTuple x: this) { SimTuple y = x.tail(n); if (!ans.contains(y)) ans.add(y); }
-       return new SimTupleset(ans.makeConst());
+       LinkedHashSet<SimTuple> ans = new LinkedHashSet<SimTuple>(); // [HASLab]
+       for(SimTuple x: this) ans.add(x.tail(n));
+       return new SimTupleset(ans);
     }
 
     /** Returns a read-only iterator over the tuples. */
@@ -285,14 +382,15 @@ public final class SimTupleset implements Iterable<SimTuple> {
         return make(list);
     }
 
-    /** Returns the index position if the list of tuples contains the tuple (a,b) (or return -1 if not found). */
-    private static int find(TempList<SimTuple> tuples, SimAtom a, SimAtom b) {
-       if (tuples.size() == 0 || tuples.get(0).arity() != 2) return -1;
-       for(int i=tuples.size()-1; i >= 0; i--) {
-          SimTuple x = tuples.get(i);
-          if (x.head()==a && x.tail()==b) return i;
-       }
-       return -1;
+    /** Returns the number assigned to the given atom, assigning it the next number (with an empty set of successors) if it has none yet. */
+    // [HASLab]
+    private static int number(SimAtom atom, IdentityHashMap<SimAtom,Integer> ids, List<SimAtom> atoms, List<BitSet> succ) {
+       Integer ans = ids.get(atom);
+       if (ans != null) return ans;
+       ids.put(atom, atoms.size());
+       atoms.add(atom);
+       succ.add(new BitSet());
+       return atoms.size()-1;
     }
 
     /** {@inheritDoc} */
@@ -360,9 +458,9 @@ public final class SimTupleset implements Iterable<SimTuple> {
         if (arity()!=that.arity()) return this;
         boolean added = false, same = false;
         TempList<SimTuple> ans = new TempList<SimTuple>(size());
-        SimAtom head = that.get(0);
+        int head = that.id(0); // [HASLab]
         for(SimTuple x: this) {
-           if (x.get(0)!=head) { ans.add(x); continue; }
+           if (x.id(0)!=head) { ans.add(x); continue; }
            if (x.equals(that)) same = true;
            if (!added) { ans.add(that); added=true; }
         }
@@ -416,7 +514,7 @@ public final class SimTupleset implements Iterable<SimTuple> {
         TempList<SimTuple> ans = new TempList<SimTuple>(size()-1);
         again:
         for(SimTuple x: this) {
-           for(int i=x.arity()-1; i>=0; i--) if (x.get(i)==that) continue again;
+           for(int i=x.arity()-1; i>=0; i--) if (x.id(i)==that.id) continue again; // [HASLab]
            ans.add(x);
         }
         return ans.size()==longsize() ? this : (ans.size()==0 ? EMPTY : new SimTupleset(ans.makeConst()));
@@ -444,10 +542,36 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public SimTupleset join(SimTupleset that) throws ErrorType {
        if (empty() || that.empty()) return EMPTY;
        if (arity()==1 && that.arity()==1) throw new ErrorType("Cannot join two unary relations.");
+       if (arity()+that.arity() <= 4) return joinPacked(that); // [HASLab] duplicates of unary and binary results are detected on atom ids
+       LinkedHashSet<SimTuple> ans = new LinkedHashSet<SimTuple>(); // [HASLab] hashed to avoid quadratic duplicate checks
+       if (that.longsize() <= INDEX_THRESHOLD) {
+          for(SimTuple a: this) for(SimTuple b: that) if (a.id(a.arity()-1)==b.id(0)) ans.add(a.join(b));
+       } else {
+          // [HASLab] sort-merge join over the first column of "that"
+          long[] heads = that.heads();
+          for(SimTuple a: this) {
+             int id = a.id(a.arity()-1);
+             for(int j=first(heads, id); j<heads.length && (int)(heads[j] >>> 32)==id; j++) ans.add(a.join(that.get((int)heads[j])));
+          }
+       }
+       return ans.size()==0 ? EMPTY : new SimTupleset(ans);
+    }
+
+    /** Return the relational join between this and that, when the result is unary or binary; duplicates are discarded on the packed atom ids. */
+    // [HASLab]
+    private SimTupleset joinPacked(SimTupleset that) {
+       PackedSet seen = new PackedSet();
        TempList<SimTuple> ans = new TempList<SimTuple>();
-       for(SimTuple a: this) for(SimTuple b: that) if (a.tail()==b.head()) {
-          SimTuple c = a.join(b);
-          if (!ans.contains(c)) ans.add(c);
+       boolean binary = arity()+that.arity() == 4;
+       long[] heads = that.longsize() <= INDEX_THRESHOLD ? null : that.heads();
+       for(SimTuple a: this) {
+          int id = a.id(a.arity()-1), j = heads==null ? 0 : first(heads, id);
+          for(long n=heads==null ? that.longsize() : heads.length; j<n; j++) {
+             SimTuple b = that.get(heads==null ? j : (int)heads[j]);
+             if (b.id(0)!=id) { if (heads==null) continue; else break; }
+             SimAtom x = a.arity()>1 ? a.get(0) : b.get(1), y = b.arity()>1 ? b.get(b.arity()-1) : a.get(a.arity()-2);
+             if (seen.add(SimTuple.pack(x.id, y.id))) ans.add(binary ? SimTuple.make(x, y) : SimTuple.make(x));
+          }
        }
        return ans.size()==0 ? EMPTY : new SimTupleset(ans.makeConst());
     }
@@ -482,28 +606,44 @@ public final class SimTupleset implements Iterable<SimTuple> {
     public SimTupleset range(SimTupleset that) {
        if (that.arity()!=1 || this.empty()) return EMPTY;
        TempList<SimTuple> ans = new TempList<SimTuple>(this.size());
-       for(SimTuple x: this) if (that.has(x.head())) ans.add(x);
+       for(SimTuple x: this) if (that.has(x.tail())) ans.add(x); // [HASLab] restrict on the last column
        return ans.size()==this.longsize() ? this : (ans.size()==0 ? EMPTY : new SimTupleset(ans.makeConst()));
     }
 
-    /** Returns the closure of this tupleset (NOTE: if this.arity!=2, we will return an empty set) */
+    /** Returns the closure of this tupleset (NOTE: if this.arity!=2, we will return an empty set)
+     * <br/> Note: the result starts with the tuples of this tupleset in original order, followed by the new ones.
+     */
     public SimTupleset closure() {
        if (arity()!=2) return EMPTY;
-       TempList<SimTuple> ar = new TempList<SimTuple>(size());
-       ar.addAll(this);
-       while(true) {
-          int n = ar.size();
-          for(int i=0; i<n; i++) {
-             SimTuple left = ar.get(i);
-             if (left.head()==left.tail()) continue;      // whatever "right" is, "left.right" won't add any new tuple to the final answer
-             for(int j=0; j<n; j++) if (i!=j) {           // whatever "left" is,  "left.left"  won't add any new tuple to the final answer
-                SimTuple right = ar.get(j);
-                if (right.head()==right.tail()) continue; // whatever "left" is,  "left.right" won't add any new tuple to the final answer
-                if (left.tail()==right.head() && find(ar, left.head(), right.tail())<0) ar.add(SimTuple.make(left.head(), right.tail()));
-             }
+       // [HASLab] number the atoms and record the successors of each one in a bitset
+       IdentityHashMap<SimAtom,Integer> ids = new IdentityHashMap<SimAtom,Integer>();
+       List<SimAtom> atoms = new ArrayList<SimAtom>();
+       List<BitSet> succ = new ArrayList<BitSet>();
+       for(SimTuple x: this) {
+          int a = number(x.head(), ids, atoms, succ), b = number(x.tail(), ids, atoms, succ);
+          succ.get(a).set(b);
+       }
+       // [HASLab] then search breadth-first from each atom that has successors; anything reached but not a direct successor is new
+       TempList<SimTuple> ans = new TempList<SimTuple>(size());
+       ans.addAll(this);
+       int n = atoms.size();
+       BitSet reach = new BitSet(n);
+       int[] queue = new int[n];
+       for(int i=0; i<n; i++) {
+          BitSet direct = succ.get(i);
+          if (direct.isEmpty()) continue;
+          reach.clear();
+          int head = 0, tail = 0;
+          for(int j=direct.nextSetBit(0); j>=0; j=direct.nextSetBit(j+1)) { reach.set(j); queue[tail++] = j; }
+          while(head < tail) {
+             BitSet next = succ.get(queue[head++]);
+             for(int j=next.nextSetBit(0); j>=0; j=next.nextSetBit(j+1)) if (!reach.get(j)) { reach.set(j); queue[tail++] = j; }
           }
-          if (n == ar.size()) return ar.size()==longsize() ? this : new SimTupleset(ar.makeConst()); // if we went through the loop without making any change, we're done
+          if (tail == direct.cardinality()) continue;
+          SimAtom from = atoms.get(i);
+          for(int j=reach.nextSetBit(0); j>=0; j=reach.nextSetBit(j+1)) if (!direct.get(j)) ans.add(SimTuple.make(from, atoms.get(j)));
        }
+       return ans.size()==longsize() ? this : new SimTupleset(ans.makeConst());
     }
 
     /** Return the set of tuples which begins with the given tuple (where we remove the "matching leading part") */
@@ -511,9 +651,19 @@ public final class SimTupleset implements Iterable<SimTuple> {
         int shift = arity() - x.arity();
         if (shift <= 0) return EMPTY;
         TempList<SimTuple> ans = new TempList<SimTuple>();
+        if (longsize() > INDEX_THRESHOLD) { // [HASLab] only scan the tuples with the same first atom
+           long[] heads = heads();
+           again:
+           for(int j=first(heads, x.id(0)); j<heads.length && (int)(heads[j] >>> 32)==x.id(0); j++) {
+              SimTuple r = get((int)heads[j]);
+              for(int i=1; i<x.arity(); i++) if (r.id(i) != x.id(i)) continue again;
+              ans.add(r.tail(shift));
+           }
+           return ans.size()==0 ? EMPTY : new SimTupleset(ans.makeConst());
+        }
         again:
         for(SimTuple r: this) {
-            for(int i=0; i<x.arity(); i++) if (r.get(i) != x.get(i)) continue again;
+            for(int i=0; i<x.arity(); i++) if (r.id(i) != x.id(i)) continue again; // [HASLab]
             ans.add(r.tail(shift));
         }
         return ans.size()==0 ? EMPTY : new SimTupleset(ans.makeConst());
@@ -526,7 +676,7 @@ public final class SimTupleset implements Iterable<SimTuple> {
         TempList<SimTuple> ans = new TempList<SimTuple>();
         again:
         for(SimTuple r: this) {
-            for(int i=0; i<x.arity(); i++) if (r.get(i+shift) != x.get(i)) continue again;
+            for(int i=0; i<x.arity(); i++) if (r.id(i+shift) != x.id(i)) continue again; // [HASLab]
             ans.add(r.head(shift));
         }
         return ans.size()==0 ? EMPTY : new SimTupleset(ans.makeConst());
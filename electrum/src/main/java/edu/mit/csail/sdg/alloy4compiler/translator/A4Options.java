@@ -161,6 +161,37 @@ public final class A4Options implements Serializable {
     /** Unsat core granularity, default is 0 (only top-level conjuncts are considered), 3 expands all quantifiers */
     public int coreGranularity = 0;
 
+    /** This option specifies whether, when this.solver is MiniSatProverJNI, commands are solved with a faster solver
+     * that logs no proof, and the unsat core is only computed (and minimized) when first requested, possibly in the background
+     * (see {@link A4Solution#computeCoreInBackground}).
+     * <p> Default value is false.
+     */
+    // [HASLab]
+    public boolean lazyCore = false;
+
+    /** This option specifies the number of solver instances that check candidate unsat cores at the same time when
+     * this.solver is MiniSatProverJNI and this.coreGranularity is 0 (see {@link CoreMinimizer}); 1 or less means the
+     * core is minimized sequentially by the strategy in this.coreMinimization.
+     * <p> Default value is 1.
+     */
+    // [HASLab]
+    public int coreThreads = 1;
+
+    /** This option specifies the time budget (in seconds) of the parallel unsat core minimization, after which the
+     * best core so far is kept (0 means no budget).
+     * <p> Default value is 0.
+     */
+    // [HASLab]
+    public int coreBudget = 0;
+
+    /** This option specifies the number of threads that solve check commands by cube-and-conquer (see {@link CubeSolver}),
+     * when this.solver is incremental and not MiniSatProverJNI; 1 or less means commands are solved by a single solver.
+     * Counterexamples found this way cannot be enumerated.
+     * <p> Default value is 1.
+     */
+    // [HASLab]
+    public int cubeThreads = 1;
+
     /** This option specifies the SAT solver to use (SAT4J, MiniSatJNI, MiniSatProverJNI, ZChaffJNI...)
      * <p> Default value is SAT4J.
      */
@@ -212,6 +243,64 @@ public final class A4Options implements Serializable {
      */
     // [HASLab]
     public boolean run_unbounded = false;
+
+    /** This option specifies whether the size of the CNF generated by each fact, predicate and assertion
+     * should be measured and reported before solving (this requires translating the problem once more, or each of them separately if the problem is temporal).
+     * <p> Default value is false.
+     */
+    // [HASLab]
+    public boolean costProfiling = false;
+
+    /** This option specifies the estimated number of primary variables above which a command
+     * is reported as too large before being translated (0 means no budget).
+     * <p> Default value is 0.
+     */
+    // [HASLab]
+    public long primaryVarsBudget = 0;
+
+    /** This option specifies the estimated number of clauses above which a command
+     * is reported as too large before being translated (0 means no budget).
+     * <p> Default value is 0.
+     */
+    // [HASLab]
+    public long clausesBudget = 0;
+
+    /** This option specifies whether commands over budget are refused (true) or only warned about (false).
+     * <p> Default value is false.
+     */
+    // [HASLab]
+    public boolean refuseOverBudget = false;
+
+    /** This option specifies whether trace solutions are written to XML as deltas, where every state but the
+     * first only lists the changes since the previous state (see {@link A4SolutionWriter}).
+     * <p> Default value is false.
+     */
+    // [HASLab]
+    public boolean deltaTraces = false;
+
+    /** This option specifies whether the facts and field declarations outside the cone of influence of a command
+     * are sliced away before translation (see {@link Slicer}); this is only sound if those constraints are
+     * consistent by themselves, so instances may violate them.
+     * <p> Default value is false.
+     */
+    // [HASLab]
+    public boolean slicing = false;
+
+    /** This option specifies whether commands that do not specify a bitwidth use the smallest bitwidth that can
+     * represent their integer expressions, as inferred by an interval analysis, instead of the default one.
+     * <p> Default value is false.
+     */
+    // [HASLab]
+    public boolean inferBitwidth = false;
+
+    /** This option specifies whether commands that do not specify a maximum sequence length use one inferred from
+     * their constraints (0 if sequences are not used, or enough for the index literals and length constants compared
+     * against sequences). The String atoms are never inferred: an explicit String scope is exact, and otherwise only
+     * the String constants of the command are allocated.
+     * <p> Default value is false.
+     */
+    // [HASLab]
+    public boolean inferSeq = false;
 	
     /** This method makes a copy of this Options object. */
     public A4Options dup() {
@@ -227,9 +316,21 @@ public final class A4Options implements Serializable {
         x.recordKodkod = recordKodkod;
         x.noOverflow = noOverflow;
         x.coreGranularity = coreGranularity;
+        x.lazyCore = lazyCore; // [HASLab]
+        x.coreThreads = coreThreads; // [HASLab]
+        x.coreBudget = coreBudget; // [HASLab]
+        x.cubeThreads = cubeThreads; // [HASLab]
         x.decomposed_mode = decomposed_mode; // [HASLab]
         x.decomposed_threads = decomposed_threads; // [HASLab]
         x.run_unbounded = run_unbounded; // [HASLab]
+        x.costProfiling = costProfiling; // [HASLab]
+        x.primaryVarsBudget = primaryVarsBudget; // [HASLab]
+        x.clausesBudget = clausesBudget; // [HASLab]
+        x.refuseOverBudget = refuseOverBudget; // [HASLab]
+        x.deltaTraces = deltaTraces; // [HASLab]
+        x.slicing = slicing; // [HASLab]
+        x.inferBitwidth = inferBitwidth; // [HASLab]
+        x.inferSeq = inferSeq; // [HASLab]
         return x;
     }
 }
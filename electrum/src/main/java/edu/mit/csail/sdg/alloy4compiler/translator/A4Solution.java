@@ -23,9 +23,11 @@ import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.STRING;
 import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.UNIV;
 import static kodkod.engine.Solution.Outcome.UNSATISFIABLE;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -40,6 +42,10 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import kodkod.ast.BinaryExpression;
 import kodkod.ast.BinaryFormula;
@@ -86,6 +92,7 @@ import edu.mit.csail.sdg.alloy4.ErrorAPI;
 import edu.mit.csail.sdg.alloy4.ErrorFatal;
 import edu.mit.csail.sdg.alloy4.ErrorSyntax;
 import edu.mit.csail.sdg.alloy4.Pair;
+import edu.mit.csail.sdg.alloy4.PhaseTimer;
 import edu.mit.csail.sdg.alloy4.Pos;
 import edu.mit.csail.sdg.alloy4.SafeList;
 import edu.mit.csail.sdg.alloy4.UniqueNameGenerator;
@@ -334,6 +341,8 @@ public final class A4Solution {
         	varOptions.setSolver(SATFactory.CryptoMiniSat);
         } else if (opt.solver.equals(A4Options.SatSolver.MiniSatJNI)) {
         	varOptions.setSolver(SATFactory.MiniSat);
+        } else if (opt.solver.equals(A4Options.SatSolver.MiniSatProverJNI) && opt.lazyCore) { // [HASLab] the proof is only logged if the core is requested
+        	varOptions.setSolver(SATFactory.MiniSat);
         } else if (opt.solver.equals(A4Options.SatSolver.MiniSatProverJNI)) {
             sym=20;
             varOptions.setSolver(SATFactory.MiniSatProver);
@@ -769,6 +778,22 @@ public final class A4Solution {
 		if (!rel2type.containsKey(relation)) rel2type.put(relation, newType);
 	}
 
+	/** Associates the given skolem relation to the Alloy Type of its declaration (prefixed by the types of the declarations it depends on);
+	 * this is called by the reporters of the solvers, which may run concurrently (eg. cube solvers), so it is synchronized. */
+	// [HASLab] refactored from solve
+	synchronized void recordSkolem(Decl decl, Relation skolem, List<Decl> predecl) {
+		try {
+			Type t=kv2typepos(decl.variable()).a;
+			if (t==Type.EMPTY) return;
+			for(int i=(predecl==null ? -1 : predecl.size()-1); i>=0; i--) {
+				Type pp=kv2typepos(predecl.get(i).variable()).a;
+				if (pp==Type.EMPTY) return;
+				t=pp.product(t);
+			}
+			kr2type(skolem, t);
+		} catch(Throwable ex) { } // Exception here is not fatal
+	}
+
 	/** Remove all mapping from Kodkod relation to Alloy Type. */
 	void kr2typeCLEAR() throws Err {
 		if (solved) throw new ErrorFatal("Cannot clear the k->type mapping since solve() has completed.");
@@ -1032,8 +1057,18 @@ public final class A4Solution {
 		final A4Options opt = originalOptions;
 		long time = System.currentTimeMillis();
 		rep.debug("Simplifying the bounds...\n");
-		if (simp!=null && formulas.size()>0 && !simp.simplify(rep, this, formulas)) addFormula(Formula.FALSE, Pos.UNKNOWN);
+		final PhaseTimer[] timer = new PhaseTimer[]{PhaseTimer.start(PhaseTimer.SIMPLIFY)}; // [HASLab] metrics
+		try {
+			if (simp!=null && formulas.size()>0 && !simp.simplify(rep, this, formulas)) addFormula(Formula.FALSE, Pos.UNKNOWN);
+		} finally {
+			timer[0].stop(rep); // [HASLab]
+			timer[0] = null;
+		}
 		rep.translate(opt.solver.id(), A4Preferences.Decomposed.values()[opt.decomposed_mode].toString(), bitwidth, maxseq, solver.options().skolemDepth(), solver.options().symmetryBreaking()); // [HASLab]
+		if (opt.costProfiling && !solver.options().decomposed() && !opt.run_unbounded && !"electrod".equals(opt.solver.external()) && !opt.solver.equals(SatSolver.CNF) && !opt.solver.equals(SatSolver.KK)) { // [HASLab]
+			rep.debug("Profiling the cost of each constraint...\n");
+			CostProfiler.profile(rep, this, solver, bounds, formulas);
+		}
 		Formula fgoal = Formula.and(formulas);
 		rep.debug("Generating the solution...\n");
 		kEnumerator = null;
@@ -1045,25 +1080,18 @@ public final class A4Solution {
             // [HASLab]
 			boolean config_done = !solver.options().decomposed();
 			@Override public void skolemizing(Decl decl, Relation skolem, List<Decl> predecl) {
-				try {
-					Type t=kv2typepos(decl.variable()).a;
-					if (t==Type.EMPTY) return;
-					for(int i=(predecl==null ? -1 : predecl.size()-1); i>=0; i--) {
-						Type pp=kv2typepos(predecl.get(i).variable()).a;
-						if (pp==Type.EMPTY) return;
-						t=pp.product(t);
-					}
-					kr2type(skolem, t);
-				} catch(Throwable ex) { } // Exception here is not fatal
+				recordSkolem(decl, skolem, predecl); // [HASLab] refactored into recordSkolem
 			}
 			@Override public void solvingCNF(int primaryVars, int vars, int clauses) {
 				if (!config_done) return;
 				if (solved[0]) return; else solved[0]=true; // initially solved[0] is true, so we won't report the # of vars/clauses
+				if (timer[0]!=null) timer[0] = timer[0].next(rep, PhaseTimer.SAT); // [HASLab] CNF was generated
 				if (rep!=null) rep.solve(primaryVars, vars, clauses);
 			}
 			@Override public void reportConfigs(int configs, int primaryVars, int vars, int clauses) { // [HASLab] propagate found configs
 				if (config_done) return;
 				config_done = true;
+				if (timer[0]!=null) timer[0] = timer[0].next(rep, PhaseTimer.SAT); // [HASLab] CNF was generated
 				if (rep!=null) {
 					rep.solve(primaryVars, vars, clauses);
 					if (configs >= 50)
@@ -1080,70 +1108,71 @@ public final class A4Solution {
 		solved[0] = false; // this allows the reporter to report the # of vars/clauses
 		for(Relation r: bounds.relations()) { formulas.add(r.eq(r)); } // Without this, kodkod refuses to grow unmentioned relations
 		fgoal = Formula.and(formulas);
-		// Now pick the solver and solve it!
-		if (opt.solver.equals(SatSolver.KK)) {
-			File tmpCNF = File.createTempFile("tmp", ".java", new File(opt.tempDirectory));
-			String out = tmpCNF.getAbsolutePath();
-			Util.writeAll(out, debugExtractKInput());
-			rep.resultCNF(out);
-			return null;
-		}
-		if (opt.solver.equals(SatSolver.CNF)) {
-			File tmpCNF = File.createTempFile("tmp", ".cnf", new File(opt.tempDirectory));
-			String out = tmpCNF.getAbsolutePath();
-			solver.options().setSolver(WriteCNF.factory(out));
-			try { sol = solver.solve(fgoal, bounds); } catch(WriteCNF.WriteCNFCompleted ex) { rep.resultCNF(out); return null; }
-			// The formula is trivial (otherwise, it would have thrown an exception)
-			// Since the user wants it in CNF format, we manually generate a trivially satisfiable (or unsatisfiable) CNF file.
-			Util.writeAll(out, sol.instance()!=null ? "p cnf 1 1\n1 0\n" : "p cnf 1 2\n1 0\n-1 0\n");
-			rep.resultCNF(out);
-			return null;
-		}
-		if (/*solver.options().solver()==SATFactory.ZChaffMincost ||*/ !solver.options().solver().incremental() && !solver.options().decomposed()) { // [HASLab] decomposed is incremental
-			if (sol==null) sol = solver.solve(fgoal, bounds);
-		} else { // [HASLab] kodkod 2.0+
-			PardinusBounds b;
-			if (solver.options().decomposed()) 
-				b = new PardinusBounds(bounds,true); // [HASLab] support for decomposed
-			else b = bounds;
-			kEnumerator = new Peeker<Solution>(solver.solveAll(fgoal, b));
-			if (sol==null) sol = kEnumerator.next();
+		timer[0] = PhaseTimer.start(PhaseTimer.TRANSLATE); // [HASLab] until the reporter is notified of the CNF
+		try {
+			// Now pick the solver and solve it!
+			if (opt.solver.equals(SatSolver.KK)) {
+				File tmpCNF = File.createTempFile("tmp", ".java", new File(opt.tempDirectory));
+				String out = tmpCNF.getAbsolutePath();
+				Util.writeAll(out, debugExtractKInput());
+				rep.resultCNF(out);
+				return null;
+			}
+			if (opt.solver.equals(SatSolver.CNF)) {
+				File tmpCNF = File.createTempFile("tmp", ".cnf", new File(opt.tempDirectory));
+				String out = tmpCNF.getAbsolutePath();
+				solver.options().setSolver(WriteCNF.factory(out));
+				try { sol = solver.solve(fgoal, bounds); } catch(WriteCNF.WriteCNFCompleted ex) { rep.resultCNF(out); return null; }
+				// The formula is trivial (otherwise, it would have thrown an exception)
+				// Since the user wants it in CNF format, we manually generate a trivially satisfiable (or unsatisfiable) CNF file.
+				Util.writeAll(out, sol.instance()!=null ? "p cnf 1 1\n1 0\n" : "p cnf 1 2\n1 0\n-1 0\n");
+				rep.resultCNF(out);
+				return null;
+			}
+			if (cmd.check && opt.cubeThreads>1 && solver.options().solver().incremental() && solver.options().solver()!=SATFactory.MiniSatProver
+					&& !solver.options().decomposed() && !opt.run_unbounded && opt.solver.external()==null) { // [HASLab] cube-and-conquer
+				sol = CubeSolver.solve(rep, this, fgoal, bounds, solver.options().solver(), opt.cubeThreads);
+				if (sol!=null) { solved[0] = true; timer[0] = null; } // the statistics and phases of the winning cube were reported instead
+			}
+			if (sol==null && /*solver.options().solver()==SATFactory.ZChaffMincost ||*/ !solver.options().solver().incremental() && !solver.options().decomposed()) { // [HASLab] decomposed is incremental
+				if (sol==null) sol = solver.solve(fgoal, bounds);
+			} else if (sol==null) { // [HASLab] kodkod 2.0+, unless solved by cube-and-conquer (which does not support enumeration)
+				PardinusBounds b;
+				if (solver.options().decomposed()) 
+					b = new PardinusBounds(bounds,true); // [HASLab] support for decomposed
+				else b = bounds;
+				kEnumerator = new Peeker<Solution>(solver.solveAll(fgoal, b));
+				if (sol==null) sol = kEnumerator.next();
 
+			}
+			if (!solved[0]) rep.solve(0, 0, 0);
+		} finally {
+			if (timer[0]!=null) timer[0].stop(rep); // [HASLab] even if the solver failed
+			timer[0] = null;
 		}
-		if (!solved[0]) rep.solve(0, 0, 0);
 		final TemporalInstance inst = (TemporalInstance) sol.instance(); // [HASLab]
 		// To ensure no more output during SolutionEnumeration
 		solver.options().setReporter(oldReporter);
 		solver.options().configOptions().setReporter(oldReporter); // [HASLab]
 		// If unsatisfiable, then retrieve the unsat core if desired
-		if (inst==null && solver.options().solver()==SATFactory.MiniSatProver) {
-			try {
-				lCore = new LinkedHashSet<Node>();
-				Proof p = sol.proof();
-				if (sol.outcome()==UNSATISFIABLE) {
-					// only perform the minimization if it was UNSATISFIABLE, rather than TRIVIALLY_UNSATISFIABLE
-					int i = p.highLevelCore().size();
-					rep.minimizing(cmd, i);
-					if (opt.coreMinimization==0) try { p.minimize(new RCEStrategy(p.log())); } catch(Throwable ex) {}
-					if (opt.coreMinimization==1) try { p.minimize(new HybridStrategy(p.log())); } catch(Throwable ex) {}
-					rep.minimized(cmd, i, p.highLevelCore().size());
-				}
-				for(Iterator<TranslationRecord> it=p.core(); it.hasNext();) {
-					Object n=it.next().node();
-					if (n instanceof Formula) lCore.add((Formula)n);
-				}
-				Map<Formula,Node> map = p.highLevelCore();
-				hCore = new LinkedHashSet<Node>(map.keySet());
-				hCore.addAll(map.values());
-			} catch(Throwable ex) {
-				lCore = hCore = null;
-			}
+		if (inst==null && solver.options().solver()==SATFactory.MiniSatProver) extractCore(rep, cmd, sol, solver); // [HASLab] refactored into extractCore
+		else if (inst==null && opt.lazyCore && opt.solver.equals(SatSolver.MiniSatProverJNI)) { // [HASLab] the core is computed when first requested
+			final Formula goal = fgoal;
+			coreReporter = rep;
+			coreTask = new FutureTask<Object>(new Runnable() {
+				public void run() { computeCore(coreReporter, cmd, goal); }
+			}, null);
 		}
 
 		// If satisfiable, then add/rename the atoms and skolems
 		if (inst!=null) {
-			eval = new Evaluator(inst, solver.options());
-			rename(this, null, null, new UniqueNameGenerator());
+			PhaseTimer renaming = PhaseTimer.start(PhaseTimer.RENAME); // [HASLab]
+			try {
+				eval = new Evaluator(inst, solver.options());
+				rename(this, null, null, new UniqueNameGenerator());
+			} finally {
+				renaming.stop(rep); // [HASLab]
+			}
 		}
 		// report the result
 		solved();
@@ -1234,6 +1263,132 @@ public final class A4Solution {
 
 	//===================================================================================================//
 
+	/** If this solution is unsatisfiable and its unsat core is computed lazily, the task that computes it; null otherwise. */
+	// [HASLab]
+	private volatile FutureTask<Object> coreTask = null;
+
+	/** The reporter of the lazily computed unsat core; silent once the core is computed in the background,
+	 * since the task that solved the command may be over (and its reporter closed) by then. */
+	// [HASLab]
+	private volatile A4Reporter coreReporter = A4Reporter.NOP;
+
+	/** Retrieves (and minimizes, if the solution is UNSATISFIABLE rather than TRIVIALLY_UNSATISFIABLE) the unsat core
+	 * from the proof of the given solution, which was found by the given proof-logging solver. */
+	// [HASLab] refactored from solve
+	private void extractCore(A4Reporter rep, Command cmd, Solution sol, PardinusSolver prover) {
+		final A4Options opt = originalOptions;
+		try {
+			lCore = new LinkedHashSet<Node>();
+			Proof p = sol.proof();
+			if (sol.outcome()==UNSATISFIABLE) {
+				// only perform the minimization if it was UNSATISFIABLE, rather than TRIVIALLY_UNSATISFIABLE
+				int i = p.highLevelCore().size();
+				rep.minimizing(cmd, i);
+				if (opt.coreThreads>1 && opt.coreGranularity==0 && !solver.options().decomposed() && !opt.run_unbounded) { // [HASLab] parallel minimization
+					List<Formula> min = CoreMinimizer.minimize(rep, this, bounds, new ArrayList<Formula>(p.highLevelCore().keySet()), opt.coreThreads, opt.coreBudget*1000L);
+					min = new ArrayList<Formula>(min);
+					for(Relation r: bounds.relations()) min.add(r.eq(r)); // as in solve, so that unmentioned relations are still bounded
+					Solution s = prover.solve(Formula.and(min), bounds); // logs the proof of the smaller core
+					if (s.instance()==null && s.proof()!=null) p = s.proof();
+				} else {
+					if (opt.coreMinimization==0) try { p.minimize(new RCEStrategy(p.log())); } catch(Throwable ex) {}
+					if (opt.coreMinimization==1) try { p.minimize(new HybridStrategy(p.log())); } catch(Throwable ex) {}
+				}
+				rep.minimized(cmd, i, p.highLevelCore().size());
+			}
+			for(Iterator<TranslationRecord> it=p.core(); it.hasNext();) {
+				Object n=it.next().node();
+				if (n instanceof Formula) lCore.add((Formula)n);
+			}
+			Map<Formula,Node> map = p.highLevelCore();
+			hCore = new LinkedHashSet<Node>(map.keySet());
+			hCore.addAll(map.values());
+		} catch(Throwable ex) {
+			lCore = hCore = null;
+		}
+	}
+
+	/** Solves the given goal again with a separate proof-logging solver and retrieves its unsat core;
+	 * this must only be called once the solution is known to be unsatisfiable. The options of this solution's
+	 * own solver are left untouched, since it may still be in use (eg. by the evaluator). */
+	// [HASLab]
+	private void computeCore(A4Reporter rep, Command cmd, Formula goal) {
+		try {
+			rep.debug("Computing the unsat core...\n");
+			PardinusSolver prover = newCheckSolver(SATFactory.MiniSatProver);
+			prover.options().setLogTranslation(2);
+			prover.options().setCoreGranularity(originalOptions.coreGranularity);
+			prover.options().setSymmetryBreaking(20);
+			extractCore(rep, cmd, prover.solve(goal, bounds), prover);
+		} catch(Throwable ex) {
+			lCore = hCore = null;
+		}
+	}
+
+	/** Returns a new solver with the options of this solution, but with the given SAT solver (eg. one that logs no proof),
+	 * to check candidate unsat cores or cubes in parallel. */
+	// [HASLab]
+	PardinusSolver newCheckSolver(SATFactory sat) {
+		ExtendedOptions o = new ExtendedOptions();
+		o.setReporter(new SLF4JReporter());
+		o.setRunTemporal(true);
+		o.setNoOverflow(originalOptions.noOverflow);
+		o.setMaxTraceLength(solver.options().maxTraceLength());
+		o.setMinTraceLength(solver.options().minTraceLength());
+		o.setSolver(sat);
+		o.setSymmetryBreaking(solver.options().symmetryBreaking());
+		o.setSkolemDepth(solver.options().skolemDepth());
+		o.setBitwidth(solver.options().bitwidth());
+		o.setIntEncoding(Options.IntEncoding.TWOSCOMPLEMENT);
+		return new PardinusSolver(o);
+	}
+
+	/** Waits for the lazily computed unsat core, computing it in the current thread if it was not started yet. */
+	// [HASLab]
+	private void awaitCore() {
+		FutureTask<Object> task = coreTask;
+		if (task==null) return;
+		task.run(); // does nothing if the task is running or done
+		try { task.get(); } catch(Throwable ex) { lCore = hCore = null; }
+		coreTask = null;
+	}
+
+	/** Returns true if this solution is unsatisfiable and its unsat core is computed lazily, but was not computed yet. */
+	// [HASLab]
+	public boolean isCorePending() {
+		FutureTask<Object> task = coreTask;
+		return task!=null && !task.isDone();
+	}
+
+	/** The executor that computes lazy unsat cores in the background; its threads are daemons, and end once idle. */
+	// [HASLab]
+	private static final ExecutorService coreExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Unsat core");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** If this solution is unsatisfiable and its unsat core is computed lazily, starts computing it in the background
+	 * (unless it was already started); lowLevelCore() and highLevelCore() then wait for it.
+	 * @param then - if nonnull, it is run in the background once the core is available (or has failed)
+	 */
+	// [HASLab]
+	public void computeCoreInBackground(final Runnable then) {
+		final FutureTask<Object> task = coreTask;
+		if (task==null) { if (then!=null) then.run(); return; }
+		coreReporter = A4Reporter.NOP;
+		coreExecutor.execute(new Runnable() {
+			public void run() {
+				task.run(); // does nothing if the task is running or done
+				if (then==null) return;
+				try { task.get(); } catch(Throwable ex) { } // a failed core is reported as empty
+				then.run();
+			}
+		});
+	}
+
 	/** The low-level unsat core; null if it is not available. */
 	private LinkedHashSet<Node> lCore = null;
 
@@ -1243,6 +1398,7 @@ public final class A4Solution {
 	/** If this solution is unsatisfiable and its unsat core is available, then return the core; else return an empty set. */
 	public Set<Pos> lowLevelCore() {
 		if (lCoreCache!=null) return lCoreCache;
+		awaitCore(); // [HASLab]
 		Set<Pos> ans1 = new LinkedHashSet<Pos>();
 		if (lCore!=null) for(Node f: lCore) {
 			Object y = k2pos(f);
@@ -1262,6 +1418,7 @@ public final class A4Solution {
 	/** If this solution is unsatisfiable and its unsat core is available, then return the core; else return an empty set. */
 	public Pair<Set<Pos>,Set<Pos>> highLevelCore() {
 		if (hCoreCache!=null) return hCoreCache;
+		awaitCore(); // [HASLab]
 		Set<Pos> ans1 = new LinkedHashSet<Pos>(), ans2 = new LinkedHashSet<Pos>();
 		if (hCore!=null) for(Node f: hCore) {
 			Object x = k2pos(f);
@@ -1314,15 +1471,24 @@ public final class A4Solution {
 	
 	/** Helper method to write out a full XML file. */
 	public void writeXML(PrintWriter writer, Iterable<Func> macros, Map<String,String> sourceFiles) throws Err {
-		A4SolutionWriter.writeInstance(null, this, writer, macros, sourceFiles);
+		A4SolutionWriter.writeInstance(null, this, writer, macros, sourceFiles, originalOptions.deltaTraces); // [HASLab]
 		if (writer.checkError()) throw new ErrorFatal("Error writing the solution XML file.");
 	}
 
 	/** Helper method to write out a full XML file. */
 	public void writeXML(A4Reporter rep, PrintWriter writer, Iterable<Func> macros, Map<String,String> sourceFiles) throws Err {
-		A4SolutionWriter.writeInstance(rep, this, writer, macros, sourceFiles);
+		A4SolutionWriter.writeInstance(rep, this, writer, macros, sourceFiles, originalOptions.deltaTraces); // [HASLab]
 		if (writer.checkError()) throw new ErrorFatal("Error writing the solution XML file.");
 	}
+
+	/** Helper method to stream out a full XML file, where every state but the first is written as a delta of the previous one if delta is true. */
+	// [HASLab]
+	public void writeXML(A4Reporter rep, Writer writer, Iterable<Func> macros, Map<String,String> sourceFiles, boolean delta) throws Err {
+		PrintWriter out = writer instanceof PrintWriter ? (PrintWriter) writer : new PrintWriter(writer instanceof BufferedWriter ? writer : new BufferedWriter(writer));
+		A4SolutionWriter.writeInstance(rep, this, out, macros, sourceFiles, delta);
+		out.flush();
+		if (out.checkError()) throw new ErrorFatal("Error writing the solution XML file.");
+	}
 	
 	// [HASLab]
 	protected void addSymbolicBound(Sig s) {
@@ -22,8 +22,13 @@ import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.SIGINT;
 import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.STRING;
 import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.UNIV;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -31,6 +36,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import kodkod.ast.Relation;
 import kodkod.instance.Tuple;
 import kodkod.instance.TupleFactory;
@@ -52,6 +62,17 @@ import edu.mit.csail.sdg.alloy4compiler.ast.Sig.SubsetSig;
 /**
  * This helper class contains helper routines for reading an A4Solution object
  * from an XML file.
+ *
+ * <p>
+ * Files can be read either from an XMLNode tree, or streamed directly from
+ * disk; in the latter case the tuples of each state are built straight from
+ * the event stream, so the memory used is proportional to the instance rather
+ * than to its XML representation.
+ *
+ * <p>
+ * States written as deltas (see {@link A4SolutionWriter}) are rebuilt from
+ * the previous state, to which the added atoms and tuples are added and from
+ * which the removed ones are removed.
  * 
  * @modified: Nuno Macedo, Eduardo Pessoa // [HASLab] electrum-temporal
  * */
@@ -71,8 +92,17 @@ public final class A4SolutionReader {
 	/** Stores the set of STRING atoms. */
 	private final TreeSet<String> strings = new TreeSet<String>();
 
-	/** Maps each Sig/Field/Skolem id to an XMLNode. */
-	private final Map<String, XMLNode> nmap = new LinkedHashMap<String, XMLNode>();
+	/** Maps each Sig/Field/Skolem id to its Node. */
+	// [HASLab] nodes rather than XMLNodes, so that they can also be built while streaming
+	private final Map<String, Node> nmap = new LinkedHashMap<String, Node>();
+
+	/** The ids read in the current state. */
+	// [HASLab]
+	private final Set<String> seenIds = new HashSet<String>();
+
+	/** True if the current state is a delta of the previous one. */
+	// [HASLab]
+	private boolean delta;
 
 	/** Maps each Sig id to a Sig. */
 	private final Map<String, Sig> id2sig = new LinkedHashMap<String, Sig>();
@@ -87,6 +117,90 @@ public final class A4SolutionReader {
 	// [HASLab] removed final, trace solutions
 	private TupleFactory factory;
 
+	/** The solution of the previous state of the trace, if any. */
+	// [HASLab]
+	private A4Solution prev;
+
+	/** The bitwidth, maxseq, trace length and back loop of the trace. */
+	// [HASLab]
+	private int bitwidth, maxseq, tracelength, backloop;
+
+	/**
+	 * Mutable; the contents of one sig, field or skolem element of the current
+	 * state, with its atoms or tuples already collected into a TupleSet.
+	 */
+	// [HASLab]
+	private static final class Node {
+		/** The element type (sig, field or skolem). */
+		private final String type;
+		/** The attributes of the element. */
+		private final Map<String, String> attrs;
+		/** The IDs of the parents of a subset sig. */
+		private final List<String> parents = new ArrayList<String>();
+		/** The IDs of the sigs in each of the types of a field or skolem. */
+		private final List<List<String>> types = new ArrayList<List<String>>();
+		/** The atoms of a sig, or the tuples of a field or skolem (null if there are none). */
+		private TupleSet tuples;
+		/** The atoms or tuples removed since the previous state, if a delta (null if there are none). */
+		private TupleSet removed;
+
+		private Node(String type, Map<String, String> attrs) {
+			this.type = type;
+			this.attrs = attrs;
+		}
+
+		/** Returns true if the element has the given type. */
+		private boolean is(String type) {
+			return this.type.equals(type);
+		}
+
+		/** Returns the value of the given attribute, or "" if it is not set. */
+		private String getAttribute(String name) {
+			String ans = attrs.get(name);
+			return ans == null ? "" : ans;
+		}
+
+		/** Adds a tuple (or a removed tuple), which must have the same arity as the ones already added. */
+		private void add(Tuple tuple, boolean isRemoved) throws Err {
+			TupleSet ts = isRemoved ? removed : tuples;
+			if (ts == null)
+				ts = tuple.universe().factory().noneOf(tuple.arity());
+			else if (ts.arity() != tuple.arity())
+				throw new ErrorFatal("Expecting: tuple of arity " + ts.arity() + " but got tuple of arity " + tuple.arity());
+			ts.add(tuple);
+			if (isRemoved)
+				removed = ts;
+			else
+				tuples = ts;
+		}
+
+		/** Returns a copy of this node whose tuples are from the given factory (over the same atoms). */
+		private Node rebase(TupleFactory factory) {
+			Node ans = new Node(type, attrs);
+			ans.parents.addAll(parents);
+			ans.types.addAll(types);
+			if (tuples != null)
+				ans.tuples = factory.setOf(tuples.arity(), tuples.indexView());
+			return ans;
+		}
+
+		/** Applies this delta to the node of the previous state (already rebased to the current factory). */
+		private void merge(Node old) throws Err {
+			if (old.tuples != null) {
+				TupleSet ts = old.tuples.clone();
+				if (removed != null && removed.arity() == ts.arity())
+					ts.removeAll(removed);
+				if (tuples != null) {
+					if (tuples.arity() != ts.arity())
+						throw new ErrorFatal("Expecting: tuple of arity " + ts.arity() + " but got tuple of arity " + tuples.arity());
+					ts.addAll(tuples);
+				}
+				tuples = ts;
+			}
+			removed = null;
+		}
+	}
+
 	/**
 	 * Helper method that returns true if the given attribute value in the given
 	 * XML node is equal to "yes"
@@ -100,6 +214,21 @@ public final class A4SolutionReader {
 		return node.getAttribute("label");
 	}
 
+	/**
+	 * Helper method that returns true if the given attribute value in the given
+	 * node is equal to "yes"
+	 */
+	// [HASLab]
+	private static boolean yes(Node node, String attr) {
+		return node.getAttribute(attr).equals("yes");
+	}
+
+	/** Helper method that returns a node's "label" attribute. */
+	// [HASLab]
+	private static String label(Node node) {
+		return node.getAttribute("label");
+	}
+
 	/**
 	 * Helper method that returns true if the two iterables contain the same
 	 * elements (though possibly in different order)
@@ -117,34 +246,23 @@ public final class A4SolutionReader {
 	}
 
 	/** Parse tuple. */
-	private Tuple parseTuple(XMLNode tuple, int arity) throws Err {
-		Tuple ans = null;
+	// [HASLab] from the atom labels, so that it can also be used while streaming
+	private Tuple parseTuple(List<String> atoms) throws Err {
 		try {
-			for (XMLNode sub : tuple)
-				if (sub.is("atom")) {
-					Tuple x = factory.tuple(sub.getAttribute("label"));
-					if (ans == null)
-						ans = x;
-					else
-						ans = ans.product(x);
-				}
-			if (ans == null)
-				throw new ErrorFatal("Expecting: <tuple> <atom label=\"..\"/> .. </tuple>");
-			if (ans.arity() != arity)
-				throw new ErrorFatal("Expecting: tuple of arity " + arity + " but got tuple of arity " + ans.arity());
-			return ans;
+			return factory.tuple(atoms);
 		} catch (Throwable ex) {
 			throw new ErrorFatal("Expecting: <tuple> <atom label=\"..\"/> .. </tuple>", ex);
 		}
 	}
 
 	/** Parse tuples. */
-	private TupleSet parseTuples(XMLNode tuples, int arity) throws Err {
-		TupleSet ans = factory.noneOf(arity);
-		for (XMLNode sub : tuples)
-			if (sub.is("tuple"))
-				ans.add(parseTuple(sub, arity));
-		return ans;
+	// [HASLab] the tuples were already collected when the node was built
+	private TupleSet parseTuples(Node node, int arity) throws Err {
+		if (node.tuples == null)
+			return factory.noneOf(arity);
+		if (node.tuples.arity() != arity)
+			throw new ErrorFatal("Expecting: tuple of arity " + arity + " but got tuple of arity " + node.tuples.arity());
+		return node.tuples;
 	}
 
 	/** Parse sig/set. */
@@ -153,7 +271,7 @@ public final class A4SolutionReader {
 		// [HASLab] identify that has not been processed in this step (ans may be != null from previous steps)
 		 if (ans != null && expr2ts.get(ans) != null)
 		 	return ans;
-		XMLNode node = nmap.get(id);
+		Node node = nmap.get(id);
 		if (node == null)
 			throw new IOException("Unknown SigID " + id + " encountered.");
 		if (!node.is("sig"))
@@ -190,15 +308,9 @@ public final class A4SolutionReader {
 		if (depth > nmap.size())
 			throw new IOException("Sig " + label + " (id=" + id + ") is in a cyclic inheritance relationship.");
 		List<Sig> parents = null;
-		TupleSet ts = factory.noneOf(1);
-		for (XMLNode sub : node) {
-			if (sub.is("atom")) {
-				ts.add(factory.tuple(sub.getAttribute("label")));
-				continue;
-			}
-			if (!sub.is("type"))
-				continue;
-			Sig parent = parseSig(sub.getAttribute("ID"), depth + 1);
+		TupleSet ts = parseTuples(node, 1);
+		for (String parentID : node.parents) { // [HASLab]
+			Sig parent = parseSig(parentID, depth + 1);
 			if (parents == null)
 				parents = new ArrayList<Sig>();
 			parents.add(parent);
@@ -250,18 +362,16 @@ public final class A4SolutionReader {
 	}
 
 	/** Parse type. */
-	private Expr parseType(XMLNode node) throws IOException, Err {
+	// [HASLab] from the IDs of its sigs
+	private Expr parseType(List<String> ids) throws IOException, Err {
 		Expr expr = null;
-		if (!node.is("types"))
-			throw new IOException("<types>...</type> expected");
-		for (XMLNode n : node)
-			if (n.is("type")) {
-				Sig sig = parseSig(n.getAttribute("ID"), 0);
-				if (expr == null)
-					expr = sig;
-				else
-					expr = expr.product(sig);
-			}
+		for (String id : ids) {
+			Sig sig = parseSig(id, 0);
+			if (expr == null)
+				expr = sig;
+			else
+				expr = expr.product(sig);
+		}
 		if (expr == null)
 			throw new IOException("<type ID=../> expected");
 		return expr;
@@ -269,7 +379,7 @@ public final class A4SolutionReader {
 
 	/** Parse field. */
 	private Field parseField(String id) throws IOException, Err {
-		final XMLNode node = nmap.get(id);
+		final Node node = nmap.get(id);
 		if (node == null)
 			throw new IOException("Unknown FieldID " + id + " encountered.");
 		if (!node.is("field"))
@@ -279,14 +389,13 @@ public final class A4SolutionReader {
 		Pos isMeta = yes(node, "meta") ? Pos.UNKNOWN : null;
 		Pos isVar = yes(node, "var") ? Pos.UNKNOWN : null; // [HASLab]
 		Expr type = null;
-		for (XMLNode sub : node)
-			if (sub.is("types")) {
-				Expr t = parseType(sub);
-				if (type == null)
-					type = t;
-				else
-					type = type.plus(t);
-			}
+		for (List<String> ids : node.types) { // [HASLab]
+			Expr t = parseType(ids);
+			if (type == null)
+				type = t;
+			else
+				type = type.plus(t);
+		}
 		int arity;
 		if (type == null || (arity = type.type().arity()) < 2)
 			throw new IOException("Field " + label + " is maltyped.");
@@ -311,21 +420,20 @@ public final class A4SolutionReader {
 
 	/** Parse skolem. */
 	private ExprVar parseSkolem(String id) throws IOException, Err {
-		final XMLNode node = nmap.get(id);
+		final Node node = nmap.get(id);
 		if (node == null)
 			throw new IOException("Unknown ID " + id + " encountered.");
 		if (!node.is("skolem"))
 			throw new IOException("ID " + id + " is not a skolem.");
 		String label = label(node);
 		Expr type = null;
-		for (XMLNode sub : node)
-			if (sub.is("types")) {
-				Expr t = parseType(sub);
-				if (type == null)
-					type = t;
-				else
-					type = type.plus(t);
-			}
+		for (List<String> ids : node.types) { // [HASLab]
+			Expr t = parseType(ids);
+			if (type == null)
+				type = t;
+			else
+				type = type.plus(t);
+		}
 		int arity;
 		if (type == null || (arity = type.type().arity()) < 1)
 			throw new IOException("Skolem " + label + " is maltyped.");
@@ -341,14 +449,181 @@ public final class A4SolutionReader {
 		return var;
 	}
 
+	/** Constructor is private, since the readers are only created by the static read methods. */
+	// [HASLab]
+	private A4SolutionReader() {}
+
+	/** Reads the basic values of the trace from the attributes of its first <instance>. */
+	// [HASLab]
+	private void header(Map<String, String> attrs) throws Err {
+		bitwidth = Integer.parseInt(attrs.get("bitwidth"));
+		maxseq = Integer.parseInt(attrs.get("maxseq"));
+		try {
+			tracelength = Integer.parseInt(attrs.get("tracelength"));
+			backloop = Integer.parseInt(attrs.get("backloop"));
+		} catch (Exception ex) {
+			throw new ErrorSyntax("Missing trace attributes.");
+		}
+		final int max = Util.max(bitwidth), min = Util.min(bitwidth);
+		if (bitwidth >= 1 && bitwidth <= 30)
+			for (int i = min; i <= max; i++) {
+				atoms.add(Integer.toString(i));
+			}
+	}
+
+	/**
+	 * Starts reading a new state of the trace, creating its A4Solution object;
+	 * if not the first state, the sigs already created are retrieved from the
+	 * previous one.
+	 */
+	// [HASLab]
+	private void begin(Iterable<Sig> sigs, String command, String filename, boolean delta) throws Err {
+		prev = sol;
+		if (prev != null)
+			sigs = prev.getAllReachableSigs();
+
+		for (Sig s : sigs)
+			if (!s.builtin) {
+				allsigs.add(s);
+				choices.add(s);
+				for (Field f : s.getFields())
+					choices.add(f);
+			}
+
+		// [HASLab] a delta starts from the nodes of the previous state
+		this.delta = delta && prev != null;
+		List<Map.Entry<String, Node>> old = this.delta ? new ArrayList<Map.Entry<String, Node>>(nmap.entrySet()) : null;
+		nmap.clear();
+		seenIds.clear();
+		expr2ts.clear();
+
+		// create the A4Solution object
+		A4Options opt = new A4Options();
+		opt.originalFilename = filename;
+		sol = new A4Solution(command, bitwidth, tracelength, tracelength, maxseq, strings, atoms, null, opt, 1);
+		factory = sol.getFactory();
+
+		if (old != null)
+			for (Map.Entry<String, Node> e : old)
+				nmap.put(e.getKey(), e.getValue().rebase(factory));
+	}
+
+	/** Registers the sig, field or skolem with the given id in the current state. */
+	// [HASLab]
+	private void node(String id, Node node) throws IOException, Err {
+		if (id.length() == 0)
+			return;
+		if (!seenIds.add(id))
+			throw new IOException("ID " + id + " is repeated.");
+		Node old = nmap.put(id, node);
+		if (delta && old != null)
+			node.merge(old);
+	}
+
+	/** Finishes reading the current state of the trace, merging it with the previous states. */
+	// [HASLab]
+	private void end() throws IOException, Err {
+		// parse all the sigs, fields, and skolems
+		for (Map.Entry<String, Node> e : nmap.entrySet())
+			if (e.getValue().is("sig"))
+				parseSig(e.getKey(), 0);
+		for (Map.Entry<String, Node> e : nmap.entrySet())
+			if (e.getValue().is("field"))
+				parseField(e.getKey());
+		for (Map.Entry<String, Node> e : nmap.entrySet())
+			if (e.getValue().is("skolem"))
+				parseSkolem(e.getKey());
+		for (Sig s : allsigs)
+			if (!s.builtin) {
+				TupleSet ts = expr2ts.remove(s);
+				if (ts == null)
+					ts = factory.noneOf(1); // If the sig was NOT mentioned in the XML file...
+				Relation r;
+				// [HASLab] if first set create the relation
+				if (prev == null) 
+					r = sol.addRel(s.label, ts, ts, s.isVariable!=null);
+				// [HASLab] otherwise use previously created
+				else {
+					r = (Relation) prev.a2k(s);
+					sol.addPreRel(s.label, ts, ts, r);
+				}
+				sol.addSig(s, r);
+				for (Field f : s.getFields()) {
+					ts = expr2ts.remove(f);
+					if (ts == null)
+						ts = factory.noneOf(f.type().arity()); // If the field was NOT mentioned in the XML file...
+					// [HASLab] if first set create the relation
+					if (prev == null)
+						r = sol.addRel(s.label + "." + f.label, ts, ts, f.isVariable!=null);
+					// [HASLab] otherwise use previously created
+					else {
+						r = (Relation) prev.a2k(f);
+						sol.addPreRel(s.label + "." + f.label, ts, ts, r);
+					}
+					sol.addField(f, r);
+				}
+			}
+		for (Map.Entry<Expr, TupleSet> e : expr2ts.entrySet()) {
+			ExprVar v = (ExprVar) (e.getKey());
+			TupleSet ts = e.getValue();
+			Relation r = null;
+			if (prev == null) r = sol.addRel(v.label, ts, ts, true);
+			else {
+				// [HASLab] try to use previously created relation for skolem, not mapped anywhere
+				for (Expr exp : prev.a2k().keySet())
+					if (exp instanceof ExprVar && ((Relation) prev.a2k(exp)).name().equals(v.label)) {
+						r = (Relation) prev.a2k(exp); break;
+					}
+				sol.addPreRel(v.label, ts, ts, r);
+			}
+			sol.kr2type(r, v.type());
+		}
+		// Done!
+		sol.solve(null, prev, backloop); // [HASLab] merge current solution with previous, if any
+	}
+
+	/** Returns the attributes of an XML node. */
+	// [HASLab]
+	private static Map<String, String> attributes(XMLNode node) {
+		Map<String, String> ans = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> e : node.attributes())
+			ans.put(e.getKey(), e.getValue());
+		return ans;
+	}
+
+	/** Converts a sig, field or skolem XML node into a Node of the current state. */
+	// [HASLab]
+	private Node parseNode(XMLNode x) throws Err {
+		Node node = new Node(x.getType(), attributes(x));
+		for (XMLNode sub : x) {
+			if (node.is("sig") && sub.is("atom"))
+				node.add(factory.tuple(label(sub)), yes(sub, "removed"));
+			else if (node.is("sig") && sub.is("type"))
+				node.parents.add(sub.getAttribute("ID"));
+			else if (!node.is("sig") && sub.is("tuple")) {
+				List<String> atoms = new ArrayList<String>();
+				for (XMLNode y : sub)
+					if (y.is("atom"))
+						atoms.add(label(y));
+				node.add(parseTuple(atoms), yes(sub, "removed"));
+			} else if (!node.is("sig") && sub.is("types")) {
+				List<String> ids = new ArrayList<String>();
+				for (XMLNode y : sub)
+					if (y.is("type"))
+						ids.add(y.getAttribute("ID"));
+				node.types.add(ids);
+			}
+		}
+		return node;
+	}
+
 	/** Parse everything. */
-    // [HASLab] heavily modified to support sequences of <instance> nodes
-	private A4SolutionReader(Iterable<Sig> sigs, XMLNode xml) throws IOException, Err {
+	// [HASLab] heavily modified to support sequences of <instance> nodes, of which only the first few may be read
+	private void parse(Iterable<Sig> sigs, XMLNode xml, int states) throws IOException, Err {
 		// find <instance>..</instance>
 		if (!xml.is("alloy"))
 			throw new ErrorSyntax("The XML file's root node must be <alloy> or <instance>.");
 		XMLNode inst = null;
-		A4Solution prev = null;
 		for (XMLNode sub : xml)
 			if (sub.is("instance")) {
 				inst = sub;
@@ -359,27 +634,13 @@ public final class A4SolutionReader {
 			throw new ErrorSyntax("The XML file must contain an <instance> element.");
 
 		// set up the basic values of the A4Solution object
-		final int bitwidth = Integer.parseInt(inst.getAttribute("bitwidth"));
-		final int maxseq = Integer.parseInt(inst.getAttribute("maxseq"));
-		final int tracelength;
-		final int backloop;
-		try {
-			tracelength = Integer.parseInt(inst.getAttribute("tracelength"));  // [HASLab]
-			backloop = Integer.parseInt(inst.getAttribute("backloop")); 	   // [HASLab]
-		} catch (Exception ex) {
-			throw new ErrorSyntax("Missing trace attributes.");
-		}
-		final int max = Util.max(bitwidth), min = Util.min(bitwidth);
-		if (bitwidth >= 1 && bitwidth <= 30)
-			for (int i = min; i <= max; i++) {
-				atoms.add(Integer.toString(i));
-			}
-		
+		header(attributes(inst));
+
 		// [HASLab] get all atoms of the universe, must traverse all steps
+		int n = 0;
 		for (XMLNode sub : xml)
-			if (sub.is("instance")) {
-				inst = sub;
-				for (XMLNode x : inst) {
+			if (sub.is("instance") && n++ < states) {
+				for (XMLNode x : sub) {
 					if (x.is("sig")) {
 						boolean isString = STRING.label.equals(label(x)) && yes(x, "builtin");
 						for (XMLNode y : x)
@@ -393,96 +654,159 @@ public final class A4SolutionReader {
 				}
 			}
 
+		n = 0;
 		for (XMLNode sub : xml) 
-			if (sub.is("instance")) {
-				inst = sub;
-				
-				// [HASLab] if not first step, retrieve already created sigs
-				prev = sol;
-				if (prev != null)
-					sigs = prev.getAllReachableSigs();
-
-				for (Sig s : sigs)
-					if (!s.builtin) {
-						allsigs.add(s);
-						choices.add(s);
-						for (Field f : s.getFields())
-							choices.add(f);
+			if (sub.is("instance") && n++ < states) {
+				begin(sigs, sub.getAttribute("command"), sub.getAttribute("filename"), yes(sub, "delta"));
+				for (XMLNode x : sub)
+					if (x.is("field") || x.is("skolem") || x.is("sig"))
+						node(x.getAttribute("ID"), parseNode(x));
+				end();
+			}
+	}
+
+	/** Opens a streaming XML reader over the given file (DTDs and external entities are not supported). */
+	// [HASLab]
+	private static XMLStreamReader open(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		return factory.createXMLStreamReader(in);
+	}
+
+	/** Returns the attributes of the current element of a streaming XML reader. */
+	// [HASLab]
+	private static Map<String, String> attributes(XMLStreamReader xml) {
+		Map<String, String> ans = new LinkedHashMap<String, String>();
+		for (int i = 0; i < xml.getAttributeCount(); i++)
+			ans.put(xml.getAttributeLocalName(i), xml.getAttributeValue(i));
+		return ans;
+	}
+
+	/**
+	 * First streaming pass: reads the basic values of the trace and collects the
+	 * atoms of the universe from the first few states (nothing else is kept).
+	 */
+	// [HASLab]
+	private void scan(File file, int states) throws IOException, XMLStreamException, Err {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		XMLStreamReader xml = null;
+		try {
+			xml = open(in);
+			int depth = 0, n = 0;
+			boolean inst = false, sig = false, isString = false;
+			while (n < states && xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					String name = xml.getLocalName();
+					if (depth == 1 && !name.equals("alloy"))
+						throw new ErrorSyntax("The XML file's root node must be <alloy> or <instance>.");
+					if (depth == 2 && name.equals("instance")) {
+						if (n == 0)
+							header(attributes(xml));
+						inst = true;
+					} else if (depth == 3 && inst && name.equals("sig")) {
+						sig = true;
+						isString = STRING.label.equals(xml.getAttributeValue(null, "label")) && "yes".equals(xml.getAttributeValue(null, "builtin"));
+					} else if (depth == 4 && sig && name.equals("atom")) {
+						String attr = xml.getAttributeValue(null, "label");
+						if (attr == null)
+							attr = "";
+						atoms.add(attr);
+						if (isString)
+							strings.add(attr);
 					}
-				
-				nmap.clear();
-				expr2ts.clear();
-				for (XMLNode x : inst) {
-					String id = x.getAttribute("ID");
-					if (id.length() > 0 && (x.is("field") || x.is("skolem") || x.is("sig"))) {
-						if (nmap.put(id, x) != null)
-							throw new IOException("ID " + id + " is repeated.");
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (depth == 3)
+						sig = false;
+					if (depth == 2 && inst) {
+						inst = false;
+						n++;
 					}
+					depth--;
 				}
-				
-				// create the A4Solution object
-				A4Options opt = new A4Options();
-				opt.originalFilename = inst.getAttribute("filename");
-				sol = new A4Solution(inst.getAttribute("command"), bitwidth, tracelength, tracelength, maxseq, strings, atoms, null, opt, 1); // [HASLab]
-				factory = sol.getFactory();
-				// parse all the sigs, fields, and skolems
-				for (Map.Entry<String, XMLNode> e : nmap.entrySet())
-					if (e.getValue().is("sig"))
-						parseSig(e.getKey(), 0);
-				for (Map.Entry<String, XMLNode> e : nmap.entrySet())
-					if (e.getValue().is("field"))
-						parseField(e.getKey());
-				for (Map.Entry<String, XMLNode> e : nmap.entrySet())
-					if (e.getValue().is("skolem"))
-						parseSkolem(e.getKey());
-				for (Sig s : allsigs)
-					if (!s.builtin) {
-						TupleSet ts = expr2ts.remove(s);
-						if (ts == null)
-							ts = factory.noneOf(1); // If the sig was NOT mentioned in the XML file...
-						Relation r;
-						// [HASLab] if first set create the relation
-						if (prev == null) 
-							r = sol.addRel(s.label, ts, ts, s.isVariable!=null);
-						// [HASLab] otherwise use previously created
-						else {
-							r = (Relation) prev.a2k(s);
-							sol.addPreRel(s.label, ts, ts, r);
-						}
-						sol.addSig(s, r);
-						for (Field f : s.getFields()) {
-							ts = expr2ts.remove(f);
-							if (ts == null)
-								ts = factory.noneOf(f.type().arity()); // If the field was NOT mentioned in the XML file...
-							// [HASLab] if first set create the relation
-							if (prev == null)
-								r = sol.addRel(s.label + "." + f.label, ts, ts, f.isVariable!=null);
-							// [HASLab] otherwise use previously created
-							else {
-								r = (Relation) prev.a2k(f);
-								sol.addPreRel(s.label + "." + f.label, ts, ts, r);
-							}
-							sol.addField(f, r);
+			}
+			if (n == 0)
+				throw new ErrorSyntax("The XML file must contain an <instance> element.");
+		} finally {
+			if (xml != null)
+				xml.close();
+			Util.close(in);
+		}
+	}
+
+	/**
+	 * Second streaming pass: builds the first few states one at a time, adding
+	 * the atoms and tuples of each sig, field and skolem directly to its TupleSet.
+	 */
+	// [HASLab]
+	private void stream(Iterable<Sig> sigs, File file, int states) throws IOException, XMLStreamException, Err {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		XMLStreamReader xml = null;
+		try {
+			xml = open(in);
+			int depth = 0, n = 0;
+			boolean inst = false, removed = false;
+			Node node = null;
+			List<String> tuple = null, ids = null;
+			while (n < states && xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					String name = xml.getLocalName();
+					if (depth == 2 && name.equals("instance")) {
+						inst = true;
+						begin(sigs, attr(xml, "command"), attr(xml, "filename"), attr(xml, "delta").equals("yes"));
+					} else if (depth == 3 && inst && (name.equals("sig") || name.equals("field") || name.equals("skolem"))) {
+						node = new Node(name, attributes(xml));
+					} else if (depth == 4 && node != null) {
+						if (node.is("sig") && name.equals("atom"))
+							node.add(factory.tuple(attr(xml, "label")), attr(xml, "removed").equals("yes"));
+						else if (node.is("sig") && name.equals("type"))
+							node.parents.add(attr(xml, "ID"));
+						else if (!node.is("sig") && name.equals("tuple")) {
+							tuple = new ArrayList<String>();
+							removed = attr(xml, "removed").equals("yes");
 						}
+						else if (!node.is("sig") && name.equals("types"))
+							ids = new ArrayList<String>();
+					} else if (depth == 5 && node != null) {
+						if (tuple != null && name.equals("atom"))
+							tuple.add(attr(xml, "label"));
+						else if (ids != null && name.equals("type"))
+							ids.add(attr(xml, "ID"));
 					}
-				for (Map.Entry<Expr, TupleSet> e : expr2ts.entrySet()) {
-					ExprVar v = (ExprVar) (e.getKey());
-					TupleSet ts = e.getValue();
-					Relation r = null;
-					if (prev == null) r = sol.addRel(v.label, ts, ts, true);
-					else {
-						// [HASLab] try to use previously created relation for skolem, not mapped anywhere
-						for (Expr exp : prev.a2k().keySet())
-							if (exp instanceof ExprVar && ((Relation) prev.a2k(exp)).name().equals(v.label)) {
-								r = (Relation) prev.a2k(exp); break;
-							}
-						sol.addPreRel(v.label, ts, ts, r);
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (depth == 4 && tuple != null) {
+						node.add(parseTuple(tuple), removed);
+						tuple = null;
+					} else if (depth == 4 && ids != null) {
+						node.types.add(ids);
+						ids = null;
+					} else if (depth == 3 && node != null) {
+						node(node.getAttribute("ID"), node);
+						node = null;
+					} else if (depth == 2 && inst) {
+						end();
+						inst = false;
+						n++;
 					}
-					sol.kr2type(r, v.type());
+					depth--;
 				}
-				// Done!
-				sol.solve(null, prev, backloop); // [HASLab] merge current solution with previous, if any
 			}
+		} finally {
+			if (xml != null)
+				xml.close();
+			Util.close(in);
+		}
+	}
+
+	/** Returns the value of the given attribute of the current element of a streaming XML reader, or "" if it is not set. */
+	// [HASLab]
+	private static String attr(XMLStreamReader xml, String name) {
+		String ans = xml.getAttributeValue(null, name);
+		return ans == null ? "" : ans;
 	}
 
 	/**
@@ -500,7 +824,51 @@ public final class A4SolutionReader {
 		try {
 			if (sigs == null)
 				sigs = new ArrayList<Sig>();
-			A4SolutionReader x = new A4SolutionReader(sigs, xml);
+			A4SolutionReader x = new A4SolutionReader();
+			x.parse(sigs, xml, Integer.MAX_VALUE); // [HASLab]
+			return x.sol;
+		} catch (Throwable ex) {
+			if (ex instanceof Err)
+				throw ((Err) ex);
+			else
+				throw new ErrorFatal("Fatal error occured: " + ex, ex);
+		}
+	}
+
+	/**
+	 * Parse the XML file into an AlloyInstance, streaming it rather than
+	 * building its XMLNode tree first (see {@link #read(Iterable, XMLNode)}).
+	 */
+	// [HASLab]
+	public static A4Solution read(Iterable<Sig> sigs, File file) throws Err {
+		return read(sigs, file, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Parse the first few states of the trace in the XML file into an
+	 * AlloyInstance, streaming it rather than building its XMLNode tree first
+	 * (see {@link #read(Iterable, XMLNode)}); if the back loop points beyond
+	 * the last state read, it is moved back to that state.
+	 *
+	 * @param states - the maximum number of states to read
+	 */
+	// [HASLab]
+	public static A4Solution read(Iterable<Sig> sigs, File file, int states) throws Err {
+		try {
+			if (sigs == null)
+				sigs = new ArrayList<Sig>();
+			if (states < 1)
+				throw new ErrorSyntax("At least one state must be read.");
+			A4SolutionReader x = new A4SolutionReader();
+			try {
+				x.scan(file, states);
+			} catch (XMLStreamException ex) {
+				// the XMLNode parser is more lenient (eg. with character references to surrogates), so fall back to it
+				x = new A4SolutionReader();
+				x.parse(sigs, new XMLNode(file), states);
+				return x.sol;
+			}
+			x.stream(sigs, file, states);
 			return x.sol;
 		} catch (Throwable ex) {
 			if (ex instanceof Err)
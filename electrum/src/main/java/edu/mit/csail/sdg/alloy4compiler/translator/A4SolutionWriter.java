@@ -40,6 +40,13 @@ import kodkod.ast.Relation;
  * This helper class contains helper routines for writing an A4Solution object
  * out as an XML file.
  *
+ * <p>
+ * Traces may be written in delta mode, where every state but the first is
+ * marked with delta="yes" and only lists the sigs, fields and skolems whose
+ * value changed since the previous state; for those, only the added atoms and
+ * tuples are listed, together with the removed ones marked with
+ * removed="yes". Static fields are therefore only written in the first state.
+ *
  * @modified: Nuno Macedo, Eduardo Pessoa // [HASLab] electrum-temporal
  * */
 
@@ -63,6 +70,21 @@ public final class A4SolutionWriter {
 	/** This is the output file. */
 	private final PrintWriter out;
 
+	/**
+	 * If writing in delta mode, maps each Sig, Field and Skolem to the tupleset
+	 * written for it in the previous state; null if not in delta mode.
+	 */
+	// [HASLab]
+	private final IdentityHashMap<Expr, A4TupleSet> last;
+
+	/** Caches the call of each extra skolem, so that it is the same Expr in every state. */
+	// [HASLab]
+	private final IdentityHashMap<Func, Expr> calls = new IdentityHashMap<Func, Expr>();
+
+	/** True if the state being written is to be written as a delta of the previous one. */
+	// [HASLab]
+	private boolean delta;
+
 	/**
 	 * Helper method that returns a unique id for the given Sig, Field, or
 	 * Skolem.
@@ -76,6 +98,15 @@ public final class A4SolutionWriter {
 		return id;
 	}
 
+	/** Helper method that returns the call of the given extra skolem. */
+	// [HASLab]
+	private Expr call(Func f) throws Err {
+		Expr ans = calls.get(f);
+		if (ans == null)
+			calls.put(f, ans = f.call());
+		return ans;
+	}
+
 	/** Helper method that returns the list of direct subsignatures. */
 	private Iterable<PrimSig> children(PrimSig x) throws Err {
 		if (x == Sig.NONE)
@@ -95,6 +126,17 @@ public final class A4SolutionWriter {
 		if (!type.hasTuple())
 			return false;
 		if (sol != null) {
+			// [HASLab] in delta mode, skip if unchanged, otherwise write only the added and removed tuples
+			A4TupleSet ts = (A4TupleSet)(sol.eval(expr,state)), removed = null;
+			if (last != null) {
+				A4TupleSet old = last.put(expr, ts);
+				if (delta && old != null) {
+					removed = old.minus(ts);
+					if (removed.size() == 0 && ts.size() == old.size())
+						return false;
+					ts = ts.minus(old);
+				}
+			}
 			// Check to see if the tupleset is *really* fully contained inside
 			// "type".
 			// If not, then grow "type" until the tupleset is fully contained
@@ -102,8 +144,8 @@ public final class A4SolutionWriter {
 			Expr sum = type.toExpr();
 			int lastSize = (-1);
 	        while(true) {
-	           A4TupleSet ts = (A4TupleSet)(sol.eval(expr.minus(sum),state)); // [HASLab]
-	           int n = ts.size();
+	           A4TupleSet rest = (A4TupleSet)(sol.eval(expr.minus(sum),state)); // [HASLab]
+	           int n = rest.size();
 	           if (n<=0) break;
 	           if (lastSize>0 && lastSize<=n) 
 	        	   if (!(sol.a2k(expr) instanceof Relation) && // [HASLab] hack to support skolems that may not exist in every state
@@ -111,12 +153,11 @@ public final class A4SolutionWriter {
 	        	   	throw new ErrorFatal("An internal error occurred in the evaluator.");
 	        	   else break;
 	           lastSize=n;
-	           Type extra = ts.iterator().next().type();
+	           Type extra = rest.iterator().next().type();
 	           type = type.merge(extra);
 	           sum = sum.plus(extra.toExpr());
 	        }
 	        // Now, write out the tupleset
-	        A4TupleSet ts = (A4TupleSet)(sol.eval(expr,state)); // [HASLab]
 	        // [HASLab] force printing of element even if empty, otherwise skolems missing from certain steps of the trace
 	        if (ts.size() == 0) {
 	        	out.print(prefix); prefix="";}
@@ -126,6 +167,12 @@ public final class A4SolutionWriter {
 	           for(int i=0; i<t.arity(); i++) Util.encodeXMLs(out, " <atom label=\"", t.atom(i), "\"/>");
 	           out.print(" </tuple>\n");
 	        }
+	        if (removed != null) // [HASLab]
+	        	for(A4Tuple t: removed) {
+	        		out.print("   <tuple removed=\"yes\">");
+	        		for(int i=0; i<t.arity(); i++) Util.encodeXMLs(out, " <atom label=\"", t.atom(i), "\"/>");
+	        		out.print(" </tuple>\n");
+	        	}
 		}
 	
 		// Now, write out the type
@@ -158,6 +205,30 @@ public final class A4SolutionWriter {
 				else
 					ts2 = ts2.plus(ts3);
 			}
+		// [HASLab] evaluated before writing the header, so that unchanged sigs can be skipped in delta mode
+		A4TupleSet own = null, removed = null;
+		try {
+			if (sol != null && x != Sig.UNIV && x != Sig.SIGINT && x != Sig.SEQIDX) {
+				ts = (A4TupleSet) (sol.eval(x, state)); // [HASLab]
+				own = ts.minus(ts2);
+			}
+		} catch (Throwable ex) {
+			throw new ErrorFatal("Error evaluating sig " + x.label, ex);
+		}
+		if (last != null) {
+			A4TupleSet old = own == null ? null : last.put(x, own);
+			if (delta) {
+				if (old != null) {
+					removed = old.minus(own);
+					own = own.minus(old);
+				}
+				if (own == null || (own.size() == 0 && (removed == null || removed.size() == 0))) {
+					for (Field field : x.getFields())
+						writeField(field, state);
+					return ts;
+				}
+			}
+		}
 		if (rep != null)
 			rep.write(x);
 		Util.encodeXMLs(out, "\n<sig label=\"", x.label, "\" ID=\"", map(x));
@@ -184,16 +255,12 @@ public final class A4SolutionWriter {
 		if (x.isVariable != null)
 			out.print("\" var=\"yes"); // [HASLab] mark sig as var
 		out.print("\">\n");
-		try {
-			if (sol != null && x != Sig.UNIV && x != Sig.SIGINT && x != Sig.SEQIDX) {
-				ts = (A4TupleSet) (sol.eval(x, state)); // [HASLab]
-
-				for (A4Tuple t : ts.minus(ts2)) 
-					Util.encodeXMLs(out, "   <atom label=\"", t.toString(), "\"/>\n");
-			}
-		} catch (Throwable ex) {
-			throw new ErrorFatal("Error evaluating sig " + x.label, ex);
-		}
+		if (own != null)
+			for (A4Tuple t : own) 
+				Util.encodeXMLs(out, "   <atom label=\"", t.toString(), "\"/>\n");
+		if (removed != null) // [HASLab]
+			for (A4Tuple t : removed)
+				Util.encodeXMLs(out, "   <atom label=\"", t.toString(), "\" removed=\"yes\"/>\n");
 		if (x instanceof SubsetSig)
 			for (Sig p : ((SubsetSig) x).parents)
 				Util.encodeXMLs(out, "   <type ID=\"", map(p), "\"/>\n");
@@ -215,18 +282,25 @@ public final class A4SolutionWriter {
 			if (x.type().hasNoTuple())
 				return; // we do not allow "none" in the XML file's type
 						// declarations
+			if (delta && x.isVariable == null)
+				return; // [HASLab] static fields do not change along the trace
 			if (rep != null)
 				rep.write(x);
-			Util.encodeXMLs(out, "\n<field label=\"", x.label, "\" ID=\"", map(x), "\" parentID=\"", map(x.sig));
+			StringBuilder sb = new StringBuilder(); // [HASLab] only written if not skipped in delta mode
+			Util.encodeXMLs(sb, "\n<field label=\"", x.label, "\" ID=\"", map(x), "\" parentID=\"", map(x.sig));
 			if (x.isPrivate != null)
-				out.print("\" private=\"yes");
+				sb.append("\" private=\"yes");
 			if (x.isMeta != null)
-				out.print("\" meta=\"yes");
+				sb.append("\" meta=\"yes");
 			if (x.isVariable != null)
-				out.print("\" var=\"yes"); // [HASLab]
-			out.print("\">\n");
-			writeExpr("", x, state); // [HASLab]
-			out.print("</field>\n");
+				sb.append("\" var=\"yes"); // [HASLab]
+			sb.append("\">\n");
+			if (!delta) {
+				out.print(sb);
+				sb.setLength(0);
+			}
+			if (writeExpr(sb.toString(), x, state) || !delta) // [HASLab]
+				out.print("</field>\n");
 		} catch (Throwable ex) {
 			throw new ErrorFatal("Error evaluating field " + x.sig.label + "." + x.label, ex);
 		}
@@ -253,22 +327,33 @@ public final class A4SolutionWriter {
 	}
 
 	/**
-	 * If sol==null, write the list of Sigs as a Metamodel, else write the
-	 * solution as an XML file. 
+	 * Constructs a writer of the given solution (or of the given list of Sigs
+	 * as a Metamodel, if sol==null); in delta mode, every state but the first
+	 * is written as a delta of the previous one.
 	 */
-	// [HASLab] writes a specific time instant
-	private A4SolutionWriter(A4Reporter rep, A4Solution sol, Iterable<Sig> sigs, int bitwidth, int maxseq, int tracelength, int backloop,
-			String originalCommand, String originalFileName, PrintWriter out, Iterable<Func> extraSkolems, int state)
-			throws Err {
-
+	// [HASLab] the same writer is used for all states of the trace
+	private A4SolutionWriter(A4Reporter rep, A4Solution sol, Iterable<Sig> sigs, PrintWriter out, boolean delta) {
 		this.rep = rep;
 		this.out = out;
 		this.sol = sol;
+		this.last = delta ? new IdentityHashMap<Expr, A4TupleSet>() : null;
 		
 		for (Sig s : sigs)
 			if (s instanceof PrimSig && ((PrimSig) s).parent == Sig.UNIV)
 				toplevels.add((PrimSig) s);
-		
+	}
+
+	/**
+	 * If sol==null, write the list of Sigs as a Metamodel, else write the
+	 * given state of the solution as an XML file. 
+	 */
+	// [HASLab] writes a specific time instant
+	private void writeState(Iterable<Sig> sigs, int bitwidth, int maxseq, int tracelength, int backloop,
+			String originalCommand, String originalFileName, Iterable<Func> extraSkolems, int state)
+			throws Err {
+
+		delta = last != null && state > 0;
+
 		// [HASLab] write temporal metadata
 		out.print("<instance bitwidth=\""); out.print(bitwidth);
 		out.print("\" maxseq=\""); out.print(maxseq);
@@ -278,6 +363,8 @@ public final class A4SolutionWriter {
 		out.print("\" backloop=\""); out.print(backloop); // [HASLab] the back loop of the instance
 		if (sol == null)
 			out.print("\" metamodel=\"yes");
+		if (delta)
+			out.print("\" delta=\"yes");
 		out.print("\">\n");
 
 		writeSig(Sig.UNIV, state); // [HASLab]
@@ -287,17 +374,17 @@ public final class A4SolutionWriter {
 		int m = 0;
 		if (sol != null && extraSkolems != null)
 			for (Func f : extraSkolems)
-				if (f.count() == 0 && f.call().type().hasTuple()) {
+				if (f.count() == 0 && call(f).type().hasTuple()) {
 					String label = f.label;
 					while (label.length() > 0 && label.charAt(0) == '$')
 						label = label.substring(1);
 					label = "$" + label;
 					try {
 						if (rep != null)
-							rep.write(f.call());
+							rep.write(call(f));
 						StringBuilder sb = new StringBuilder();
 						Util.encodeXMLs(sb, "\n<skolem label=\"", label, "\" ID=\"m" + m + "\">\n");
-						if (writeExpr(sb.toString(), f.call(), state)) { // [HASLab]
+						if (writeExpr(sb.toString(), call(f), state)) { // [HASLab]
 							out.print("</skolem>\n");
 						}
 						m++;
@@ -310,10 +397,13 @@ public final class A4SolutionWriter {
 
 	/**
 	 * If this solution is a satisfiable solution, this method will write it out
-	 * in XML format as a sequence of &lt;instance&gt;..&lt;/instance&gt;.
+	 * in XML format as a sequence of &lt;instance&gt;..&lt;/instance&gt;;
+	 * in delta mode, every state but the first is written as a delta of the
+	 * previous one.
 	 */
+	// [HASLab] delta mode
 	static void writeInstance(A4Reporter rep, A4Solution sol, PrintWriter out, Iterable<Func> extraSkolems,
-			Map<String, String> sources) throws Err {
+			Map<String, String> sources, boolean delta) throws Err {
 		if (!sol.satisfiable())
 			throw new ErrorAPI("This solution is unsatisfiable.");
 		try {
@@ -328,9 +418,10 @@ public final class A4SolutionWriter {
 			out.print("\">\n\n");
 
 			// [HASLab] write all relevant instances
+			A4SolutionWriter writer = new A4SolutionWriter(rep, sol, sol.getAllReachableSigs(), out, delta);
 			for (int i = 0; i < sol.getTraceLength(); i++)
-				new A4SolutionWriter(rep, sol, sol.getAllReachableSigs(), sol.getBitwidth(), sol.getMaxSeq(),
-						sol.getTraceLength(), sol.getLoopState(), sol.getOriginalCommand(), sol.getOriginalFilename(), out, extraSkolems, i);  
+				writer.writeState(sol.getAllReachableSigs(), sol.getBitwidth(), sol.getMaxSeq(),
+						sol.getTraceLength(), sol.getLoopState(), sol.getOriginalCommand(), sol.getOriginalFilename(), extraSkolems, i);  
 			
 			if (sources != null)
 				for (Map.Entry<String, String> e : sources.entrySet()) {
@@ -355,7 +446,7 @@ public final class A4SolutionWriter {
 			throws Err {
 		try {
 			// [HASLab] -1 identifies metamodel.
-			new A4SolutionWriter(null, null, sigs, 4, 4, 10, 0, "show metamodel", originalFilename, out, null, -1); 
+			new A4SolutionWriter(null, null, sigs, out, false).writeState(sigs, 4, 4, 10, 0, "show metamodel", originalFilename, null, -1); 
 		} catch (Throwable ex) {
 			if (ex instanceof Err)
 				throw (Err) ex;
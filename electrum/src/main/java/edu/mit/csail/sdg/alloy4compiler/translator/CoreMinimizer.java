@@ -0,0 +1,206 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import kodkod.ast.Formula;
+import kodkod.ast.Relation;
+import kodkod.engine.PardinusSolver;
+import kodkod.engine.config.SLF4JReporter;
+import kodkod.engine.satlab.SATFactory;
+import kodkod.instance.PardinusBounds;
+
+/** Immutable; this minimizes an unsat core of top-level formulas by checking candidate reductions in parallel.
+ *
+ * <p> The core is split into n chunks, and each chunk and the complement of each chunk are checked at the same time,
+ * each on its own solver instance. If some chunk is unsatisfiable by itself the core is reduced to it, otherwise
+ * if some complement is unsatisfiable that chunk is dropped; otherwise the chunks are split further. Once every chunk
+ * is a single formula and none can be dropped, the core is minimal (every formula is needed for unsatisfiability).
+ *
+ * <p> Every intermediate core is unsatisfiable, so if the time budget runs out the best core so far is returned.
+ * Since the SAT solvers cannot be interrupted, checks that were superseded (by a reduction found by another check)
+ * or that ran out of the budget are abandoned as soon as they reach the solving stage, and checks that were not
+ * started yet are skipped; the minimizer returns without waiting for the checks still in the SAT solver, whose
+ * outcome is discarded.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-core
+ */
+
+final class CoreMinimizer {
+
+   /** Thrown by the reporter of a check to abandon it. */
+   private static final class Abandoned extends RuntimeException {
+      private static final long serialVersionUID = 0;
+   }
+
+   /** The solution whose bounds and options are used to check candidate cores. */
+   private final A4Solution sol;
+
+   /** The bounds under which the core is unsatisfiable. */
+   private final PardinusBounds bounds;
+
+   /** The formulas "r = r" for every bounded relation, which are added to every check (without them, Kodkod would not
+    * bound the relations that the candidate core does not mention). */
+   private final List<Formula> frame = new ArrayList<Formula>();
+
+   /** The time at which every check is abandoned (0 means no deadline). */
+   private final long deadline;
+
+   /** The current round of the minimization; checks of previous rounds are superseded. */
+   private volatile int round = 0;
+
+   /** The solver of each worker thread. */
+   private final ThreadLocal<PardinusSolver> solvers = new ThreadLocal<PardinusSolver>();
+
+   /** The bounds of each worker thread (since translation may modify them). */
+   private final ThreadLocal<PardinusBounds> copies = new ThreadLocal<PardinusBounds>();
+
+   /** Constructs a minimizer for cores of the given solution under the given bounds, until the given deadline. */
+   private CoreMinimizer(A4Solution sol, PardinusBounds bounds, long deadline) {
+      this.sol = sol;
+      this.bounds = bounds;
+      this.deadline = deadline;
+      for(Relation r: bounds.relations()) frame.add(r.eq(r));
+   }
+
+   /** Returns true if the check of the given round must be abandoned. */
+   private boolean abandoned(int r) {
+      return r!=round || (deadline>0 && System.currentTimeMillis()>=deadline);
+   }
+
+   /** Returns true if the conjunction of the given formulas is unsatisfiable, false if it is satisfiable, or null if the check
+    * was abandoned (because its round is over or the deadline passed); must be called by a worker thread. */
+   private Boolean unsat(List<Formula> formulas, final int r) {
+      if (abandoned(r)) return null;
+      PardinusSolver solver = solvers.get();
+      PardinusBounds b = copies.get();
+      if (solver==null) {
+         solvers.set(solver = sol.newCheckSolver(SATFactory.MiniSat));
+         synchronized(bounds) { copies.set(b = bounds.clone()); }
+      }
+      solver.options().setReporter(new SLF4JReporter() {
+         @Override public void solvingCNF(int primaryVars, int vars, int clauses) {
+            if (abandoned(r)) throw new Abandoned(); // the SAT solver itself cannot be interrupted
+         }
+      });
+      List<Formula> goal = new ArrayList<Formula>(formulas);
+      goal.addAll(frame);
+      try {
+         return solver.solve(Formula.and(goal), b).instance()==null;
+      } catch(Abandoned ex) {
+         return null;
+      }
+   }
+
+   /** Splits the given list into n chunks of (almost) equal size. */
+   private static List<List<Formula>> split(List<Formula> core, int n) {
+      List<List<Formula>> ans = new ArrayList<List<Formula>>(n);
+      for(int i=0, start=0; i<n; i++) {
+         int end = start + (core.size()-start)/(n-i);
+         ans.add(new ArrayList<Formula>(core.subList(start, end)));
+         start = end;
+      }
+      return ans;
+   }
+
+   /** Returns the given list without the elements of the given chunk. */
+   private static List<Formula> minus(List<Formula> core, List<Formula> chunk) {
+      List<Formula> ans = new ArrayList<Formula>(core);
+      ans.removeAll(chunk);
+      return ans;
+   }
+
+   /** Minimizes the given core with the given thread pool, until the deadline. */
+   private List<Formula> minimize(ExecutorService pool, List<Formula> core) throws InterruptedException {
+      int n = 2;
+      while(core.size()>1) {
+         n = Math.min(n, core.size());
+         final List<List<Formula>> candidates = new ArrayList<List<Formula>>();
+         for(List<Formula> chunk: split(core, n)) candidates.add(chunk);
+         if (n>2) for(List<Formula> chunk: split(core, n)) candidates.add(minus(core, chunk)); // for n=2 the complements are the chunks
+         CompletionService<Integer> results = new ExecutorCompletionService<Integer>(pool);
+         final int r = round;
+         for(int i=0; i<candidates.size(); i++) {
+            final int c = i;
+            results.submit(new Callable<Integer>() {
+               public Integer call() { return Boolean.TRUE.equals(unsat(candidates.get(c), r)) ? c : -1; }
+            });
+         }
+         int found = -1;
+         try {
+            for(int i=0; i<candidates.size() && found<0; i++) { // in the order in which the checks finish
+               Future<Integer> f;
+               if (deadline<=0) f = results.take();
+               else if ((f = results.poll(Math.max(1, deadline-System.currentTimeMillis()), TimeUnit.MILLISECONDS))==null) return core; // out of time: the best core so far
+               try { found = f.get(); } catch(Exception ex) { } // a failed check never discards formulas
+            }
+         } finally {
+            round = r+1; // the remaining checks of this round are superseded
+         }
+         if (found>=0) {
+            core = candidates.get(found);
+            n = found<n ? 2 : Math.max(n-1, 2);
+         } else if (n>=core.size()) {
+            break; // no single formula can be dropped
+         } else {
+            n = Math.min(2*n, core.size());
+         }
+         if (deadline>0 && System.currentTimeMillis()>=deadline) break;
+      }
+      return core;
+   }
+
+   /** Returns a subset of the given formulas whose conjunction is still unsatisfiable under the given bounds, which is minimal
+    * unless the time budget runs out.
+    * @param threads - the number of solver instances that check candidate cores at the same time
+    * @param budget - the time budget in milliseconds (0 means no budget)
+    */
+   static List<Formula> minimize(A4Reporter rep, A4Solution sol, PardinusBounds bounds, List<Formula> core, int threads, long budget) {
+      long deadline = budget>0 ? System.currentTimeMillis()+budget : 0;
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Core minimizer");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      CoreMinimizer m = new CoreMinimizer(sol, bounds, deadline);
+      List<Formula> ans = core;
+      try {
+         ans = m.minimize(pool, new ArrayList<Formula>(core));
+      } catch(InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      } finally {
+         m.round = -1; // abandons every check that has not reached the SAT solver yet
+         pool.shutdownNow(); // the checks already in the SAT solver finish on their own (daemon) threads, and their outcome is discarded
+      }
+      if (deadline>0 && System.currentTimeMillis()>=deadline)
+         rep.debug("Core minimization ran out of its "+budget+"ms budget; keeping the best core so far.\n");
+      return ans;
+   }
+}
@@ -0,0 +1,286 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import kodkod.ast.Formula;
+import kodkod.ast.Node;
+import kodkod.ast.Variable;
+import kodkod.engine.PardinusSolver;
+import kodkod.engine.Proof;
+import kodkod.engine.config.ExtendedOptions;
+import kodkod.engine.config.Reporter;
+import kodkod.engine.config.SLF4JReporter;
+import kodkod.engine.fol2sat.RecordFilter;
+import kodkod.engine.fol2sat.TranslationLog;
+import kodkod.engine.fol2sat.TranslationRecord;
+import kodkod.engine.ltl2fol.TemporalTranslator;
+import kodkod.engine.satlab.ReductionStrategy;
+import kodkod.engine.satlab.ResolutionTrace;
+import kodkod.engine.satlab.SATFactory;
+import kodkod.engine.satlab.SATProver;
+import kodkod.engine.satlab.SATSolver;
+import kodkod.instance.PardinusBounds;
+import kodkod.instance.TupleSet;
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Pos;
+import edu.mit.csail.sdg.alloy4compiler.ast.Expr;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.Field;
+
+/** This class attributes the size of the CNF to the source constraints that generated it.
+ *
+ * <p> The problem is translated once, logging the translation, and the CNF is recorded rather than solved.
+ * The log gives the literal of each top-level Kodkod formula; every clause belongs to the gate whose
+ * variable is the largest in it, and the other variables of its clauses are the inputs of that gate.
+ * So the gates (non-primary variables), variables and clauses reachable from the literal of each formula
+ * are added up per Alloy fact, predicate, assertion or field declaration (as recorded in k2pos).
+ * A subcircuit shared by several formulas counts for each of them, and the clauses reachable from
+ * no formula (bounds and symmetry breaking) for none.
+ *
+ * <p> The log of a temporal problem records the formulas of its expansion rather than the original ones,
+ * so each top-level formula of a temporal problem is instead translated on its own at the maximum trace length;
+ * then every entry also includes the cost shared by all formulas, and entries should be compared relative to each other.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-profiling
+ */
+
+final class CostProfiler {
+
+   /** This runtime exception is thrown once the CNF of a formula has been generated. */
+   private static final class CountCNFCompleted extends RuntimeException {
+      /** This ensures the class can be serialized reliably. */
+      private static final long serialVersionUID = 0;
+      /** This constructs a new CountCNFCompleted exception. */
+      public CountCNFCompleted() { super("CNF counted successfully."); }
+   }
+
+   /** An implementation of SATSolver that discards the CNF and then throws an exception instead of solving it.
+    * <br> If it records the clauses, it reports them unsatisfiable instead, so that the solution carries the log of the translation.
+    */
+   private static final class CountCNF implements SATProver {
+      /** The number of variables so far. */
+      private int vars = 0;
+      /** The number of clauses so far. */
+      private int clauses = 0;
+      /** The clauses so far, or null if they are not recorded. */
+      private final List<int[]> cnf;
+      /** Constructs a solver that records the clauses (or not). */
+      private CountCNF(boolean record) { cnf = record ? new ArrayList<int[]>() : null; }
+      /** {@inheritDoc} */
+      public void free() { }
+      /** {@inheritDoc} */
+      public void addVariables(int numVars) { if (numVars >= 0) vars += numVars; }
+      /** {@inheritDoc} */
+      public boolean addClause(int[] lits) {
+         if (lits.length==0) return false;
+         clauses++;
+         if (cnf != null) cnf.add(lits.clone()); // the array may be reused by the caller
+         return true;
+      }
+      /** {@inheritDoc} */
+      public int numberOfVariables() { return vars; }
+      /** {@inheritDoc} */
+      public int numberOfClauses() { return clauses; }
+      /** {@inheritDoc} */
+      public boolean solve() { if (cnf == null) throw new CountCNFCompleted(); return false; }
+      /** {@inheritDoc} */
+      public boolean valueOf(int variable) { throw new IllegalStateException("This solver just counts the CNF without solving it."); }
+      /** {@inheritDoc} */
+      public ResolutionTrace proof() { throw new UnsupportedOperationException("This solver just counts the CNF without solving it."); }
+      /** {@inheritDoc} */
+      public void reduce(ReductionStrategy strategy) { throw new UnsupportedOperationException("This solver just counts the CNF without solving it."); }
+   }
+
+   /** The factory for CountCNF instances that do not record the clauses. */
+   private static final SATFactory factory = new SATFactory() {
+      /** {@inheritDoc} */
+      @Override public SATSolver instance() { return new CountCNF(false); }
+      /** {@inheritDoc} */
+      @Override public boolean incremental() { return false; }
+   };
+
+   /** Mutable; the factory for CountCNF instances that record the clauses, which remembers the last instance. */
+   private static final class Recorder extends SATFactory {
+      /** The last instance, or null if none was made. */
+      private CountCNF last;
+      /** {@inheritDoc} */
+      @Override public SATSolver instance() { return last = new CountCNF(true); }
+      /** {@inheritDoc} */
+      @Override public boolean prover() { return true; }
+      /** {@inheritDoc} */
+      @Override public boolean incremental() { return false; }
+   }
+
+   /** Mutable; the accumulated cost of one source constraint. */
+   private static final class Cost {
+      /** The description of the constraint. */
+      private final String label;
+      /** The position of the constraint. */
+      private final Pos pos;
+      /** The accumulated numbers of gates, variables and clauses. */
+      private long gates, vars, clauses;
+      /** Constructs an empty cost entry. */
+      private Cost(String label, Pos pos) { this.label = label; this.pos = pos; }
+   }
+
+   /** This class cannot be instantiated. */
+   private CostProfiler() { }
+
+   /** Adds the given numbers to the cost of the source constraint of the given formula. */
+   private static void add(A4Solution sol, Map<Object,Cost> costs, Formula f, long gates, long vars, long clauses) {
+      Object src = sol.k2pos(f);
+      Cost c = costs.get(src);
+      if (c == null) {
+         Pos pos = (src instanceof Expr) ? ((Expr)src).span() : (src instanceof Pos) ? (Pos)src : Pos.UNKNOWN;
+         costs.put(src, c = new Cost(label(src), pos));
+      }
+      c.gates += gates;
+      c.vars += vars;
+      c.clauses += clauses;
+   }
+
+   /** Returns true if any of the given formulas is temporal. */
+   private static boolean temporal(List<Formula> formulas) {
+      for(Formula f: formulas) if (TemporalTranslator.isTemporal(f)) return true;
+      return false;
+   }
+
+   /** Translates the conjunction of the formulas once, logging the translation, and adds the cost of the circuit reachable from
+    * each top-level formula; returns false (having added nothing) if the translation could not be logged, eg. if it was trivial.
+    */
+   private static boolean logged(A4Solution sol, PardinusSolver solver, PardinusBounds bounds, List<Formula> formulas, int[] cnf, Map<Object,Cost> costs) {
+      Recorder recorder = new Recorder();
+      solver.options().setSolver(recorder);
+      solver.options().setLogTranslation(1);
+      Proof proof = solver.solve(Formula.and(formulas), bounds).proof();
+      TranslationLog log = proof==null ? null : proof.log();
+      CountCNF counter = recorder.last;
+      if (log==null || counter==null) return false;
+      // the clauses of each gate, and its inputs (the other variables of its clauses)
+      int n = counter.vars, primary = cnf[0];
+      int[] owned = new int[n+1], size = new int[n+1];
+      for(int[] c: counter.cnf) { int v = owner(c); owned[v]++; size[v] += c.length-1; }
+      int[][] inputs = new int[n+1][];
+      for(int v=1; v<=n; v++) { inputs[v] = new int[size[v]]; size[v] = 0; }
+      for(int[] c: counter.cnf) {
+         int v = owner(c);
+         for(int lit: c) if (Math.abs(lit) != v) inputs[v][size[v]++] = Math.abs(lit);
+      }
+      final Set<Formula> roots = log.roots();
+      Iterator<TranslationRecord> it = log.replay(new RecordFilter() {
+         public boolean accept(Node node, Formula translated, int literal, Map<Variable,TupleSet> env) { return roots.contains(node); }
+      });
+      BitSet seen = new BitSet(n+1);
+      int[] stack = new int[n+1];
+      while(it.hasNext()) {
+         TranslationRecord r = it.next();
+         int root = Math.abs(r.literal());
+         long gates = 0, vars = 0, clauses = 0;
+         if (root>0 && root<=n) { // otherwise the formula was translated to a constant
+            seen.clear();
+            seen.set(root);
+            stack[0] = root;
+            for(int top=1; top>0; ) {
+               int v = stack[--top];
+               vars++;
+               if (v <= primary) continue;
+               gates++;
+               clauses += owned[v];
+               for(int w: inputs[v]) if (!seen.get(w)) { seen.set(w); stack[top++] = w; }
+            }
+         }
+         add(sol, costs, (Formula)r.node(), gates, vars, clauses);
+      }
+      return true;
+   }
+
+   /** Returns the largest variable of the given clause, that is, the gate it belongs to. */
+   private static int owner(int[] clause) {
+      int ans = 0;
+      for(int lit: clause) ans = Math.max(ans, Math.abs(lit));
+      return ans;
+   }
+
+   /** Returns a short description of the source constraint associated with a formula. */
+   private static String label(Object src) {
+      if (src instanceof Field) return "field " + ((Field)src).label;
+      if (src instanceof Expr) {
+         String ans = src.toString().replace('\n', ' ');
+         return ans.length() > 60 ? ans.substring(0, 57) + "..." : ans;
+      }
+      if (src instanceof Pos) return ((Pos)src).toShortString();
+      return "(unknown)";
+   }
+
+   /** Translates the formulas and reports the cost of each source constraint to the reporter, by decreasing number of clauses.
+    *
+    * <p> The options of the solver are restored afterwards.
+    *
+    * @param rep - the reporter that will receive the costs
+    * @param sol - the solution being solved (used to retrieve the source of each formula)
+    * @param solver - the solver whose options will be used
+    * @param bounds - the bounds of the problem
+    * @param formulas - the top-level formulas of the problem
+    */
+   static void profile(A4Reporter rep, A4Solution sol, PardinusSolver solver, PardinusBounds bounds, List<Formula> formulas) {
+      final ExtendedOptions opt = solver.options();
+      final SATFactory oldSolver = opt.solver();
+      final Reporter oldReporter = opt.reporter();
+      final int oldMin = opt.minTraceLength();
+      final int oldLog = opt.logTranslation();
+      final int[] cnf = new int[3];
+      Map<Object,Cost> costs = new LinkedHashMap<Object,Cost>();
+      try {
+         opt.setMinTraceLength(opt.maxTraceLength()); // only the size of the largest trace is of interest
+         opt.setReporter(new SLF4JReporter() {
+            @Override public void solvingCNF(int primaryVars, int vars, int clauses) { cnf[0] = primaryVars; cnf[1] = vars; cnf[2] = clauses; }
+         });
+         if (temporal(formulas) || !logged(sol, solver, bounds, formulas, cnf, costs)) {
+            costs.clear();
+            opt.setLogTranslation(0);
+            opt.setSolver(factory);
+            for(Formula f: formulas) {
+               cnf[0] = cnf[1] = cnf[2] = 0;
+               try { solver.solve(f, bounds); } catch(CountCNFCompleted ex) { } // the counts were reported in solvingCNF
+               add(sol, costs, f, cnf[1] - cnf[0], cnf[1], cnf[2]);
+            }
+         }
+      } finally {
+         opt.setSolver(oldSolver);
+         opt.setReporter(oldReporter);
+         opt.setMinTraceLength(oldMin);
+         opt.setLogTranslation(oldLog);
+      }
+      List<Cost> list = new ArrayList<Cost>(costs.values());
+      Collections.sort(list, new Comparator<Cost>() {
+         public int compare(Cost a, Cost b) {
+            if (a.clauses != b.clauses) return a.clauses > b.clauses ? -1 : 1;
+            return a.gates > b.gates ? -1 : (a.gates < b.gates ? 1 : 0);
+         }
+      });
+      for(Cost c: list) rep.cost(c.label, c.pos, c.gates, c.vars, c.clauses);
+   }
+}
@@ -0,0 +1,241 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorFatal;
+import edu.mit.csail.sdg.alloy4.Pair;
+import edu.mit.csail.sdg.alloy4.PhaseTimer;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.PrimSig;
+import kodkod.ast.Decl;
+import kodkod.ast.Expression;
+import kodkod.ast.Formula;
+import kodkod.ast.Relation;
+import kodkod.engine.PardinusSolver;
+import kodkod.engine.Solution;
+import kodkod.engine.config.SLF4JReporter;
+import kodkod.engine.satlab.SATFactory;
+import kodkod.instance.PardinusBounds;
+import kodkod.instance.Tuple;
+import kodkod.instance.TupleSet;
+
+/** Immutable; this solves a problem by cube-and-conquer, ie. by splitting its search space into cubes that are
+ * solved independently on a thread pool, until some cube is satisfiable or all cubes are unsatisfiable.
+ *
+ * <p> The split is on the membership of the first undecided atoms of the biggest static top-level sigs: each cube
+ * fixes every such atom either in the sig (by adding it to the lower bound) or out of it (by removing it from the upper
+ * bound), so the cubes partition the instances of the problem. Variable sigs are never split, since their bounds
+ * range over every state of the trace.
+ *
+ * <p> Each cube records the skolems of its translation in the solution (so that the witnesses of the winning cube
+ * can be named), and the statistics and phases of the winning cube are reported as those of the whole problem.
+ *
+ * <p> Kodkod cannot solve under assumptions, so each cube is translated on its own; restricting the bounds (rather than
+ * adding the cube as a conjunct) at least makes each translation smaller than that of the whole problem, and there are
+ * only as many cubes as threads. Since the SAT solvers cannot be interrupted either, once a cube is satisfiable the
+ * cubes that were not started are dropped, and those still being translated are abandoned before reaching the SAT solver.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-cubes
+ */
+
+final class CubeSolver {
+
+   /** Thrown by the reporter of a cube to abandon it. */
+   private static final class Abandoned extends RuntimeException {
+      private static final long serialVersionUID = 0;
+   }
+
+   /** Mutable; the solving of one cube, which records its statistics and phases so that they can be reported if it wins. */
+   private static final class Cube {
+
+      /** The solution being solved. */
+      private final A4Solution sol;
+
+      /** Whether the cube-and-conquer is over; shared by all cubes, and only changed while holding the lock of sol. */
+      private final boolean[] over;
+
+      /** The number of primary variables, variables and clauses of this cube (or null if no CNF was generated). */
+      private int[] stats = null;
+
+      /** The phases of this cube, each as {phase, wall time, cpu time, allocated bytes}. */
+      private final List<Object[]> phases = new ArrayList<Object[]>();
+
+      /** The solution of this cube. */
+      private Solution solution = null;
+
+      /** Constructs a cube of the given solution. */
+      private Cube(A4Solution sol, boolean[] over) {
+         this.sol = sol;
+         this.over = over;
+      }
+
+      /** Returns true if the cube-and-conquer is over. */
+      private boolean over() {
+         synchronized(sol) { return over[0]; }
+      }
+
+      /** Solves the given goal under the given bounds with a new solver for the given SAT solver,
+       * unless the cube-and-conquer is over before the SAT solver is reached (the solution is null then). */
+      private Cube solve(Formula goal, PardinusBounds bounds, SATFactory sat) {
+         if (over()) return this;
+         final A4Reporter recorder = new A4Reporter() {
+            @Override public void phase(String phase, long wallTime, long cpuTime, long allocated) {
+               phases.add(new Object[]{phase, wallTime, cpuTime, allocated});
+            }
+         };
+         final PhaseTimer[] timer = new PhaseTimer[]{PhaseTimer.start(PhaseTimer.TRANSLATE)};
+         PardinusSolver solver = sol.newCheckSolver(sat);
+         solver.options().setReporter(new SLF4JReporter() {
+            @Override public void skolemizing(Decl decl, Relation skolem, List<Decl> predecl) {
+               synchronized(sol) { if (!over[0]) sol.recordSkolem(decl, skolem, predecl); } // the witnesses of the winning cube are named after them
+            }
+            @Override public void solvingCNF(int primaryVars, int vars, int clauses) {
+               if (over()) throw new Abandoned(); // the SAT solver itself cannot be interrupted
+               if (stats!=null) return;
+               stats = new int[]{primaryVars, vars, clauses};
+               timer[0] = timer[0].next(recorder, PhaseTimer.SAT); // the CNF was generated
+            }
+         });
+         try {
+            solution = solver.solve(goal, bounds);
+         } catch(Abandoned ex) {
+            return this;
+         } finally {
+            timer[0].stop(recorder); // the phases of an abandoned cube are never reported
+         }
+         return this;
+      }
+
+      /** Reports the statistics and phases of this cube to the given reporter, as those of the whole problem. */
+      private void report(A4Reporter rep) {
+         for(Object[] p: phases) {
+            rep.phase((String)p[0], (Long)p[1], (Long)p[2], (Long)p[3]);
+            if (PhaseTimer.TRANSLATE.equals(p[0])) rep.solve(stats==null ? 0 : stats[0], stats==null ? 0 : stats[1], stats==null ? 0 : stats[2]);
+         }
+      }
+   }
+
+   /** This class is not constructed. */
+   private CubeSolver() { }
+
+   /** Returns the atoms to split on: up to the given number of undecided atoms, from the biggest static top-level sigs first. */
+   private static List<Pair<Relation,Tuple>> splits(A4Solution sol, PardinusBounds bounds, int max) {
+      List<Relation> rels = new ArrayList<Relation>();
+      for(Sig s: sol.getAllReachableSigs()) {
+         if (s.builtin || !s.isTopLevel() || !(s instanceof PrimSig)) continue;
+         try { if (!StaticAnalyzer.isStatic(s)) continue; } catch(Throwable ex) { continue; }
+         Expression e = sol.a2k(s);
+         if (e instanceof Relation && bounds.upperBound((Relation)e)!=null) rels.add((Relation)e);
+      }
+      final PardinusBounds b = bounds;
+      Collections.sort(rels, new Comparator<Relation>() {
+         public int compare(Relation x, Relation y) { return b.upperBound(y).size() - b.upperBound(x).size(); }
+      });
+      List<Pair<Relation,Tuple>> ans = new ArrayList<Pair<Relation,Tuple>>();
+      for(int i=0; ans.size()<max; i++) { // round-robin over the sigs, so that each contributes its first atoms
+         boolean more = false;
+         for(Relation r: rels) {
+            List<Tuple> free = new ArrayList<Tuple>();
+            for(Tuple t: bounds.upperBound(r)) if (!bounds.lowerBound(r).contains(t)) free.add(t);
+            if (i<free.size()) { more = true; if (ans.size()<max) ans.add(new Pair<Relation,Tuple>(r, free.get(i))); }
+         }
+         if (!more) break;
+      }
+      return ans;
+   }
+
+   /** Returns a copy of the given bounds restricted to the given cube (bit i of the cube tells whether split i is in or out). */
+   private static PardinusBounds cube(PardinusBounds bounds, List<Pair<Relation,Tuple>> splits, int cube) {
+      PardinusBounds ans = bounds.clone();
+      for(int i=0; i<splits.size(); i++) {
+         Relation r = splits.get(i).a;
+         TupleSet lower = ans.lowerBound(r).clone(), upper = ans.upperBound(r).clone();
+         if ((cube & (1<<i))!=0) lower.add(splits.get(i).b); else upper.remove(splits.get(i).b);
+         ans.bound(r, lower, upper);
+      }
+      return ans;
+   }
+
+   /** Solves the given goal by cube-and-conquer over the given number of threads, with the given SAT solver.
+    * Returns the solution of the first satisfiable cube, the solution of some cube if all are unsatisfiable,
+    * or null if the problem has no atoms to split on.
+    *
+    * <p> An exception thrown while solving a cube is rethrown as is (eg. so that capacity errors are reported as usual);
+    * only unexpected checked exceptions are wrapped into an ErrorFatal.
+    */
+   static Solution solve(A4Reporter rep, final A4Solution sol, final Formula goal, final PardinusBounds bounds, final SATFactory sat, int threads) throws Err {
+      int depth = 1;
+      while((1<<depth) < threads && depth < 10) depth++; // a cube per thread, since each cube is translated on its own
+      final List<Pair<Relation,Tuple>> splits = splits(sol, bounds, depth);
+      if (splits.isEmpty()) return null;
+      int cubes = 1<<splits.size();
+      rep.debug("Solving "+cubes+" cubes over "+splits.size()+" atoms with "+threads+" threads...\n");
+      ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Cube solver");
+            t.setDaemon(true); // cubes still running after a satisfiable one must not keep the analyzer alive
+            return t;
+         }
+      });
+      try {
+         final boolean[] over = new boolean[]{false};
+         CompletionService<Cube> jobs = new ExecutorCompletionService<Cube>(pool);
+         for(int i=0; i<cubes; i++) {
+            final int c = i;
+            jobs.submit(new Callable<Cube>() {
+               public Cube call() { return new Cube(sol, over).solve(goal, cube(bounds, splits, c), sat); }
+            });
+         }
+         Cube ans = null;
+         try {
+            for(int i=0; i<cubes; i++) {
+               ans = jobs.take().get();
+               if (ans.solution.instance()!=null) { rep.debug("Found a satisfiable cube after solving "+(i+1)+" of "+cubes+" cubes.\n"); break; }
+            }
+         } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Err) throw (Err)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new ErrorFatal("Cube-and-conquer solving failed.", cause);
+         } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ErrorFatal("Cube-and-conquer solving was interrupted.", ex);
+         } finally {
+            synchronized(sol) { over[0] = true; } // the cubes still running no longer record their skolems
+         }
+         ans.report(rep);
+         return ans.solution;
+      } finally {
+         pool.shutdownNow(); // drops the cubes that were not started
+      }
+   }
+}
@@ -0,0 +1,183 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import kodkod.ast.BinaryExpression;
+import kodkod.ast.BinaryFormula;
+import kodkod.ast.BinaryIntExpression;
+import kodkod.ast.BinaryTempFormula;
+import kodkod.ast.ComparisonFormula;
+import kodkod.ast.ExprToIntCast;
+import kodkod.ast.Formula;
+import kodkod.ast.IfExpression;
+import kodkod.ast.IfIntExpression;
+import kodkod.ast.IntComparisonFormula;
+import kodkod.ast.IntConstant;
+import kodkod.ast.IntToExprCast;
+import kodkod.ast.MultiplicityFormula;
+import kodkod.ast.NaryExpression;
+import kodkod.ast.NaryFormula;
+import kodkod.ast.NaryIntExpression;
+import kodkod.ast.Node;
+import kodkod.ast.NotFormula;
+import kodkod.ast.UnaryExpression;
+import kodkod.ast.UnaryIntExpression;
+import kodkod.ast.UnaryTempFormula;
+
+/** Mutable; this interns Kodkod nodes by structure, so that structurally equal subtrees built during translation
+ * are the same object, and Kodkod can share their circuits.
+ *
+ * <p> Nodes are interned bottom-up: the key of a node is its class, its operator and the identity of its children,
+ * which are expected to have been interned already. Leaves (relations, variables, constants) are already unique,
+ * and nodes that bind variables (quantified formulas, comprehensions, sums) are never interned.
+ *
+ * <p> Since the unsat core maps each formula object to a single position, formulas may be left out of interning
+ * so that equal constraints from different positions remain distinguishable.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-hashcons
+ */
+
+final class HashCons {
+
+   /** The interned nodes, indexed by their structural key. */
+   private final Map<List<Object>,Node> nodes = new HashMap<List<Object>,Node>();
+
+   /** Whether formulas are interned (besides relational and integer expressions). */
+   private final boolean formulas;
+
+   /** The number of nodes that were replaced by a previously interned node. */
+   private int shared = 0;
+
+   /** Constructs an empty table.
+    * @param formulas - whether formulas are interned (besides relational and integer expressions)
+    */
+   HashCons(boolean formulas) {
+      this.formulas = formulas;
+   }
+
+   /** Returns the number of nodes that were replaced by a previously interned node. */
+   int shared() { return shared; }
+
+   /** Returns whether formulas are interned (besides relational and integer expressions). */
+   boolean formulas() { return formulas; }
+
+   /** Returns the interned node structurally equal to the given node (which becomes the interned node if there is none). */
+   @SuppressWarnings("unchecked")
+   <T extends Node> T intern(T node) {
+      if (node == null || (!formulas && node instanceof Formula)) return node;
+      List<Object> key = key(node);
+      if (key == null) return node;
+      Node old = nodes.get(key);
+      if (old != null) { shared++; return (T)old; } // the key includes the class, so the cast is safe
+      nodes.put(key, node);
+      return node;
+   }
+
+   /** Returns the structural key of the given node, or null if it is a leaf or cannot be interned. */
+   private static List<Object> key(Node n) {
+      if (n instanceof BinaryExpression) {
+         BinaryExpression x = (BinaryExpression)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.left(), x.right());
+      }
+      if (n instanceof UnaryExpression) {
+         UnaryExpression x = (UnaryExpression)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.expression());
+      }
+      if (n instanceof NaryExpression) {
+         NaryExpression x = (NaryExpression)n;
+         List<Object> ans = new ArrayList<Object>(x.size()+2);
+         ans.add(n.getClass()); ans.add(x.op());
+         for(int i=0; i<x.size(); i++) ans.add(x.child(i));
+         return ans;
+      }
+      if (n instanceof IfExpression) {
+         IfExpression x = (IfExpression)n;
+         return Arrays.<Object>asList(n.getClass(), x.condition(), x.thenExpr(), x.elseExpr());
+      }
+      if (n instanceof IntToExprCast) {
+         IntToExprCast x = (IntToExprCast)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.intExpr());
+      }
+      if (n instanceof IntConstant) {
+         return Arrays.<Object>asList(n.getClass(), ((IntConstant)n).value());
+      }
+      if (n instanceof BinaryIntExpression) {
+         BinaryIntExpression x = (BinaryIntExpression)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.left(), x.right());
+      }
+      if (n instanceof UnaryIntExpression) {
+         UnaryIntExpression x = (UnaryIntExpression)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.intExpr());
+      }
+      if (n instanceof NaryIntExpression) {
+         NaryIntExpression x = (NaryIntExpression)n;
+         List<Object> ans = new ArrayList<Object>(x.size()+2);
+         ans.add(n.getClass()); ans.add(x.op());
+         for(int i=0; i<x.size(); i++) ans.add(x.child(i));
+         return ans;
+      }
+      if (n instanceof ExprToIntCast) {
+         ExprToIntCast x = (ExprToIntCast)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.expression());
+      }
+      if (n instanceof IfIntExpression) {
+         IfIntExpression x = (IfIntExpression)n;
+         return Arrays.<Object>asList(n.getClass(), x.condition(), x.thenExpr(), x.elseExpr());
+      }
+      if (n instanceof BinaryFormula) {
+         BinaryFormula x = (BinaryFormula)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.left(), x.right());
+      }
+      if (n instanceof NaryFormula) {
+         NaryFormula x = (NaryFormula)n;
+         List<Object> ans = new ArrayList<Object>(x.size()+2);
+         ans.add(n.getClass()); ans.add(x.op());
+         for(int i=0; i<x.size(); i++) ans.add(x.child(i));
+         return ans;
+      }
+      if (n instanceof NotFormula) {
+         return Arrays.<Object>asList(n.getClass(), ((NotFormula)n).formula());
+      }
+      if (n instanceof ComparisonFormula) {
+         ComparisonFormula x = (ComparisonFormula)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.left(), x.right());
+      }
+      if (n instanceof IntComparisonFormula) {
+         IntComparisonFormula x = (IntComparisonFormula)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.left(), x.right());
+      }
+      if (n instanceof MultiplicityFormula) {
+         MultiplicityFormula x = (MultiplicityFormula)n;
+         return Arrays.<Object>asList(n.getClass(), x.multiplicity(), x.expression());
+      }
+      if (n instanceof UnaryTempFormula) {
+         UnaryTempFormula x = (UnaryTempFormula)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.formula());
+      }
+      if (n instanceof BinaryTempFormula) {
+         BinaryTempFormula x = (BinaryTempFormula)n;
+         return Arrays.<Object>asList(n.getClass(), x.op(), x.left(), x.right());
+      }
+      return null;
+   }
+}
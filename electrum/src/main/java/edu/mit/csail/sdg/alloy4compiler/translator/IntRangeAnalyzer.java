@@ -0,0 +1,280 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.NONE;
+import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.SEQIDX;
+import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.SIGINT;
+import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.STRING;
+import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.UNIV;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.Util;
+import edu.mit.csail.sdg.alloy4compiler.ast.Command;
+import edu.mit.csail.sdg.alloy4compiler.ast.Decl;
+import edu.mit.csail.sdg.alloy4compiler.ast.Expr;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprBinary;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprCall;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprConstant;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprITE;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprLet;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprQt;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprUnary;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprVar;
+import edu.mit.csail.sdg.alloy4compiler.ast.Func;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.Field;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.PrimSig;
+import edu.mit.csail.sdg.alloy4compiler.ast.Type;
+import edu.mit.csail.sdg.alloy4compiler.ast.Type.ProductType;
+import edu.mit.csail.sdg.alloy4compiler.ast.VisitQuery;
+
+/** Mutable; this infers the smallest integer bitwidth that can represent every integer expression of a command.
+ *
+ * <p> Each integer expression is abstracted by an interval: constants are exact, cardinalities range between 0 and the
+ * maximum number of tuples allowed by the scopes, sums are bounded by the number of summands, and arithmetic operators
+ * are interpreted over intervals. Expressions whose value depends on the bitwidth itself (eg. integers stored in
+ * relations, quantification over Int, "min" or "max") are left unbounded, and so are the cardinalities of expressions
+ * over univ or String, whose number of atoms is unknown.
+ *
+ * <p> If integers are stored in relations, or some integer expression is unbounded, the analysis cannot know which values
+ * the model needs, so the inferred bitwidth is never below the default one in that case; otherwise, integers are only used as counters and constants,
+ * and a smaller bitwidth reduces the size of the arithmetic circuits without losing any instance.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-ints
+ */
+
+final class IntRangeAnalyzer {
+
+   /** The default bitwidth, which should be used as the minimum when integers are stored in relations. */
+   static final int DEFAULT = 4;
+
+   /** Intervals are clamped to this magnitude, which is above any admissible bitwidth. */
+   private static final long LIMIT = 1L<<40;
+
+   /** The scopes computed so far. */
+   private final ScopeComputer sc;
+
+   /** The bounds of the integer expressions, or null if unbounded (or not an integer expression). */
+   private final Map<Expr,long[]> cache = new IdentityHashMap<Expr,long[]>();
+
+   /** The intervals of the let-bound variables and function parameters currently in scope. */
+   private final Map<ExprVar,long[]> env = new IdentityHashMap<ExprVar,long[]>();
+
+   /** The functions whose bodies were already scanned. */
+   private final Set<Func> scanned = Collections.newSetFromMap(new IdentityHashMap<Func,Boolean>());
+
+   /** The functions currently being evaluated (to cut recursion). */
+   private final Set<Func> calling = Collections.newSetFromMap(new IdentityHashMap<Func,Boolean>());
+
+   /** The smallest and largest values that must be representable. */
+   private long lo = 0, hi = 0;
+
+   /** Whether integers are stored in relations, or otherwise depend on the bitwidth (or are unbounded). */
+   private boolean stored = false;
+
+   /** Constructs an analyzer over the given scopes. */
+   private IntRangeAnalyzer(ScopeComputer sc) { this.sc = sc; }
+
+   /** Infers the smallest bitwidth that can represent the integer expressions of the given command, given the scopes
+    * of the sigs; returns the bitwidth, the bounds of the values required, and whether integers are stored in relations (or unbounded). */
+   static Object[] infer(ScopeComputer sc, Iterable<Sig> sigs, Command cmd) throws Err {
+      IntRangeAnalyzer a = new IntRangeAnalyzer(sc);
+      VisitQuery<Object> scanner = a.scanner();
+      for(Sig s: sigs) {
+         for(Field f: s.getFields()) {
+            for(ProductType pt: f.type()) for(int k=0; k<pt.arity(); k++) if (pt.get(k)==SIGINT || pt.get(k)==SEQIDX) a.stored = true;
+            f.decl().expr.accept(scanner);
+         }
+         for(Expr f: s.getFacts()) f.accept(scanner);
+      }
+      cmd.formula.accept(scanner);
+      int w = 1;
+      while(w<30 && (Util.min(w)>a.lo || Util.max(w)<a.hi)) w++;
+      return new Object[]{w, new long[]{a.lo, a.hi}, a.stored};
+   }
+
+   /** Returns a visitor that records the bounds of every integer expression it finds. */
+   private VisitQuery<Object> scanner() {
+      return new VisitQuery<Object>() {
+         @Override public Object visit(ExprConstant x) throws Err {
+            require(x);
+            return null;
+         }
+         @Override public Object visit(ExprUnary x) throws Err {
+            require(x);
+            return super.visit(x);
+         }
+         @Override public Object visit(ExprBinary x) throws Err {
+            require(x);
+            return super.visit(x);
+         }
+         @Override public Object visit(ExprQt x) throws Err {
+            require(x);
+            return super.visit(x);
+         }
+         @Override public Object visit(ExprCall x) throws Err {
+            require(x);
+            if (scanned.add(x.fun)) x.fun.getBody().accept(this);
+            return super.visit(x);
+         }
+         @Override public Object visit(Sig x) throws Err {
+            if (x==SIGINT || x==SEQIDX) stored = true;
+            return null;
+         }
+      };
+   }
+
+   /** Records that the value of x (if it is an integer expression) must be representable; an integer expression
+    * whose bounds are unknown may need any value, so it forces the default bitwidth. */
+   private void require(Expr x) throws Err {
+      long[] i = interval(x);
+      if (i==null) { if (x.type().is_int()) stored = true; return; }
+      lo = Math.min(lo, i[0]);
+      hi = Math.max(hi, i[1]);
+   }
+
+   /** Returns the maximum number of atoms in the given sig, or -1 if it depends on the bitwidth or is unknown. */
+   private long atoms(PrimSig s) {
+      if (s==NONE) return 0;
+      if (s==SIGINT || s==SEQIDX || s==UNIV || s==STRING) return -1;
+      return sc.sig2scope(s);
+   }
+
+   /** Returns the maximum number of tuples of an expression of the given type, or -1 if unknown. */
+   private long tuples(Type t) {
+      long ans = 0;
+      for(ProductType pt: t) {
+         long n = 1;
+         for(int k=0; k<pt.arity(); k++) {
+            long m = atoms(pt.get(k));
+            if (m<0) return -1;
+            n = Math.min(LIMIT, n*m);
+         }
+         ans = Math.min(LIMIT, ans+n);
+      }
+      return ans;
+   }
+
+   /** Returns the interval [a,b] clamped to the admissible magnitude. */
+   private static long[] make(long a, long b) {
+      return new long[]{Math.max(-LIMIT, a), Math.min(LIMIT, b)};
+   }
+
+   /** Returns the bounds of the given integer expression, or null if it is unbounded or not an integer expression. */
+   private long[] interval(Expr x) throws Err {
+      if (env.isEmpty() && cache.containsKey(x)) return cache.get(x);
+      long[] ans = compute(x);
+      if (env.isEmpty()) cache.put(x, ans);
+      return ans;
+   }
+
+   /** Computes the bounds of the given integer expression. */
+   private long[] compute(Expr x) throws Err {
+      if (x instanceof ExprConstant) {
+         ExprConstant c = (ExprConstant)x;
+         if (c.op==ExprConstant.Op.NUMBER) return make(c.num(), c.num());
+         if (c.op==ExprConstant.Op.MIN || c.op==ExprConstant.Op.MAX || c.op==ExprConstant.Op.NEXT) stored = true;
+         return null;
+      }
+      if (x instanceof ExprVar) {
+         return env.get(x);
+      }
+      if (x instanceof ExprUnary) {
+         ExprUnary u = (ExprUnary)x;
+         switch(u.op) {
+           case NOOP: case CAST2SIGINT: return interval(u.sub);
+           case CAST2INT: return interval(u.sub); // only bounded if the sub expression is an integer cast to Int
+           case CARDINALITY: { long n = tuples(u.sub.type()); return n<0 ? null : make(0, n); }
+           default: return null;
+         }
+      }
+      if (x instanceof ExprBinary) {
+         ExprBinary b = (ExprBinary)x;
+         switch(b.op) {
+           case IPLUS: case IMINUS: case MUL: case DIV: case REM: break;
+           default: return null;
+         }
+         long[] l = interval(b.left), r = interval(b.right);
+         if (l==null || r==null) return null;
+         switch(b.op) {
+           case IPLUS:  return make(l[0]+r[0], l[1]+r[1]);
+           case IMINUS: return make(l[0]-r[1], l[1]-r[0]);
+           case MUL: {
+              long p1 = l[0]*r[0], p2 = l[0]*r[1], p3 = l[1]*r[0], p4 = l[1]*r[1];
+              return make(Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4)));
+           }
+           case DIV: {
+              long m = Math.max(Math.abs(l[0]), Math.abs(l[1]));
+              return make(-m, m);
+           }
+           default: {
+              long m = Math.min(Math.max(Math.abs(l[0]), Math.abs(l[1])), Math.max(Math.abs(r[0]), Math.abs(r[1])));
+              return make(-m, m);
+           }
+         }
+      }
+      if (x instanceof ExprITE) {
+         ExprITE ite = (ExprITE)x;
+         long[] l = interval(ite.left), r = interval(ite.right);
+         if (l==null || r==null) return null;
+         return make(Math.min(l[0], r[0]), Math.max(l[1], r[1]));
+      }
+      if (x instanceof ExprLet) {
+         ExprLet let = (ExprLet)x;
+         env.put(let.var, interval(let.expr));
+         try { return interval(let.sub); } finally { env.remove(let.var); }
+      }
+      if (x instanceof ExprQt) {
+         ExprQt q = (ExprQt)x;
+         if (q.op!=ExprQt.Op.SUM) return null;
+         long n = 1;
+         for(Decl d: q.decls) {
+            long m = tuples(d.expr.type());
+            if (m<0) return null;
+            for(int i=0; i<d.names.size(); i++) n = Math.min(LIMIT, n*m);
+         }
+         long[] s = interval(q.sub);
+         if (s==null) return null;
+         return make(Math.min(0, n*s[0]), Math.max(0, n*s[1]));
+      }
+      if (x instanceof ExprCall) {
+         ExprCall c = (ExprCall)x;
+         if (!calling.add(c.fun)) return null;
+         Map<ExprVar,long[]> old = new IdentityHashMap<ExprVar,long[]>(env);
+         try {
+            List<long[]> args = new ArrayList<long[]>();
+            for(Expr a: c.args) args.add(interval(a));
+            env.clear(); // the body can only refer to the parameters
+            for(int i=0; i<c.fun.count(); i++) if (args.get(i)!=null) env.put(c.fun.get(i), args.get(i));
+            return interval(c.fun.getBody());
+         } finally {
+            env.clear();
+            env.putAll(old);
+            calling.remove(c.fun);
+         }
+      }
+      return null;
+   }
+}
@@ -23,6 +23,7 @@ import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.STRING;
 import static edu.mit.csail.sdg.alloy4compiler.ast.Sig.UNIV;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
@@ -31,6 +32,7 @@ import edu.mit.csail.sdg.alloy4.A4Reporter;
 import edu.mit.csail.sdg.alloy4.Err;
 import edu.mit.csail.sdg.alloy4.ErrorAPI;
 import edu.mit.csail.sdg.alloy4.ErrorSyntax;
+import edu.mit.csail.sdg.alloy4.ErrorWarning;
 import edu.mit.csail.sdg.alloy4.Pair;
 import edu.mit.csail.sdg.alloy4.Pos;
 import edu.mit.csail.sdg.alloy4.SafeList;
@@ -38,9 +40,14 @@ import edu.mit.csail.sdg.alloy4.UniqueNameGenerator;
 import edu.mit.csail.sdg.alloy4.Util;
 import edu.mit.csail.sdg.alloy4compiler.ast.Command;
 import edu.mit.csail.sdg.alloy4compiler.ast.CommandScope;
+import edu.mit.csail.sdg.alloy4compiler.ast.Decl;
+import edu.mit.csail.sdg.alloy4compiler.ast.Expr;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprBinary;
 import edu.mit.csail.sdg.alloy4compiler.ast.ExprCall;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprConstant;
 import edu.mit.csail.sdg.alloy4compiler.ast.ExprUnary;
 import edu.mit.csail.sdg.alloy4compiler.ast.ExprUnary.Op;
+import edu.mit.csail.sdg.alloy4compiler.ast.Func;
 import edu.mit.csail.sdg.alloy4compiler.ast.Sig;
 import edu.mit.csail.sdg.alloy4compiler.ast.Sig.Field;
 import edu.mit.csail.sdg.alloy4compiler.ast.Sig.PrimSig;
@@ -113,6 +120,10 @@ final class ScopeComputer {
     /** This UniqueNameGenerator allows each sig's atoms to be distinct strings. */
     private final UniqueNameGenerator un = new UniqueNameGenerator();
 
+    /** Returns the maximum trace length to be handled by bounded temporal solvers. */
+    // [HASLab]
+    public int getMaxTraceLength() { return maxtrace; }
+
     /** Returns the scope for a sig (or -1 if we don't know). */
     public int sig2scope(Sig sig) {
         if (sig==SIGINT) return 1<<bitwidth;
@@ -291,7 +302,7 @@ final class ScopeComputer {
     //===========================================================================================================================//
 
     /** Compute the scopes, based on the settings in the "cmd", then log messages to the reporter. */
-    private ScopeComputer(A4Reporter rep, Iterable<Sig> sigs, Command cmd) throws Err {
+    private ScopeComputer(A4Reporter rep, A4Options opt, Iterable<Sig> sigs, Command cmd) throws Err { // [HASLab] options
         this.rep = rep;
         this.cmd = cmd;
         boolean shouldUseInts = true; // areIntsUsed(sigs, cmd); // [HASLab] pull from Alloy 5
@@ -341,12 +352,14 @@ final class ScopeComputer {
         }
         // Set the initial scope on "int" and "Int" and "seq"
         int maxseq=cmd.maxseq, bitwidth=cmd.bitwidth;
+        bitwidth = inferBitwidth(opt, sigs, bitwidth); // [HASLab]
         if (bitwidth<0) { bitwidth = (shouldUseInts ? 4 : 0); } 
         setBitwidth(cmd.pos, bitwidth);
         if (maxseq<0) {
             if (cmd.overall>=0) maxseq=cmd.overall; else maxseq=4;
             int max = Util.max(bitwidth);
             if (maxseq > max) maxseq = max;
+            if (opt.inferSeq) maxseq = inferMaxSeq(sigs, maxseq, max); // [HASLab]
         }
         setMaxSeq(cmd.pos, maxseq);
         // Generate the atoms and the universe
@@ -363,6 +376,120 @@ final class ScopeComputer {
         setMinTraceLength(cmd.pos, tracelength);
     }
 
+    /** Infers the smallest bitwidth that represents the integer expressions of the command (see {@link IntRangeAnalyzer}) and reports it,
+     * unless opt.inferBitwidth is false; returns the inferred bitwidth if the command does not specify one and opt.inferBitwidth is true,
+     * or the given bitwidth otherwise.
+     */
+    // [HASLab]
+    private int inferBitwidth(A4Options opt, Iterable<Sig> sigs, int bitwidth) throws Err {
+        if (!opt.inferBitwidth) return bitwidth;
+        Object[] ans = IntRangeAnalyzer.infer(this, sigs, cmd);
+        int needed = (Integer)ans[0], inferred = needed;
+        long[] range = (long[])ans[1];
+        String why = " (for values from "+range[0]+" to "+range[1]+")";
+        if (bitwidth>=0 && bitwidth<needed)
+            rep.warning(new ErrorWarning(cmd.pos, "The bitwidth "+bitwidth+" may be too small for the integer expressions of this command, which need "+needed+why+"."));
+        if ((Boolean)ans[2] && inferred<IntRangeAnalyzer.DEFAULT) {
+            inferred = IntRangeAnalyzer.DEFAULT;
+            why = " (the default, since integers are stored in relations or unbounded)";
+        }
+        if (bitwidth>=0) {
+            rep.scope("Inferred bitwidth "+inferred+why+".\n");
+            return bitwidth;
+        }
+        rep.scope("Using inferred bitwidth "+inferred+why+".\n");
+        return inferred;
+    }
+
+    /** Returns -1 if sequences are not used by the command, and otherwise the least sequence length needed by the index
+     * literals and the length constants compared against sequences.
+     */
+    // [HASLab]
+    private int seqUsage(Iterable<Sig> sigs) throws Err {
+        final int[] ans = new int[]{-1};
+        for(Sig s: sigs) for(Field f: s.getFields()) for(ProductType pt: f.type()) for(int k=0; k<pt.arity(); k++) {
+            if (pt.get(k)==SEQIDX) ans[0] = Math.max(ans[0], 0);
+        }
+        final Set<Func> funcs = Collections.newSetFromMap(new IdentityHashMap<Func,Boolean>());
+        VisitQuery<Object> v = new VisitQuery<Object>() {
+            @Override public Object visit(ExprCall x) throws Err {
+                if (funcs.add(x.fun)) x.fun.getBody().accept(this);
+                return super.visit(x);
+            }
+            @Override public Object visit(Sig x) throws Err {
+                if (x==SEQIDX) ans[0] = Math.max(ans[0], 0);
+                return null;
+            }
+            @Override public Object visit(ExprBinary x) throws Err {
+                int n;
+                switch(x.op) {
+                  case JOIN: // "s[i]" is "i.s"
+                    if ((n = number(x.left))>=0 && isSeq(x.right)) ans[0] = Math.max(ans[0], n+1);
+                    break;
+                  case EQUALS: case GTE: case GT: case NOT_LT: case NOT_LTE:
+                    if ((n = number(x.right))>=0 && isSeqLength(x.left)) ans[0] = Math.max(ans[0], x.op==ExprBinary.Op.GT || x.op==ExprBinary.Op.NOT_LTE ? n+1 : n);
+                    if (x.op==ExprBinary.Op.EQUALS && (n = number(x.left))>=0 && isSeqLength(x.right)) ans[0] = Math.max(ans[0], n);
+                    break;
+                  case LTE: case LT: case NOT_GT: case NOT_GTE:
+                    if ((n = number(x.left))>=0 && isSeqLength(x.right)) ans[0] = Math.max(ans[0], x.op==ExprBinary.Op.LT || x.op==ExprBinary.Op.NOT_GTE ? n+1 : n);
+                    break;
+                  default:
+                }
+                return super.visit(x);
+            }
+        };
+        for(Command c=cmd; c!=null; c=c.parent) c.formula.accept(v);
+        for(Sig s: sigs) {
+            for(Expr e: s.getFacts()) e.accept(v);
+            for(Decl d: s.getFieldDecls()) d.expr.accept(v);
+        }
+        return ans[0];
+    }
+
+    /** Returns the value of x if it is a non-negative integer literal (possibly cast to Int), or -1 otherwise. */
+    // [HASLab]
+    private static int number(Expr x) {
+        x = x.deNOP();
+        if (x instanceof ExprUnary && (((ExprUnary)x).op==Op.CAST2SIGINT || ((ExprUnary)x).op==Op.CAST2INT)) x = ((ExprUnary)x).sub.deNOP();
+        if (x instanceof ExprConstant && ((ExprConstant)x).op==ExprConstant.Op.NUMBER) return Math.max(((ExprConstant)x).num, -1);
+        return -1;
+    }
+
+    /** Returns true if some relation in the type of x is indexed by seq/Int, ie. if x may be a sequence. */
+    // [HASLab]
+    private static boolean isSeq(Expr x) {
+        for(ProductType pt: x.type()) if (pt.arity()>1 && pt.get(0)==SEQIDX) return true;
+        return false;
+    }
+
+    /** Returns true if x is "#s" for some sequence s. */
+    // [HASLab]
+    private static boolean isSeqLength(Expr x) {
+        x = x.deNOP();
+        if (x instanceof ExprUnary && ((ExprUnary)x).op==Op.CAST2INT) x = ((ExprUnary)x).sub.deNOP();
+        return x instanceof ExprUnary && ((ExprUnary)x).op==Op.CARDINALITY && isSeq(((ExprUnary)x).sub);
+    }
+
+    /** Infers the maximum sequence length from the constraints of the command (see {@link #seqUsage}) and reports
+     * the savings; sequences that are not used need no indices, and otherwise the default is kept unless it is too short
+     * for the index literals and length constants of the command (up to the largest integer).
+     */
+    // [HASLab]
+    private int inferMaxSeq(Iterable<Sig> sigs, int maxseq, int max) throws Err {
+        int needed = seqUsage(sigs);
+        if (needed<0) {
+            if (maxseq>0) rep.scope("Sequences are not used, so the maximum sequence length is 0 instead of "+maxseq+".\n");
+            return 0;
+        }
+        if (needed<=maxseq) return maxseq;
+        if (needed>max) {
+            rep.warning(new ErrorWarning(cmd.pos, "The constraints of this command refer to sequences of length "+needed+", but the bitwidth "+bitwidth+" only allows sequences of length "+max+"."));
+            needed = max;
+        }
+        if (needed>maxseq) rep.scope("Maximum sequence length raised from "+maxseq+" to "+needed+" to fit the sequence indices of this command.\n");
+        return needed;
+    }
+
     /** Whether or not Int appears in the relation types found in these sigs */
     private boolean areIntsUsed(Iterable<Sig> sigs, Command cmd) {
     	/* check for Int-typed relations */
@@ -429,7 +556,7 @@ final class ScopeComputer {
      * <p> Please see ScopeComputer.java for the exact rules for deriving the missing scopes.
      */
     static Pair<A4Solution,ScopeComputer> compute (A4Reporter rep, A4Options opt, Iterable<Sig> sigs, Command cmd) throws Err {
-        ScopeComputer sc = new ScopeComputer(rep, sigs, cmd);
+        ScopeComputer sc = new ScopeComputer(rep, opt, sigs, cmd); // [HASLab] options
         Set<String> set = cmd.getAllStringConstants(sigs);
         if (sc.maxstring>=0 && set.size()>sc.maxstring) rep.scope("Sig String expanded to contain all "+set.size()+" String constant(s) referenced by this command.\n");
         for(int i=0; set.size()<sc.maxstring; i++) set.add("\"String" + i + "\"");
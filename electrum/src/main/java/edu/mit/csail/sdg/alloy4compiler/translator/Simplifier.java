@@ -16,22 +16,34 @@
 
 package edu.mit.csail.sdg.alloy4compiler.translator;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import kodkod.ast.BinaryExpression;
 import kodkod.ast.BinaryFormula;
 import kodkod.ast.ComparisonFormula;
+import kodkod.ast.Decl;
 import kodkod.ast.Expression;
 import kodkod.ast.Formula;
+import kodkod.ast.MultiplicityFormula;
+import kodkod.ast.NaryExpression;
 import kodkod.ast.NaryFormula;
+import kodkod.ast.QuantifiedFormula;
 import kodkod.ast.Relation;
 import kodkod.ast.UnaryTempFormula;
 import kodkod.ast.operator.ExprCompOperator;
 import kodkod.ast.operator.ExprOperator;
 import kodkod.ast.operator.FormulaOperator;
+import kodkod.ast.operator.Multiplicity;
+import kodkod.ast.operator.Quantifier;
 import kodkod.ast.operator.TemporalOperator;
 import kodkod.engine.ltl2fol.TemporalTranslator;
+import kodkod.instance.Tuple;
 import kodkod.instance.TupleSet;
 import edu.mit.csail.sdg.alloy4.A4Reporter;
 import edu.mit.csail.sdg.alloy4.Err;
@@ -42,12 +54,25 @@ import edu.mit.csail.sdg.alloy4.MailBug;
  * <p> Currently it recognizes the following patterns:
  *
  * <p> (1) When it sees "A in B", it will try to derive a safe upperbound for B, and then remove
- *         any excess unknowns from A's upperbound.
+ *         any excess unknowns from A's upperbound; if B is a relation, it will also add the lowerbound of A to B's lowerbound.
  *
  * <p> (2) When it sees "A = B", it will try to simplify A assuming "A in B", and then simplify B assuming "B in A".
+ *
+ * <p> (3) When it sees "no A &amp; B", it will remove the lowerbound of B from the upperbound of A, and vice versa.
+ *         When it sees "no R", it will empty the upperbound of R; when it sees "no X.R" (resp. "no R.X") for a unary X,
+ *         it will remove from the upperbound of R the tuples that start (resp. end) with an atom in the lowerbound of X.
+ *
+ * <p> (4) When it sees "one R" or "lone R", where R is a relation or "x.R" for an exact singleton x,
+ *         it will remove the excess unknowns once a tuple is known (or make the only candidate tuple known, for "one").
+ *         When it sees "some R", where R is a relation, it will make the only candidate tuple known.
+ *
+ * <p> (5) When it sees "all v: D | one v.R" or "all v: D | lone v.R" (eg. functional fields), it will do the same
+ *         for each atom in the lowerbound of D.
+ *
+ * <p> Formulas over static relations under "always" are treated as if they were not temporal, and the patterns
+ * are applied repeatedly until no bound changes, since shrinking one relation may allow shrinking others.
  * 
- * @modified: Nuno Macedo // [HASLab] electrum-temporal
- * [HASLab] TODO: symbolic bound extraction should probably be done at this level
+ * @modified: Nuno Macedo // [HASLab] electrum-temporal, electrum-symbolic
  */
 
 public class Simplifier {
@@ -58,6 +83,14 @@ public class Simplifier {
     /** The A4Solution object we are attempting to simplify. */
     private A4Solution sol = null;
 
+    /** True if some bound was shrunk in the current round. */
+    // [HASLab]
+    private boolean changed = false;
+
+    /** The number of primary variables removed so far. */
+    // [HASLab]
+    private long removed = 0;
+
     /** Construct a Simplifier object. */
     public Simplifier() { }
 
@@ -71,10 +104,16 @@ public class Simplifier {
     public boolean simplify(A4Reporter rep, A4Solution sol, List<Formula> formulas) throws Err {
        this.rep = rep;
        this.sol = sol;
-       while(true) {
+       this.removed = 0;
+       // [HASLab] propagate until a fixpoint is reached
+       for(int rounds = 1; ; rounds++) {
           //equiv.clear();
+          changed = false;
           for(Formula f: formulas) if (!simplify_eq(f)) return false;
           for(Formula f: formulas) if (!simplify_in(f)) return false;
+          for(Formula f: formulas) if (!simplify_mult(f)) return false; // [HASLab]
+          if (changed) continue;
+          if (removed > 0) rep.bound("Simplifier removed " + removed + " primary variables in " + rounds + " rounds.\n"); // [HASLab]
           /*
           if (equiv.size()==0) return true;
           // We have to construct this replacer from scratch, since each time it will retain some info we don't want
@@ -96,6 +135,21 @@ public class Simplifier {
        }
     }
 
+    /** Shrink the bounds of the given relation, recording the number of primary variables removed. */
+    // [HASLab]
+    private final void shrink(Relation r, TupleSet lower, TupleSet upper) throws Err {
+       int before = sol.query(true, r, false).size() - sol.query(false, r, false).size();
+       sol.shrink(r, lower, upper);
+       int after = upper.size() - lower.size();
+       if (after < before) { removed += before - after; changed = true; }
+    }
+
+    /** Returns true if x is a static relation whose bounds can be shrunk. */
+    // [HASLab]
+    private static boolean isStatic(Expression x) {
+       return x instanceof Relation && !((Relation)x).isVariable() && x != A4Solution.KK_SEQIDX && x != A4Solution.KK_STRING;
+    }
+
     /** Simplify (a.(a->b)) into b when semantically equivalent */
     private final Expression condense(Expression x) {
        while (x instanceof BinaryExpression) {
@@ -152,19 +206,19 @@ public class Simplifier {
             TupleSet b0 = sol.query(false, b, false), b1 = sol.query(true, b, false);
             if (a instanceof Relation && a0.size()<b0.size() && b0.containsAll(a0) && a1.containsAll(b0)) {
                 rep.debug("Comment: Simplify "+a+" "+(a1.size()-a0.size())+"->"+(a1.size()-b0.size())+"\n");
-                sol.shrink((Relation)a, a0=b0, a1);
+                shrink((Relation)a, a0=b0, a1);
             }
             if (a instanceof Relation && a1.size()>b1.size() && b1.containsAll(a0) && a1.containsAll(b1)) {
                 rep.debug("Comment: Simplify "+a+" "+(a1.size()-a0.size())+"->"+(b1.size()-a0.size())+"\n");
-                sol.shrink((Relation)a, a0, a1=b1);
+                shrink((Relation)a, a0, a1=b1);
             }
             if (b instanceof Relation && b0.size()<a0.size() && a0.containsAll(b0) && b1.containsAll(a0)) {
                 rep.debug("Comment: Simplify "+b+" "+(b1.size()-b0.size())+"->"+(b1.size()-a0.size())+"\n");
-                sol.shrink((Relation)b, b0=a0, b1);
+                shrink((Relation)b, b0=a0, b1);
             }
             if (b instanceof Relation && b1.size()>a1.size() && a1.containsAll(b0) && b1.containsAll(a1)) {
                 rep.debug("Comment: Simplify "+b+" "+(b1.size()-b0.size())+"->"+(a1.size()-b0.size())+"\n");
-                sol.shrink((Relation)b, b0, b1=a1);
+                shrink((Relation)b, b0, b1=a1);
             }
           } catch(Exception ex) {}
         }
@@ -181,11 +235,27 @@ public class Simplifier {
              TupleSet ub = sol.query(true, r, false), lb = sol.query(false, r, false), t = sol.approximate(b);
              t.retainAll(ub);
              if (!t.containsAll(lb)) { rep.debug("Comment: Simplify "+a+" "+ub.size()+"->false\n"); return false; } // This means the upperbound is shrunk BELOW the lowerbound.
-             if (t.size() < ub.size()) { rep.debug("Comment: Simplify "+a+" "+ub.size()+"->"+t.size()+"\n"); sol.shrink(r,lb,t); }
+             if (t.size() < ub.size()) { rep.debug("Comment: Simplify "+a+" "+ub.size()+"->"+t.size()+"\n"); shrink(r,lb,t); }
           } catch(Throwable ex) {
              rep.debug("Comment: Simplify "+a+" exception: "+ex+"\n"+MailBug.dump(ex).trim()+"\n"); // Not fatal; let's report it to the debug() reporter
           }
        }
+       // [HASLab] the lowerbound of a is also a lowerbound of b
+       if (isStatic(b)) {
+          Relation r = (Relation)b;
+          TupleSet ub, lb, t;
+          try {
+             ub = sol.query(true, r, false); lb = sol.query(false, r, false); t = sol.query(false, a, true);
+          } catch(Err ex) {
+             return true; // the lowerbound of a is unknown
+          }
+          t.addAll(lb);
+          if (!ub.containsAll(t)) { rep.debug("Comment: Simplify "+b+" "+lb.size()+"->false\n"); return false; } // This means the lowerbound is raised ABOVE the upperbound.
+          if (t.size() > lb.size()) {
+             rep.debug("Comment: Simplify "+b+" "+(ub.size()-lb.size())+"->"+(ub.size()-t.size())+"\n");
+             try { shrink(r,t,ub); } catch(Err ex) { return true; }
+          }
+       }
        return true;
     }
     
@@ -276,6 +346,7 @@ public class Simplifier {
 
     /** Simplify the bounds based on the fact that "form is true"; return false if we discover the formula is unsat. */
     private final boolean simplify_eq (Formula form) {
+       if (form instanceof UnaryTempFormula && ((UnaryTempFormula)form).op() == TemporalOperator.ALWAYS) return simplify_eq(((UnaryTempFormula)form).formula()); // [HASLab]
        if (TemporalTranslator.isTemporal(form)) return true; // [HASLab]
        if (form instanceof NaryFormula) {
           NaryFormula f = (NaryFormula)form;
@@ -297,4 +368,175 @@ public class Simplifier {
        }
        return true;
     }
+
+    /** Simplify the bounds based on the fact that "form is true", for multiplicity and disjointness formulas; return false if we discover the formula is unsat. */
+    // [HASLab]
+    private final boolean simplify_mult (Formula form) {
+       if (form instanceof UnaryTempFormula && ((UnaryTempFormula)form).op() == TemporalOperator.ALWAYS) return simplify_mult(((UnaryTempFormula)form).formula());
+       if (form instanceof NaryFormula) {
+          NaryFormula f = (NaryFormula)form;
+          if (f.op() == FormulaOperator.AND) {
+             for(Iterator<Formula> i = f.iterator(); i.hasNext();) if (!simplify_mult(i.next())) return false;
+          }
+          return true;
+       }
+       if (form instanceof BinaryFormula) {
+          BinaryFormula f = (BinaryFormula)form;
+          if (f.op() == FormulaOperator.AND) {
+             return simplify_mult(f.left()) && simplify_mult(f.right());
+          }
+          return true;
+       }
+       if (TemporalTranslator.isTemporal(form)) return true;
+       try {
+          if (form instanceof MultiplicityFormula) {
+             MultiplicityFormula f = (MultiplicityFormula)form;
+             Expression x = f.expression();
+             if (f.multiplicity() == Multiplicity.NO) {
+                Expression a = null, b = null;
+                if (x instanceof BinaryExpression && ((BinaryExpression)x).op() == ExprOperator.INTERSECTION) {
+                   a = ((BinaryExpression)x).left(); b = ((BinaryExpression)x).right();
+                } else if (x instanceof NaryExpression && ((NaryExpression)x).op() == ExprOperator.INTERSECTION && ((NaryExpression)x).size() == 2) {
+                   a = ((NaryExpression)x).child(0); b = ((NaryExpression)x).child(1);
+                }
+                if (a != null) return simplify_disj(a, b) && simplify_disj(b, a);
+                if (isStatic(x)) return simplify_empty((Relation)x, null, 0);
+                if (x instanceof BinaryExpression && ((BinaryExpression)x).op() == ExprOperator.JOIN) {
+                   BinaryExpression j = (BinaryExpression)x;
+                   if (isStatic(j.right()) && j.left().arity() == 1) return simplify_empty((Relation)(j.right()), j.left(), 0);
+                   if (isStatic(j.left()) && j.right().arity() == 1) return simplify_empty((Relation)(j.left()), j.right(), j.left().arity()-1);
+                }
+                return true;
+             }
+             if (f.multiplicity() == Multiplicity.SOME) {
+                if (!isStatic(x)) return true;
+                Relation r = (Relation)x;
+                TupleSet lb = sol.query(false, r, false), ub = sol.query(true, r, false);
+                if (ub.size() == 0) { rep.debug("Comment: Simplify "+r+" 0->false\n"); return false; }
+                if (ub.size() == 1 && lb.size() == 0) { rep.debug("Comment: Simplify "+r+" "+ub.size()+"->1\n"); shrink(r, ub, ub); }
+                return true;
+             }
+             if (f.multiplicity() != Multiplicity.ONE && f.multiplicity() != Multiplicity.LONE) return true;
+             boolean one = f.multiplicity() == Multiplicity.ONE;
+             if (isStatic(x)) {
+                Relation r = (Relation)x;
+                TupleSet lb = sol.query(false, r, false), ub = sol.query(true, r, false);
+                if (lb.size() > 1 || (one && ub.size() == 0)) { rep.debug("Comment: Simplify "+r+" "+ub.size()+"->false\n"); return false; }
+                if (lb.size() == 1 && ub.size() > 1) { rep.debug("Comment: Simplify "+r+" "+ub.size()+"->1\n"); shrink(r, lb, lb); }
+                else if (one && ub.size() == 1 && lb.size() == 0) { rep.debug("Comment: Simplify "+r+" "+ub.size()+"->1\n"); shrink(r, ub, ub); }
+                return true;
+             }
+             if (x instanceof BinaryExpression && ((BinaryExpression)x).op() == ExprOperator.JOIN) {
+                BinaryExpression b = (BinaryExpression)x;
+                if (b.left().arity() != 1 || !isStatic(b.right()) || b.right().arity() < 2) return true;
+                TupleSet lb = sol.query(false, b.left(), false), ub = sol.query(true, b.left(), false);
+                if (lb.size() != 1 || ub.size() != 1) return true; // only for exact singletons
+                return simplify_func((Relation)(b.right()), lb, one);
+             }
+             return true;
+          }
+          if (form instanceof QuantifiedFormula) {
+             QuantifiedFormula f = (QuantifiedFormula)form;
+             if (f.quantifier() != Quantifier.ALL || f.decls().size() != 1) return true;
+             Decl d = f.decls().get(0);
+             if (d.multiplicity() != Multiplicity.ONE || d.expression().arity() != 1) return true;
+             TupleSet dom = sol.query(false, d.expression(), false);
+             if (dom.size() == 0) return true;
+             List<Formula> body = new ArrayList<Formula>();
+             conjuncts(f.formula(), body);
+             for(Formula g: body) if (g instanceof MultiplicityFormula) {
+                MultiplicityFormula m = (MultiplicityFormula)g;
+                if (m.multiplicity() != Multiplicity.ONE && m.multiplicity() != Multiplicity.LONE) continue;
+                if (!(m.expression() instanceof BinaryExpression)) continue;
+                BinaryExpression b = (BinaryExpression)(m.expression());
+                if (b.op() != ExprOperator.JOIN || b.left() != d.variable() || !isStatic(b.right()) || b.right().arity() < 2) continue;
+                if (!simplify_func((Relation)(b.right()), dom, m.multiplicity() == Multiplicity.ONE)) return false;
+             }
+          }
+       } catch(Throwable ex) {
+          rep.debug("Comment: Simplify "+form+" exception: "+ex+"\n"+MailBug.dump(ex).trim()+"\n"); // Not fatal; let's report it to the debug() reporter
+       }
+       return true;
+    }
+
+    /** Adds the conjuncts of the given formula to the list. */
+    // [HASLab]
+    private static void conjuncts(Formula form, List<Formula> list) {
+       if (form instanceof NaryFormula && ((NaryFormula)form).op() == FormulaOperator.AND) {
+          for(Iterator<Formula> i = ((NaryFormula)form).iterator(); i.hasNext();) conjuncts(i.next(), list);
+       } else if (form instanceof BinaryFormula && ((BinaryFormula)form).op() == FormulaOperator.AND) {
+          conjuncts(((BinaryFormula)form).left(), list);
+          conjuncts(((BinaryFormula)form).right(), list);
+       } else list.add(form);
+    }
+
+    /** Simplify the bounds based on the fact that "a and b are disjoint"; return false if we discover the formula is unsat. */
+    // [HASLab]
+    private final boolean simplify_disj(Expression a, Expression b) throws Err {
+       if (!isStatic(a)) return true;
+       Relation r = (Relation)a;
+       TupleSet ub = sol.query(true, r, false), lb = sol.query(false, r, false), t;
+       try { t = sol.query(false, b, true); } catch(Err ex) { return true; } // the lowerbound of b is unknown
+       t.retainAll(ub);
+       if (t.size() == 0) return true;
+       TupleSet nub = ub.clone();
+       nub.removeAll(t);
+       if (!nub.containsAll(lb)) { rep.debug("Comment: Simplify "+a+" "+ub.size()+"->false\n"); return false; }
+       rep.debug("Comment: Simplify "+a+" "+ub.size()+"->"+nub.size()+"\n");
+       shrink(r, lb, nub);
+       return true;
+    }
+
+    /** Simplify the bounds based on the fact that "no r" (if x is null), or else "no x.r" (if column is 0) or "no r.x" (otherwise)
+     * for the unary x; return false if we discover the formula is unsat.
+     */
+    // [HASLab]
+    private final boolean simplify_empty(Relation r, Expression x, int column) throws Err {
+       TupleSet ub = sol.query(true, r, false), lb = sol.query(false, r, false), nub;
+       if (x == null) {
+          nub = sol.getFactory().noneOf(r.arity());
+       } else {
+          TupleSet t;
+          try { t = sol.query(false, x, false); } catch(Err ex) { return true; } // the lowerbound of x is unknown
+          if (t.size() == 0) return true;
+          Set<Object> atoms = new HashSet<Object>();
+          for(Tuple a: t) atoms.add(a.atom(0));
+          nub = ub.clone();
+          for(Iterator<Tuple> i = nub.iterator(); i.hasNext();) if (atoms.contains(i.next().atom(column))) i.remove();
+       }
+       if (nub.size() == ub.size()) return true;
+       if (!nub.containsAll(lb)) { rep.debug("Comment: Simplify "+r+" "+ub.size()+"->false\n"); return false; }
+       rep.debug("Comment: Simplify "+r+" "+ub.size()+"->"+nub.size()+"\n");
+       shrink(r, lb, nub);
+       return true;
+    }
+
+    /** Simplify the bounds based on the fact that "one x.r" (or "lone x.r" if one is false) for every atom x in dom; return false if we discover the formula is unsat. */
+    // [HASLab]
+    private final boolean simplify_func(Relation r, TupleSet dom, boolean one) throws Err {
+       TupleSet ub = sol.query(true, r, false), lb = sol.query(false, r, false);
+       Map<Object,List<Tuple>> rows = new HashMap<Object,List<Tuple>>(), known = new HashMap<Object,List<Tuple>>();
+       for(Tuple t: ub) { List<Tuple> l = rows.get(t.atom(0)); if (l == null) rows.put(t.atom(0), l = new ArrayList<Tuple>()); l.add(t); }
+       for(Tuple t: lb) { List<Tuple> l = known.get(t.atom(0)); if (l == null) known.put(t.atom(0), l = new ArrayList<Tuple>()); l.add(t); }
+       TupleSet nlb = null, nub = null;
+       for(Tuple x: dom) {
+          Object atom = x.atom(0);
+          List<Tuple> row = rows.get(atom), k = known.get(atom);
+          int n = row == null ? 0 : row.size();
+          if ((k != null && k.size() > 1) || (one && n == 0)) { rep.debug("Comment: Simplify "+r+" "+ub.size()+"->false\n"); return false; }
+          if (k != null && n > 1) {
+             if (nub == null) nub = ub.clone();
+             for(Tuple t: row) if (t != k.get(0) && !t.equals(k.get(0))) nub.remove(t);
+          } else if (one && k == null && n == 1) {
+             if (nlb == null) nlb = lb.clone();
+             nlb.add(row.get(0));
+          }
+       }
+       if (nlb == null && nub == null) return true;
+       if (nlb == null) nlb = lb;
+       if (nub == null) nub = ub;
+       rep.debug("Comment: Simplify "+r+" "+(ub.size()-lb.size())+"->"+(nub.size()-nlb.size())+"\n");
+       shrink(r, nlb, nub);
+       return true;
+    }
 }
@@ -0,0 +1,137 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import kodkod.ast.Relation;
+import kodkod.instance.Bounds;
+import kodkod.instance.TupleSet;
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorType;
+import edu.mit.csail.sdg.alloy4.ErrorWarning;
+import edu.mit.csail.sdg.alloy4compiler.ast.Command;
+
+/** Immutable; this class estimates the size of a problem from its bounds, before it is translated.
+ *
+ * <p> The number of primary variables is exact (modulo the simplifications performed later),
+ * being the number of undecided tuples of each relation, multiplied by the number of trace
+ * steps for variable relations. The number of clauses is a coarse prediction that assumes
+ * each undecided tuple takes part in joins with every atom of the universe.
+ *
+ * <p> Budgets are taken from {@link A4Options#primaryVarsBudget} and {@link A4Options#clausesBudget};
+ * exceeding them issues a warning, or refuses the command if {@link A4Options#refuseOverBudget} is set, and nothing
+ * is refused if no budget is set. The same applies to relations that, once expanded over the trace steps, seem
+ * too large for Kodkod to index their tuples in an int: if the expansion really overflows, the translation fails
+ * anyway with the capacity error of {@link TranslateAlloyToKodkod#rethrow}.
+ *
+ * <p> The estimate only applies to the bounded Kodkod backends; it is not computed for unbounded or electrod runs,
+ * which do not translate the bounds into CNF.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-preflight
+ */
+
+final class SizeEstimator {
+
+   /** The number of clauses predicted for each gate. Kodkod's Tseitin encoding of a binary AND (or OR) gate
+    * g = a &amp; b yields the three clauses (!g | a), (!g | b) and (g | !a | !b), and the gates of larger arity are
+    * built from such binary ones, so every gate of the prediction is charged 3 clauses.
+    */
+   private static final long CLAUSES_PER_GATE = 3;
+
+   /** The estimated number of primary variables. */
+   final long primaryVars;
+
+   /** The predicted number of clauses. */
+   final long clauses;
+
+   /** The largest relation arity (including the time column for variable relations). */
+   final int maxArity;
+
+   /** The number of trace steps considered (0 if there are no variable relations). */
+   final int steps;
+
+   /** Computes the estimate for the given bounds, considering the given number of trace steps. */
+   private SizeEstimator(A4Reporter rep, Bounds bounds, int steps) {
+      int universe = bounds.universe().size();
+      long vars = 0, gates = 0;
+      int arity = 0, undecided = 0;
+      boolean var = false;
+      Relation largest = null;
+      long largestFree = 0;
+      for(Relation r: bounds.relations()) {
+         TupleSet upper = bounds.upperBound(r), lower = bounds.lowerBound(r);
+         long free = upper.size() - (lower==null ? 0 : lower.size());
+         if (free <= 0) continue;
+         if (r.isVariable()) var = true;
+         int k = r.isVariable() ? steps : 1;
+         vars += free * k;
+         gates += free * k * universe; // each undecided tuple is assumed to be joined with every atom (see the class comment)
+         int a = r.arity() + (r.isVariable() ? 1 : 0);
+         if (a > arity) arity = a;
+         undecided++;
+         if (free * k > largestFree) { largest = r; largestFree = free * k; }
+      }
+      if (largest != null)
+         rep.bound(undecided + " relations have undecided tuples; the largest is " + largest.name() + " with " + largestFree
+               + " primary variables" + (largest.isVariable() ? " over " + steps + " steps" : "") + ".\n");
+      this.primaryVars = vars;
+      this.clauses = gates * CLAUSES_PER_GATE;
+      this.maxArity = arity;
+      this.steps = var ? steps : 0;
+   }
+
+   /** Returns true if a relation of the given arity over the given number of atoms can be represented by Kodkod. */
+   private static boolean fits(int atoms, int arity) {
+      long n = 1;
+      for(int i=0; i<arity; i++) { n = n * atoms; if (n > Integer.MAX_VALUE) return false; }
+      return true;
+   }
+
+   /** Estimates the size of the problem and checks it against the budgets; must be called after the bounds are computed.
+    *
+    * @param rep - the reporter that will receive the estimate and the warnings
+    * @param sol - the solution whose bounds were computed
+    * @param opt - the options with the budgets
+    * @param cmd - the command being executed
+    * @param steps - the maximum number of trace steps
+    *
+    * @return the estimate, or null if the command is not solved by a bounded Kodkod backend
+    *
+    * @throws ErrorType if a budget is set and opt.refuseOverBudget is set, and the problem either exceeds the budgets or seems too large to be represented
+    */
+   static SizeEstimator check(A4Reporter rep, A4Solution sol, A4Options opt, Command cmd, int steps) throws Err {
+      if (opt.run_unbounded || "electrod".equals(opt.solver.external())) return null;
+      Bounds bounds = sol.getBounds();
+      SizeEstimator est = new SizeEstimator(rep, bounds, steps);
+      rep.bound("Estimated size: " + est.primaryVars + " primary vars, ~" + est.clauses + " clauses, max arity " + est.maxArity + ", " + est.steps + " steps.\n");
+      int atoms = bounds.universe().size() + est.steps;
+      boolean budget = opt.primaryVarsBudget > 0 || opt.clausesBudget > 0;
+      String over = null;
+      if (!fits(atoms, est.maxArity))
+         over = "In this scope, universe contains " + atoms + " atoms (including trace steps)\n"
+               + "and relations of arity " + est.maxArity + " may not be representable.";
+      else if (opt.primaryVarsBudget > 0 && est.primaryVars > opt.primaryVarsBudget)
+         over = "The command is estimated to require " + est.primaryVars + " primary variables, over the budget of " + opt.primaryVarsBudget + ".";
+      else if (opt.clausesBudget > 0 && est.clauses > opt.clausesBudget)
+         over = "The command is estimated to require about " + est.clauses + " clauses, over the budget of " + opt.clausesBudget + ".";
+      if (over != null) {
+         if (budget && opt.refuseOverBudget) throw new ErrorType(cmd.pos, over + "\nReduce the scope or increase the budget to proceed.");
+         rep.warning(new ErrorWarning(cmd.pos, over + "\nThe analysis may not finish."));
+      }
+      return est;
+   }
+}
@@ -0,0 +1,291 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4compiler.ast.Command;
+import edu.mit.csail.sdg.alloy4compiler.ast.Decl;
+import edu.mit.csail.sdg.alloy4compiler.ast.Expr;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprBinary;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprCall;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprConstant;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprHasName;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprList;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprUnary;
+import edu.mit.csail.sdg.alloy4compiler.ast.Func;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.Field;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.PrimSig;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.SubsetSig;
+import edu.mit.csail.sdg.alloy4compiler.ast.VisitQuery;
+
+/** Immutable; this computes the cone of influence of a command, ie. the facts, sig facts and field declarations
+ * that may constrain the relations mentioned by the command itself.
+ *
+ * <p> Sigs are grouped by hierarchy: mentioning a sig (or one of its fields) brings the whole hierarchy of its
+ * top-level ancestor into the cone, since the sigs of a hierarchy share their atoms. A constraint enters the cone
+ * if it mentions some relation already in the cone, and then so do all the relations it mentions, until a fixpoint
+ * is reached. A field declaration whose multiplicity may fail for some atom of its sig (eg. "f: one B") also
+ * constrains that sig and the relations of its bound, and so enters the cone whenever any of them does.
+ *
+ * <p> A constraint that mentions a builtin (univ, iden, Int, String, ...) or a temporal operator is always in the cone:
+ * the former may constrain every hierarchy at once (eg. "#univ = 5"), so it also brings every hierarchy into the cone,
+ * and the latter may constrain the length and loop of the trace shared by all relations.
+ *
+ * <p> The remaining constraints share no relation with the command, so dropping them (and bounding the fields they
+ * declare to be empty) preserves the outcome of the command provided they are consistent by themselves.
+ * Since that is not checked, slicing is only performed when requested through {@link A4Options#slicing}.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-slicing
+ */
+
+final class Slicer {
+
+    /** A constraint that may be sliced away. */
+    private static final class Constraint {
+        /** The fact, sig fact or field declaration. */
+        final Object key;
+        /** The constraint enters the cone if any of these relations is in the cone. */
+        final Set<Object> triggers;
+        /** The relations that enter the cone together with the constraint. */
+        final Set<Object> symbols;
+        /** Whether the constraint is in the cone. */
+        boolean relevant;
+        Constraint(Object key, Set<Object> triggers, Set<Object> symbols, boolean relevant) {
+            this.key = key;
+            this.triggers = triggers;
+            this.symbols = symbols;
+            this.relevant = relevant;
+        }
+    }
+
+    /** The command, restricted to the goal and the facts in the cone of influence. */
+    final Command command;
+
+    /** The sig facts and field declarations in the cone of influence. */
+    private final Set<Object> relevant = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+
+    /** The field declarations outside the cone of influence. */
+    private final List<Decl> irrelevant = new ArrayList<Decl>();
+
+    /** Computes the cone of influence of the given command, which must be one of the commands of the given world. */
+    private Slicer(A4Reporter rep, Module world, Command cmd) throws Err {
+        // the formula of the command is the conjunction of the reachable facts and the goal itself
+        Set<Expr> facts = Collections.newSetFromMap(new IdentityHashMap<Expr,Boolean>());
+        for(Expr e: conjuncts(world.getAllReachableFacts())) { facts.add(e); facts.add(e.deNOP()); }
+        List<Expr> all = conjuncts(cmd.formula);
+        Set<Object> cone = new LinkedHashSet<Object>();
+        List<Constraint> constraints = new ArrayList<Constraint>();
+        Set<Object> hierarchies = new LinkedHashSet<Object>();
+        for(Sig s: world.getAllReachableSigs()) hierarchies.addAll(tops(s));
+        int total = 0;
+        for(Expr e: all) {
+            if (!facts.contains(e) && !facts.contains(e.deNOP())) { cone.addAll(symbols(e)); if (globals(e)[0]) cone.addAll(hierarchies); continue; }
+            constraints.add(constraint(e, e, symbols(e), null, hierarchies));
+            total++;
+        }
+        for(Sig s: world.getAllReachableSigs()) {
+            if (s.builtin) continue;
+            for(Decl d: s.getFieldDecls()) {
+                Set<Object> triggers = new LinkedHashSet<Object>(), symbols = new LinkedHashSet<Object>();
+                for(ExprHasName n: d.names) triggers.add(n);
+                // a multiplicity that may fail constrains both its sig and the relations of its bound (eg. "f: one B" requires B to be nonempty)
+                if (!isOptional(d.expr)) { triggers.addAll(tops(s)); triggers.addAll(symbols(d.expr)); }
+                symbols.addAll(triggers);
+                symbols.addAll(tops(s));
+                symbols.addAll(symbols(d.expr));
+                constraints.add(constraint(d, d.expr, triggers, symbols, hierarchies));
+            }
+            for(Expr f: s.getFacts()) {
+                Set<Object> symbols = symbols(f);
+                symbols.addAll(tops(s));
+                constraints.add(constraint(f, f, symbols, null, hierarchies));
+            }
+        }
+        for(Constraint c: constraints) if (c.relevant) cone.addAll(c.symbols);
+        for(boolean changed = true; changed; ) {
+            changed = false;
+            for(Constraint c: constraints) if (!c.relevant && !Collections.disjoint(c.triggers, cone)) {
+                c.relevant = true;
+                cone.addAll(c.symbols);
+                changed = true;
+            }
+        }
+        Set<Object> kept = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        int keptFacts = 0, sigFacts = 0;
+        for(Constraint c: constraints) {
+            if (c.relevant) { kept.add(c.key); if (c.key instanceof Decl || !facts.contains(c.key)) relevant.add(c.key); else keptFacts++; }
+            else if (c.key instanceof Decl) irrelevant.add((Decl)(c.key));
+            else if (!facts.contains(c.key)) sigFacts++;
+        }
+        List<Expr> formulas = new ArrayList<Expr>();
+        for(Expr e: all) if (!facts.contains(e) && !facts.contains(e.deNOP()) || kept.contains(e)) formulas.add(e);
+        this.command = formulas.size()==all.size() ? cmd : cmd.change(formulas.isEmpty() ? ExprConstant.TRUE : ExprList.make(cmd.formula.span(), null, ExprList.Op.AND, formulas));
+        rep.bound("Slicing kept "+keptFacts+" of "+total+" facts, and dropped "+irrelevant.size()+" field declarations and "+sigFacts+" sig facts.\n");
+        if (!irrelevant.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Sliced fields:");
+            for(Decl d: irrelevant) for(ExprHasName n: d.names) sb.append(' ').append(((Field)n).sig.label).append('.').append(n.label);
+            rep.debug(sb.append('\n').toString());
+        }
+    }
+
+    /** Returns the constraint for the given key, whose expression is x; a constraint that mentions a builtin also brings
+     * every hierarchy into the cone, and a constraint that mentions a builtin or a temporal operator is always in the cone.
+     * @param symbols - the relations that enter the cone with the constraint, or null if they are the triggers themselves
+     */
+    private static Constraint constraint(Object key, Expr x, Set<Object> triggers, Set<Object> symbols, Set<Object> hierarchies) throws Err {
+        boolean[] g = globals(x);
+        if (symbols==null) symbols = new LinkedHashSet<Object>(triggers);
+        if (g[0]) symbols.addAll(hierarchies);
+        return new Constraint(key, triggers, symbols, g[0] || g[1]);
+    }
+
+    /** Computes the cone of influence of the given command, which must be one of the commands of the given world. */
+    static Slicer compute(A4Reporter rep, Module world, Command cmd) throws Err {
+        return new Slicer(rep!=null ? rep : A4Reporter.NOP, world, cmd);
+    }
+
+    /** Returns true if the given field declaration is in the cone of influence. */
+    boolean isRelevant(Decl d) { return relevant.contains(d); }
+
+    /** Returns true if the given sig fact is in the cone of influence. */
+    boolean isRelevant(Expr sigFact) { return relevant.contains(sigFact); }
+
+    /** Returns the conjuncts of the given formula, flattened the same way as ExprList.makeAND does. */
+    private static List<Expr> conjuncts(Expr x) {
+        List<Expr> ans = new ArrayList<Expr>();
+        conjuncts(x, ans);
+        return ans;
+    }
+
+    /** Adds the conjuncts of the given formula to the list. */
+    private static void conjuncts(Expr expr, List<Expr> ans) {
+        Expr x = expr.deNOP();
+        if (x instanceof ExprBinary && ((ExprBinary)x).op==ExprBinary.Op.AND) {
+            conjuncts(((ExprBinary)x).left, ans);
+            conjuncts(((ExprBinary)x).right, ans);
+        } else if (x instanceof ExprList && ((ExprList)x).op==ExprList.Op.AND) {
+            for(Expr y: ((ExprList)x).args) conjuncts(y, ans);
+        } else if (!x.isSame(ExprConstant.TRUE)) {
+            ans.add(expr);
+        }
+    }
+
+    /** Returns the top-level ancestors of the given sig (and the sig itself if it is a subset sig); builtin sigs are ignored. */
+    private static Set<Object> tops(Sig s) {
+        Set<Object> ans = new LinkedHashSet<Object>();
+        if (s.builtin) return ans;
+        if (s instanceof SubsetSig) {
+            ans.add(s);
+            for(Sig p: ((SubsetSig)s).parents) ans.addAll(tops(p));
+        } else {
+            PrimSig p = (PrimSig)s;
+            while(p.parent!=null && !p.parent.builtin) p = p.parent;
+            ans.add(p);
+        }
+        return ans;
+    }
+
+    /** Returns the relations mentioned by the given expression (including through function calls). */
+    private static Set<Object> symbols(Expr x) throws Err {
+        final Set<Object> ans = new LinkedHashSet<Object>();
+        final Set<Func> funcs = Collections.newSetFromMap(new IdentityHashMap<Func,Boolean>());
+        x.accept(new VisitQuery<Object>() {
+            @Override public Object visit(ExprCall x) throws Err {
+                if (funcs.add(x.fun)) x.fun.getBody().accept(this);
+                return super.visit(x);
+            }
+            @Override public Object visit(Sig x) throws Err {
+                ans.addAll(tops(x));
+                return null;
+            }
+            @Override public Object visit(Field x) throws Err {
+                ans.add(x);
+                ans.addAll(tops(x.sig));
+                return null;
+            }
+        });
+        return ans;
+    }
+
+    /** Returns whether the given expression (including through function calls) mentions a builtin sig or relation
+     * (as the first element) and whether it uses a temporal operator (as the second element).
+     */
+    private static boolean[] globals(Expr x) throws Err {
+        final boolean[] ans = new boolean[2];
+        final Set<Func> funcs = Collections.newSetFromMap(new IdentityHashMap<Func,Boolean>());
+        x.accept(new VisitQuery<Object>() {
+            @Override public Object visit(ExprCall x) throws Err {
+                if (funcs.add(x.fun)) x.fun.getBody().accept(this);
+                return super.visit(x);
+            }
+            @Override public Object visit(Sig x) throws Err {
+                if (x.builtin && x!=Sig.NONE) ans[0] = true;
+                return null;
+            }
+            @Override public Object visit(ExprConstant x) throws Err {
+                if (x.op==ExprConstant.Op.IDEN || x.op==ExprConstant.Op.NEXT) ans[0] = true;
+                return null;
+            }
+            @Override public Object visit(ExprUnary x) throws Err {
+                switch(x.op) {
+                  case AFTER: case ALWAYS: case EVENTUALLY: case PREVIOUS: case HISTORICALLY: case ONCE: case PRIME: ans[1] = true; break;
+                  default: break;
+                }
+                return super.visit(x);
+            }
+            @Override public Object visit(ExprBinary x) throws Err {
+                switch(x.op) {
+                  case UNTIL: case RELEASE: case SINCE: case TRIGGER: ans[1] = true; break;
+                  default: break;
+                }
+                return super.visit(x);
+            }
+        });
+        return ans;
+    }
+
+    /** Returns true if the given field bound is trivially satisfied by the empty relation (eg. "set B", "lone B", "A -&gt; lone B"). */
+    private static boolean isOptional(Expr x) {
+        x = x.deNOP();
+        if (x instanceof ExprUnary) return ((ExprUnary)x).op==ExprUnary.Op.SETOF || ((ExprUnary)x).op==ExprUnary.Op.LONEOF;
+        if (!(x instanceof ExprBinary) || !((ExprBinary)x).op.isArrow) return false;
+        ExprBinary b = (ExprBinary)x;
+        switch(b.op) {
+          case ARROW: case ANY_ARROW_LONE: case LONE_ARROW_ANY: case LONE_ARROW_LONE:
+            return isOptionalSide(b.left) && isOptionalSide(b.right);
+          default:
+            return false;
+        }
+    }
+
+    /** Returns true if the given side of an arrow does not constrain the empty relation. */
+    private static boolean isOptionalSide(Expr x) {
+        Expr y = x.deNOP();
+        if (y instanceof ExprBinary && ((ExprBinary)y).op.isArrow) return isOptional(y);
+        return y.mult==0;
+    }
+}
@@ -0,0 +1,168 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4compiler.ast.Decl;
+import edu.mit.csail.sdg.alloy4compiler.ast.Expr;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprBinary;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprCall;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprConstant;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprITE;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprLet;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprList;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprQt;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprUnary;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprVar;
+import edu.mit.csail.sdg.alloy4compiler.ast.Func;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.Field;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.PrimSig;
+
+/** Mutable; this decides which Alloy expressions are time-invariant, ie. translate into Kodkod nodes without
+ * variable relations or temporal operators.
+ *
+ * <p> When some sig is variable, so is univ, and thus the translation of "iden" (which must be restricted to univ)
+ * and of "*r". However, the atoms of any Alloy expression are always in univ, so this restriction is redundant
+ * where "iden", "*r" or "univ" are guarded by another expression, eg. "x.*r", "x &amp; iden", "x in iden" or "A &lt;: iden".
+ * The translator drops the restriction in those cases (see TranslateAlloyToKodkod.guarded), and this analysis
+ * follows that translation, so that such expressions over static relations remain static.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-temporal
+ */
+
+final class StaticAnalyzer {
+
+   /** Whether univ is variable, ie. some top-level sig hierarchy contains a variable sig. */
+   private final boolean varUniv;
+
+   /** Caches the analysis of each expression. */
+   private final Map<Expr,Boolean> cache = new IdentityHashMap<Expr,Boolean>();
+
+   /** Caches the analysis of the body of each function (assuming static arguments); null while being analyzed. */
+   private final Map<Func,Boolean> funcs = new IdentityHashMap<Func,Boolean>();
+
+   /** Records whether each let-bound variable is bound to a static expression. */
+   private final Map<ExprVar,Boolean> lets = new IdentityHashMap<ExprVar,Boolean>();
+
+   /** Constructs an analyzer for the given list of sigs (which must be complete). */
+   StaticAnalyzer(Iterable<Sig> sigs) {
+      boolean v = false;
+      for(Sig s: sigs) if (s instanceof PrimSig && !s.builtin && s.isVariable!=null) v = true;
+      this.varUniv = v;
+   }
+
+   /** Returns whether univ is variable. */
+   boolean isUnivVariable() { return varUniv; }
+
+   /** Returns true if x is "iden". */
+   static boolean isIden(Expr x) {
+      x = x.deNOP();
+      return x instanceof ExprConstant && ((ExprConstant)x).op==ExprConstant.Op.IDEN;
+   }
+
+   /** Returns true if x is "*r". */
+   static boolean isRClosure(Expr x) {
+      x = x.deNOP();
+      return x instanceof ExprUnary && ((ExprUnary)x).op==ExprUnary.Op.RCLOSURE;
+   }
+
+   /** Returns true if x is time-invariant where guarded by another expression (see the class comment). */
+   private boolean isGuardedStatic(Expr x) throws Err {
+      x = x.deNOP();
+      if (isIden(x) || x==Sig.UNIV) return true;
+      if (isRClosure(x)) return isStatic(((ExprUnary)x).sub);
+      return isStatic(x);
+   }
+
+   /** Returns true if the given sig and all its descendants are static. */
+   static boolean isStatic(Sig s) throws Err {
+      if (s.isVariable!=null) return false;
+      if (s instanceof PrimSig && !s.builtin) for(PrimSig c: ((PrimSig)s).children()) if (!isStatic(c)) return false;
+      return true;
+   }
+
+   /** Returns true if the given expression is provably time-invariant. */
+   boolean isStatic(Expr x) throws Err {
+      Boolean ans = cache.get(x);
+      if (ans==null) { ans = compute(x); cache.put(x, ans); }
+      return ans;
+   }
+
+   /** Analyzes the given expression. */
+   private boolean compute(Expr x) throws Err {
+      if (x instanceof ExprConstant) return ((ExprConstant)x).op!=ExprConstant.Op.IDEN || !varUniv;
+      if (x instanceof Sig) return x==Sig.UNIV ? !varUniv : isStatic((Sig)x);
+      if (x instanceof Field) return ((Field)x).isVariable==null;
+      if (x instanceof ExprVar) { Boolean ans = lets.get(x); return ans==null || ans; } // quantified variables and parameters are bound to Kodkod variables or to static arguments
+      if (x instanceof ExprUnary) {
+         ExprUnary u = (ExprUnary)x;
+         switch(u.op) {
+           case AFTER: case ALWAYS: case EVENTUALLY: case PREVIOUS: case HISTORICALLY: case ONCE: case PRIME: return false;
+           case RCLOSURE: return !varUniv && isStatic(u.sub);
+           default: return isStatic(u.sub);
+         }
+      }
+      if (x instanceof ExprBinary) {
+         ExprBinary b = (ExprBinary)x;
+         switch(b.op) {
+           case UNTIL: case RELEASE: case SINCE: case TRIGGER: return false;
+           case JOIN: case INTERSECT:
+             return (isStatic(b.left) && isGuardedStatic(b.right)) || (isGuardedStatic(b.left) && isStatic(b.right));
+           case IN: case NOT_IN: case MINUS: case DOMAIN:
+             return isStatic(b.left) && isGuardedStatic(b.right);
+           case RANGE:
+             return isGuardedStatic(b.left) && isStatic(b.right);
+           default:
+             return isStatic(b.left) && isStatic(b.right);
+         }
+      }
+      if (x instanceof ExprList) {
+         for(Expr y: ((ExprList)x).args) if (!isStatic(y)) return false;
+         return true;
+      }
+      if (x instanceof ExprITE) {
+         ExprITE ite = (ExprITE)x;
+         return isStatic(ite.cond) && isStatic(ite.left) && isStatic(ite.right);
+      }
+      if (x instanceof ExprLet) {
+         ExprLet let = (ExprLet)x;
+         boolean e = isStatic(let.expr);
+         lets.put(let.var, e);
+         return e && isStatic(let.sub);
+      }
+      if (x instanceof ExprQt) {
+         ExprQt q = (ExprQt)x;
+         for(Decl d: q.decls) if (!isStatic(d.expr)) return false;
+         return isStatic(q.sub);
+      }
+      if (x instanceof ExprCall) {
+         ExprCall c = (ExprCall)x;
+         for(Expr y: c.args) if (!isStatic(y)) return false;
+         if (!funcs.containsKey(c.fun)) {
+            funcs.put(c.fun, null); // recursive calls are considered variable
+            funcs.put(c.fun, isStatic(c.fun.getBody()));
+         }
+         Boolean ans = funcs.get(c.fun);
+         return ans!=null && ans;
+      }
+      return false;
+   }
+}
@@ -23,6 +23,7 @@ import java.util.*;
 
 import edu.mit.csail.sdg.alloy4compiler.ast.*;
 import edu.mit.csail.sdg.alloy4compiler.ast.Decl;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
 import kodkod.ast.*;
 import kodkod.ast.RelationPredicate.TotalOrdering;
 import kodkod.ast.operator.ExprOperator;
@@ -42,6 +43,7 @@ import edu.mit.csail.sdg.alloy4.ErrorFatal;
 import edu.mit.csail.sdg.alloy4.ErrorSyntax;
 import edu.mit.csail.sdg.alloy4.ErrorType;
 import edu.mit.csail.sdg.alloy4.Pair;
+import edu.mit.csail.sdg.alloy4.PhaseTimer;
 import edu.mit.csail.sdg.alloy4.Pos;
 import edu.mit.csail.sdg.alloy4.Util;
 import edu.mit.csail.sdg.alloy4compiler.ast.Sig.Field;
@@ -90,6 +92,14 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
     /** The maximum allowed loop unrolling and recursion. */
     private final int unrolls;
 
+    /** Interns the translated nodes, so that structurally equal subtrees are shared. */
+    // [HASLab]
+    private final HashCons hashcons;
+
+    /** If nonnull, decides which expressions are time-invariant (see {@link StaticAnalyzer}). */
+    // [HASLab]
+    private final StaticAnalyzer statics;
+
     /** Construct a translator based on the given list of sigs and the given command.
      * @param rep - if nonnull, it's the reporter that will receive diagnostics and progress reports
      * @param opt - the solving options (must not be null)
@@ -100,14 +110,25 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
         this.unrolls = opt.unrolls;
         this.rep = (rep != null) ? rep : A4Reporter.NOP;
         this.cmd = cmd;
-        Pair<A4Solution, ScopeComputer> pair = ScopeComputer.compute(this.rep, opt, sigs, cmd);
-        this.frame = pair.a;
-        this.bitwidth = pair.a.getBitwidth();
-        this.min = pair.a.min();
-        this.max = pair.a.max();
-        this.a2k = null;
-        this.s2k = null;
-        BoundsComputer.compute(rep, frame, pair.b, sigs);
+        PhaseTimer timer = PhaseTimer.start(PhaseTimer.SCOPE); // [HASLab]
+        final Pair<A4Solution, ScopeComputer> pair;
+        try {
+            pair = ScopeComputer.compute(this.rep, opt, sigs, cmd);
+            this.frame = pair.a;
+            this.bitwidth = pair.a.getBitwidth();
+            this.min = pair.a.min();
+            this.max = pair.a.max();
+            this.a2k = null;
+            this.s2k = null;
+            this.hashcons = new HashCons(opt.solver!=A4Options.SatSolver.MiniSatProverJNI); // [HASLab] keep formulas apart for the unsat core
+            this.statics = new StaticAnalyzer(sigs); // [HASLab]
+            timer = timer.next(this.rep, PhaseTimer.BOUNDS); // [HASLab]
+            BoundsComputer.compute(rep, frame, pair.b, sigs);
+        } finally {
+            timer.stop(this.rep); // [HASLab] even if the scopes or bounds are invalid
+        }
+        // [HASLab] pre-flight estimate, before any translation memory is committed
+        SizeEstimator.check(this.rep, frame, opt, cmd, pair.b.getMaxTraceLength());
     }
 
     /** Construct a translator based on a already-fully-constructed association map.
@@ -127,6 +148,8 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
         this.min = Util.min(bitwidth);
         this.a2k = ConstMap.make(a2k);
         this.s2k = ConstMap.make(s2k);
+        this.hashcons = new HashCons(true); // [HASLab]
+        this.statics = null; // [HASLab]
     }
 
     /** Associate the given formula with the given expression, then return the formula as-is. */
@@ -153,15 +176,27 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
     /** Stores the list of "totalOrder predicates" that we constructed. */
     private final List<Relation> totalOrderPredicates = new ArrayList<Relation>();
 
+    /** If nonnull, the cone of influence outside of which sig facts and field declarations are not translated. */
+    // [HASLab]
+    private Slicer slicer = null;
+
     Expression expression = null;
     /** Conjoin the constraints for "field declarations" and "fact" paragraphs */
     private void makeFacts(Expr facts) throws Err {
         rep.debug("Generating facts...\n");
+        PhaseTimer timer = PhaseTimer.start(PhaseTimer.FACTS); // [HASLab]
+        try { addFacts(facts); } finally { timer.stop(rep); } // [HASLab] even if a fact cannot be translated
+    }
+
+    /** Adds the constraints for "field declarations" and "fact" paragraphs to the frame (see {@link #makeFacts}). */
+    // [HASLab] refactored from makeFacts
+    private void addFacts(Expr facts) throws Err {
         // convert into a form that hopefully gives better unsat core
         facts = (Expr) (new ConvToConjunction()).visitThis(facts);
         // add the field facts and appended facts
 		for (Sig s : frame.getAllReachableSigs()) {
 	         for(Decl d: s.getFieldDecls()) {
+	             if (slicer!=null && !slicer.isRelevant(d) && empty(d)) continue; // [HASLab] outside the cone of influence
 	             k2pos_enabled = false;
 	             for(ExprHasName n: d.names) {
 	                Field f = (Field)n;
@@ -201,6 +236,7 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
 			}
 			k2pos_enabled = true;
 			for (Expr f : s.getFacts()) {
+				if (slicer!=null && !slicer.isRelevant(f)) continue; // [HASLab] outside the cone of influence
 				Expr form = s.isOne == null ? f.forAll(s.decl) : ExprLet.make(null, (ExprVar) (s.decl.get()), s, f);
 				Formula kdorm = cform(form);
 				// [HASLab] avoid always over statics (not only efficiency, total orders would not by detected in SB) 
@@ -210,6 +246,21 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
 		}
 		k2pos_enabled = true;
 		recursiveAddFormula(facts);
+		rep.debug("Hash-consing shared "+hashcons.shared()+" nodes and "+sharedCalls+" calls.\n"); // [HASLab]
+    }
+
+    /** Bounds the fields declared by d to be empty, unless some of them have a non-empty lowerbound; returns whether it succeeded. */
+    // [HASLab]
+    private boolean empty(Decl d) throws Err {
+        for(ExprHasName n: d.names) {
+            Expression r = a2k((Field)n);
+            if (!(r instanceof Relation) || frame.query(false, r, false).size()>0) return false;
+        }
+        for(ExprHasName n: d.names) {
+            Relation r = (Relation) a2k((Field)n);
+            frame.shrink(r, frame.getFactory().noneOf(r.arity()), frame.getFactory().noneOf(r.arity()));
+        }
+        return true;
     }
 
     /** Break up x into conjuncts then add them each as a fact. */
@@ -409,12 +460,38 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
      * and you can call X2.next() to get the next satisfying solution X3... until you get an unsatisfying solution.
      */
     public static A4Solution execute_commandFromBook (A4Reporter rep, Iterable<Sig> sigs, Command cmd, A4Options opt) throws Err {
+        return execute_commandFromBook(rep, sigs, cmd, opt, null); // [HASLab]
+    }
+
+    /** Based on the specified "options", execute one command of the given world and return the resulting A4Solution object.
+     *
+     * <p> Same as execute_commandFromBook(rep, world.getAllReachableSigs(), cmd, opt), except that if opt.slicing is true,
+     * the facts, sig facts and field declarations outside the cone of influence of the command are not translated,
+     * and the fields they declare are bounded to be empty (see {@link Slicer}).
+     *
+     * @param rep - if nonnull, we'll send compilation diagnostic messages to it
+     * @param world - the world that contains the command
+     * @param cmd - the Command to execute
+     * @param opt - the set of options guiding the execution of the command
+     */
+    // [HASLab]
+    public static A4Solution execute_commandFromBook (A4Reporter rep, Module world, Command cmd, A4Options opt) throws Err {
+        if (!opt.slicing || cmd.parent!=null || !cmd.getGrowableSigs().isEmpty()) return execute_commandFromBook(rep, world.getAllReachableSigs(), cmd, opt);
+        Slicer slicer = Slicer.compute(rep, world, cmd);
+        return execute_commandFromBook(rep, world.getAllReachableSigs(), slicer.command, opt, slicer);
+    }
+
+    /** Based on the specified "options", execute one command and return the resulting A4Solution object,
+     * ignoring the constraints outside the cone of influence computed by the given slicer (if nonnull). */
+    // [HASLab]
+    private static A4Solution execute_commandFromBook (A4Reporter rep, Iterable<Sig> sigs, Command cmd, A4Options opt, Slicer slicer) throws Err {
         if (rep==null) rep = A4Reporter.NOP;
         TranslateAlloyToKodkod tr = null;
         A4Solution sol = null;
         try {
        	 	if (cmd.parent!=null || !cmd.getGrowableSigs().isEmpty()) return execute_greedyCommand(rep, sigs, cmd, opt);
     		tr = new TranslateAlloyToKodkod(rep, opt, sigs, cmd);
+    		tr.slicer = slicer; // [HASLab]
     		tr.makeFacts(cmd.formula);
     		sol = tr.frame.solve(rep, cmd, new Simplifier(), true);
         } catch(UnsatisfiedLinkError ex) {
@@ -465,7 +542,7 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
     public Formula cform(Expr x) throws Err {
         if (!x.errors.isEmpty()) throw x.errors.pick();
         Object y=visitThis(x);
-        if (y instanceof Formula) return (Formula)y;
+        if (y instanceof Formula) return hashcons.intern((Formula)y); // [HASLab]
         throw new ErrorFatal(x.span(), "This should have been a formula.\nInstead it is "+y);
     }
 
@@ -475,7 +552,7 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
      */
     public IntExpression cint(Expr x) throws Err {
         if (!x.errors.isEmpty()) throw x.errors.pick();
-        return toInt(x, visitThis(x));
+        return hashcons.intern(toInt(x, visitThis(x))); // [HASLab]
     }
 
     private IntExpression toInt(Expr x, Object y) throws Err, ErrorFatal {
@@ -501,7 +578,7 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
      */
     public Expression cset(Expr x) throws Err {
         if (!x.errors.isEmpty()) throw x.errors.pick();
-        return toSet(x, visitThis(x));
+        return hashcons.intern(toSet(x, visitThis(x))); // [HASLab]
     }
 
     public Expression toSet(Expr x, Object y) throws Err, ErrorFatal {
@@ -580,7 +657,7 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
           case TRUE: return Formula.TRUE;
           case FALSE: return Formula.FALSE;
           case EMPTYNESS: return Expression.NONE;
-          case IDEN: return Expression.IDEN.intersection(a2k(UNIV).product(Expression.UNIV)); // [HASLab] this makes bad decompositions, makes static expressions variable
+          case IDEN: return Expression.IDEN.intersection(a2k(UNIV).product(Expression.UNIV)); // [HASLab] variable if univ is, unless guarded (see guarded())
           case STRING:
             Expression ans = s2k(x.string);
             if (ans==null) throw new ErrorFatal(x.pos, "String literal "+x+" does not exist in this instance.\n");
@@ -621,7 +698,7 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
             case CAST2SIGINT: return cint(x.sub).toExpression();
             case CAST2INT:    return sum(cset(x.sub));
             case RCLOSURE:
-                Expression iden=Expression.IDEN.intersection(a2k(UNIV).product(Relation.UNIV)); // [HASLab] this makes bad decompositions, makes static expressions variable
+                Expression iden=Expression.IDEN.intersection(a2k(UNIV).product(Relation.UNIV)); // [HASLab] variable if univ is, unless guarded (see guarded())
                 return cset(x.sub).closure().union(iden);
             case CLOSURE: return cset(x.sub).closure();
         }
@@ -675,6 +752,16 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
     /** Caches parameter-less functions to a Kodkod Expression, Kodkod IntExpression, or Kodkod Formula. */
     private final Map<Func,Object> cacheForConstants = new IdentityHashMap<Func,Object>();
 
+    /** Caches the translation of each function call, indexed by the function and its (interned) translated arguments;
+     * formula-valued calls are only cached when formulas are interned, so that each call site keeps its own formula otherwise.
+     */
+    // [HASLab]
+    private final Map<List<Object>,Object> cacheForCalls = new HashMap<List<Object>,Object>();
+
+    /** The number of function calls whose translation was reused from cacheForCalls. */
+    // [HASLab]
+    private int sharedCalls = 0;
+
     /** {@inheritDoc} */
     @Override public Object visit(ExprCall x) throws Err {
         final Func f = x.fun;
@@ -700,7 +787,22 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
             maxRecursion--;
         }
         Env<ExprVar,Object> newenv = new Env<ExprVar,Object>();
-        for(int i=0; i<n; i++) newenv.put(f.get(i), cset(x.args.get(i)));
+        // [HASLab] the translation only depends on the arguments, unless the depth of some ongoing recursion matters
+        final List<Object> key = n>0 && (unrolls<0 || current_function.isEmpty()) ? new ArrayList<Object>(n+1) : null;
+        if (key!=null) key.add(f);
+        for(int i=0; i<n; i++) {
+            Expression arg = cset(x.args.get(i));
+            newenv.put(f.get(i), arg);
+            if (key!=null) key.add(arg);
+        }
+        if (key!=null) {
+            Object old = cacheForCalls.get(key);
+            if (old!=null) {
+                sharedCalls++;
+                if (old instanceof Formula) k2pos((Formula)old, x);
+                return old;
+            }
+        }
         Env<ExprVar,Object> oldenv = env;
         env = newenv;
         current_function.add(f);
@@ -709,6 +811,7 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
         current_function.remove(current_function.size()-1);
         if (ans instanceof Formula) k2pos((Formula)ans, x);
         if (f.count()==0) cacheForConstants.put(f, ans);
+        if (key!=null && (hashcons.formulas() || !(ans instanceof Formula))) cacheForCalls.put(key, ans); // [HASLab] formulas from different calls must stay apart unless they are interned
         return ans;
     }
 
@@ -773,6 +876,8 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
     @Override public Object visit(ExprBinary x) throws Err {
         Expr a=x.left, b=x.right;
         Expression s, s2, eL, eR; IntExpression i; Formula f; Object objL, objR;
+        Object g = guarded(x); // [HASLab]
+        if (g!=null) return g instanceof Formula ? k2pos((Formula)g, x) : g;
         switch(x.op) {
             case IMPLIES: f=cform(a).implies(cform(b)); return k2pos(f,x);      // [HASLab] changed from !a || b (why?)
             case IN:       return k2pos(isIn(cset(a), b), x);
@@ -870,6 +975,55 @@ public final class TranslateAlloyToKodkod extends VisitReturn<Object> {
         throw new ErrorFatal(x.pos, "Unsupported operator ("+x.op+") encountered during ExprBinary.accept()");
     }
 
+    /** If univ is variable but x is static, translates x without restricting "iden", "*r" or "univ" to univ where they are
+     * guarded by the other operand, so that the result remains static; this is sound since the atoms of any Alloy expression
+     * are always in univ. Returns null if this does not apply to x.
+     */
+    // [HASLab]
+    private Object guarded(ExprBinary x) throws Err {
+        if (statics==null || !statics.isUnivVariable() || !statics.isStatic(x)) return null;
+        Expr a = x.left.deNOP(), b = x.right.deNOP();
+        switch(x.op) {
+            case JOIN:
+                if (StaticAnalyzer.isIden(b)) return cset(a); // x.iden = x
+                if (StaticAnalyzer.isIden(a)) return cset(b); // iden.x = x
+                if (StaticAnalyzer.isRClosure(b)) { Expression s = cset(a); return s.join(rclosure(b)).union(s); }
+                if (StaticAnalyzer.isRClosure(a)) { Expression s = cset(b); return rclosure(a).join(s).union(s); }
+                if (b==UNIV) return cset(a).join(Expression.UNIV);
+                if (a==UNIV) return Expression.UNIV.join(cset(b));
+                return null;
+            case INTERSECT:
+                if (StaticAnalyzer.isIden(b) || StaticAnalyzer.isRClosure(b) || b==UNIV) { Expr t = a; a = b; b = t; }
+                if (StaticAnalyzer.isIden(a)) return cset(b).intersection(Expression.IDEN);
+                if (StaticAnalyzer.isRClosure(a)) return cset(b).intersection(rclosure(a).union(Expression.IDEN));
+                if (a==UNIV) return cset(b);
+                return null;
+            case MINUS:
+                if (StaticAnalyzer.isIden(b)) return cset(a).difference(Expression.IDEN);
+                if (StaticAnalyzer.isRClosure(b)) return cset(a).difference(rclosure(b).union(Expression.IDEN));
+                return null;
+            case IN: case NOT_IN:
+                Formula f = null;
+                if (StaticAnalyzer.isIden(b)) f = cset(a).in(Expression.IDEN);
+                else if (StaticAnalyzer.isRClosure(b)) f = cset(a).in(rclosure(b).union(Expression.IDEN));
+                return f==null || x.op==ExprBinary.Op.IN ? f : f.not();
+            case DOMAIN:
+                if (StaticAnalyzer.isIden(b)) return cset(a).product(Expression.UNIV).intersection(Expression.IDEN);
+                return null;
+            case RANGE:
+                if (StaticAnalyzer.isIden(a)) return Expression.UNIV.product(cset(b)).intersection(Expression.IDEN);
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /** Returns the transitive closure of the relation under the given "*r" expression. */
+    // [HASLab]
+    private Expression rclosure(Expr x) throws Err {
+        return cset(((ExprUnary)(x.deNOP())).sub).closure();
+    }
+
     /** Helper method that translates the formula "a in b" into a Kodkod formula. */
     private Formula isIn(Expression a, Expr right) throws Err {
        Expression b;
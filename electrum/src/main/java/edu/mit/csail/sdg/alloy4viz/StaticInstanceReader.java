@@ -16,8 +16,11 @@
 
 package edu.mit.csail.sdg.alloy4viz;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -27,6 +30,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import edu.mit.csail.sdg.alloy4.Err;
 import edu.mit.csail.sdg.alloy4.ErrorFatal;
 import edu.mit.csail.sdg.alloy4.ErrorSyntax;
@@ -224,11 +232,43 @@ public final class StaticInstanceReader {
    /** Parse the file into an AlloyInstance if possible. */
    // [HASLab] particular state
    private StaticInstanceReader(XMLNode root, int state) throws Err {
+      this(isMeta(root), A4SolutionReader.read(new ArrayList<Sig>(), root), state);
+   }
+
+   /** Returns whether the first instance in the XML tree is a metamodel. */
+   // [HASLab]
+   private static boolean isMeta(XMLNode root) throws Err {
       XMLNode inst = null;
       for(XMLNode sub: root) if (sub.is("instance")) { inst=sub; break; }
       if (inst==null) throw new ErrorSyntax("The XML file must contain an <instance> element.");
-      boolean isMeta = "yes".equals(inst.getAttribute("metamodel"));
-      A4Solution sol = A4SolutionReader.read(new ArrayList<Sig>(), root);
+      return "yes".equals(inst.getAttribute("metamodel"));
+   }
+
+   /** Returns whether the first instance in the XML file is a metamodel, streaming the file only up to that instance. */
+   // [HASLab]
+   private static boolean isMeta(File file) throws Err, IOException {
+      InputStream in = new BufferedInputStream(new FileInputStream(file));
+      XMLStreamReader xml = null;
+      try {
+         XMLInputFactory factory = XMLInputFactory.newInstance();
+         factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+         factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+         xml = factory.createXMLStreamReader(in);
+         while(xml.hasNext())
+            if (xml.next()==XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("instance"))
+               return "yes".equals(xml.getAttributeValue(null, "metamodel"));
+      } catch(XMLStreamException ex) {
+         return isMeta(new XMLNode(file)); // the XMLNode parser is more lenient
+      } finally {
+         if (xml!=null) try { xml.close(); } catch(XMLStreamException ex) { }
+         Util.close(in);
+      }
+      throw new ErrorSyntax("The XML file must contain an <instance> element.");
+   }
+
+   /** Build the AlloyInstance for the given state of a solution. */
+   // [HASLab] particular state
+   private StaticInstanceReader(boolean isMeta, A4Solution sol, int state) throws Err {
       for (Sig s:sol.getAllReachableSigs()) if (s instanceof PrimSig && ((PrimSig)s).parent==Sig.UNIV) toplevels.add((PrimSig)s);
       if (!isMeta) {
          sig2type.put(Sig.UNIV, AlloyType.UNIV);
@@ -299,11 +339,24 @@ public final class StaticInstanceReader {
       ans=new AlloyInstance(sol, sol.getOriginalFilename(), sol.getOriginalCommand(), am, atom2sets, rels, isMeta);
    }
 
-   /** Parse the file into an AlloyInstance if possible. */
+   /** Parse the given state of the file into an AlloyInstance if possible.
+    * <p> Only the states up to the given one are read, so the solution of the instance holds no later state
+    * (and its back loop is moved back to the given state if needed); use {@link #parseTrace} to navigate the trace.
+    */
    // [HASLab]
    public static AlloyInstance parseInstance(File file, int state) throws Err {
       try {
-         return (new StaticInstanceReader(new XMLNode(file), state)).ans; // [HASLab]
+         return (new StaticInstanceReader(isMeta(file), A4SolutionReader.read(new ArrayList<Sig>(), file, state+1), state)).ans; // [HASLab] streamed
+      } catch(IOException ex) {
+         throw new ErrorFatal("Error reading the XML file: " + ex, ex);
+      }
+   }
+
+   /** Parse the given state of the file into an AlloyInstance if possible, whose solution holds the whole trace. */
+   // [HASLab]
+   public static AlloyInstance parseTrace(File file, int state) throws Err {
+      try {
+         return (new StaticInstanceReader(isMeta(file), A4SolutionReader.read(new ArrayList<Sig>(), file), state)).ans; // [HASLab] streamed
       } catch(IOException ex) {
          throw new ErrorFatal("Error reading the XML file: " + ex, ex);
       }
@@ -692,7 +692,7 @@ public final class VizGUI implements ComponentListener {
 	         AlloyInstance myInstance;
 	         try {
 	            if (!f.exists()) throw new IOException("File " + xmlFileName + " does not exist.");
-	            myInstance = StaticInstanceReader.parseInstance(f,state); // [HASLab] state
+	            myInstance = StaticInstanceReader.parseTrace(f,state); // [HASLab] state, the whole trace is needed to navigate and evaluate it
 	         } catch (Throwable e) {
 	            xmlLoaded.remove(fileName);
 	            xmlLoaded.remove(xmlFileName);
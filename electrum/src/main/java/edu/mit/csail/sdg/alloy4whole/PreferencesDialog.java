@@ -11,6 +11,8 @@ import static edu.mit.csail.sdg.alloy4.A4Preferences.DecomposedPref;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.LAF;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.NoOverflow;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.RecordKodkod;
+import static edu.mit.csail.sdg.alloy4.A4Preferences.CostProfiling;
+import static edu.mit.csail.sdg.alloy4.A4Preferences.LazyCore;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.Unbounded;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.SkolemDepth;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.Solver;
@@ -311,12 +313,15 @@ public class PreferencesDialog extends JFrame {
       addToGrid(p, mkCheckBox(NoOverflow),           gbc().pos(0, r++).gridwidth(2));
       addToGrid(p, mkCheckBox(ImplicitThis),         gbc().pos(0, r++).gridwidth(2));
       addToGrid(p, mkCheckBox(RecordKodkod),         gbc().pos(0, r++).gridwidth(2));
+      addToGrid(p, mkCheckBox(CostProfiling),        gbc().pos(0, r++).gridwidth(2)); // [HASLab]
+      addToGrid(p, mkCheckBox(LazyCore),             gbc().pos(0, r++).gridwidth(2)); // [HASLab]
 
       Solver.addChangeListener(new ChangeListener() {
          public void stateChanged(ChangeEvent e) {
             boolean enableCore = Solver.get() == SatSolver.MiniSatProverJNI;
             pref2comp.get(CoreGranularity).setEnabled(enableCore);
             pref2comp.get(CoreMinimization).setEnabled(enableCore);
+            pref2comp.get(LazyCore).setEnabled(enableCore); // [HASLab]
          }
       });
 
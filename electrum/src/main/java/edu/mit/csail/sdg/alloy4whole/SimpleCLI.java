@@ -16,13 +16,19 @@
 package edu.mit.csail.sdg.alloy4whole;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -38,6 +44,8 @@ import org.slf4j.LoggerFactory;
 import edu.mit.csail.sdg.alloy4.A4Reporter;
 import edu.mit.csail.sdg.alloy4.Err;
 import edu.mit.csail.sdg.alloy4.ErrorWarning;
+import edu.mit.csail.sdg.alloy4.PhaseTimer;
+import edu.mit.csail.sdg.alloy4.Pos;
 import edu.mit.csail.sdg.alloy4.Util;
 import edu.mit.csail.sdg.alloy4compiler.ast.Command;
 import edu.mit.csail.sdg.alloy4compiler.ast.Func;
@@ -64,6 +72,14 @@ public final class SimpleCLI {
         private long total_time;
         private String filename;
         private A4Solution solution;
+        // [HASLab] metrics of the file (parse, resolve) and of the current command
+        private final Map<String,long[]> file_metrics = new LinkedHashMap<String,long[]>();
+        private final Map<String,long[]> cmd_metrics = new LinkedHashMap<String,long[]>();
+        private Map<String,long[]> metrics = file_metrics;
+        private int primary_vars, total_vars, clauses;
+        // [HASLab] whether the current command reported a result, and the length of its trace
+        private boolean reported;
+        private int trace_length;
         
         public SimpleReporter() throws IOException { }
 
@@ -76,7 +92,32 @@ public final class SimpleCLI {
 
         @Override public void typecheck(String msg) { debug(msg); }
 
-        public void cmd_index(int i) { cmd_index = i; }
+        public void cmd_index(int i) {
+        	cmd_index = i;
+        	cmd_metrics.clear();
+        	metrics = cmd_metrics;
+        	primary_vars = total_vars = clauses = 0;
+        	reported = false;
+        	trace_length = 0;
+        }
+
+        /** Resets the metrics before parsing a new file. */
+        // [HASLab]
+        public void file_index() {
+        	file_metrics.clear();
+        	metrics = file_metrics;
+        }
+
+        /** Returns the total wall-clock time of the given phases of the current command, in milliseconds. */
+        // [HASLab]
+        public long phase_time(String... phases) {
+        	long ans = 0;
+        	for(String p: phases) {
+        		long[] m = cmd_metrics.get(p);
+        		if (m!=null) ans += m[0];
+        	}
+        	return ans / 1000000;
+        }
         
         public void info(String msg) { LOGGER.info(msg); }
 
@@ -92,6 +133,26 @@ public final class SimpleCLI {
 
         @Override public void solve(int primaryVars, int totalVars, int clauses) {
             debug(totalVars+" vars. "+primaryVars+" primary vars. "+clauses+" clauses.\n");
+            this.primary_vars = primaryVars;
+            this.total_vars = totalVars;
+            this.clauses = clauses;
+        }
+
+        // [HASLab]
+        @Override public void cost(String label, Pos pos, long gates, long vars, long clauses) {
+        	info("   "+label+(pos==Pos.UNKNOWN ? "" : " ("+pos.toShortString()+")")+": "+gates+" gates, "+vars+" vars, "+clauses+" clauses.\n");
+        }
+
+        // [HASLab] accumulates the metrics of each phase, since greedy commands go through some phases more than once
+        @Override public void phase(String phase, long wallTime, long cpuTime, long allocated) {
+        	debug("Phase "+phase+": "+(wallTime/1000000)+"ms.\n");
+        	long[] m = metrics.get(phase);
+        	if (m==null) metrics.put(phase, new long[]{wallTime, cpuTime, allocated});
+        	else {
+        		m[0] += wallTime;
+        		m[1] = (m[1]<0 || cpuTime<0) ? -1 : m[1]+cpuTime;
+        		m[2] = (m[2]<0 || allocated<0) ? -1 : m[2]+allocated;
+        	}
         }
 
         @Override public void resultCNF(String filename) {}
@@ -107,6 +168,8 @@ public final class SimpleCLI {
             overall = cmd.overall;
             filename = ((A4Solution) solution).getOriginalFilename();
             this.solution = (A4Solution) solution;
+            reported = true; // [HASLab]
+            trace_length = this.solution.getTraceLength(); // [HASLab]
             StringBuilder sb = new StringBuilder();
             sb.append(cmd.check ? "   Counterexample found. " : "   Instance found. ");
             if (cmd.check) sb.append("Assertion is invalid"); else sb.append("Predicate is consistent");
@@ -114,6 +177,7 @@ public final class SimpleCLI {
             sb.append(". "+solvingTime+"ms.\n\n");
             info(sb.toString());
             info(outcome());
+            metrics();
         }
 
         @Override public void resultUNSAT(Object command, long solvingTime, Object solution) {
@@ -127,6 +191,7 @@ public final class SimpleCLI {
             overall = cmd.overall;
             filename = ((A4Solution) solution).getOriginalFilename();
             this.solution = null;
+            reported = true; // [HASLab]
             StringBuilder sb = new StringBuilder();
             sb.append(cmd.check ? "   No counterexample found." : "   No instance found.");
             if (cmd.check) sb.append(" Assertion may be valid"); else sb.append(" Predicate may be inconsistent");
@@ -134,8 +199,47 @@ public final class SimpleCLI {
             sb.append(". "+solvingTime+"ms.\n\n");
             info(sb.toString());
             info(outcome());
+            metrics();
         }
-        
+
+        /** If requested, appends the metrics of the current command as a JSON line to the metrics file. */
+        // [HASLab]
+        private void metrics() {
+        	if (!clargs.hasOption("metrics")) return;
+        	StringBuilder sb = new StringBuilder("{");
+        	sb.append("\"file\":"+json(filename)+",");
+        	sb.append("\"index\":"+cmd_index+",");
+        	sb.append("\"cmd\":"+json(cmd_type?"check":"run")+",");
+        	sb.append("\"label\":"+json(cmd_name)+",");
+        	sb.append("\"engine\":"+json(options.solver.toString())+",");
+        	sb.append("\"outcome\":"+json(outcome?"SAT":"UNSAT")+",");
+        	sb.append("\"as_expected\":"+expected+",");
+        	sb.append("\"ms\":"+total_time+",");
+        	sb.append("\"primary_vars\":"+primary_vars+",");
+        	sb.append("\"vars\":"+total_vars+",");
+        	sb.append("\"clauses\":"+clauses+",");
+        	sb.append("\"phases\":{");
+        	Map<String,long[]> all = new LinkedHashMap<String,long[]>(file_metrics);
+        	all.putAll(cmd_metrics);
+        	boolean first = true;
+        	for(Map.Entry<String,long[]> e: all.entrySet()) {
+        		if (!first) sb.append(",");
+        		first = false;
+        		long[] m = e.getValue();
+        		sb.append(json(e.getKey())+":{\"wall_ns\":"+m[0]+",\"cpu_ns\":"+m[1]+",\"alloc_bytes\":"+m[2]+"}");
+        	}
+        	sb.append("}}\n");
+        	FileWriter wr = null;
+        	try {
+        		wr = new FileWriter(clargs.getOptionValue("metrics"), true);
+        		wr.write(sb.toString());
+        	} catch (IOException e) {
+        		LOGGER.warn("Could not write metrics: "+e.getMessage());
+        	} finally {
+        		Util.close(wr);
+        	}
+        }
+
         private String outcome() {
     		StringBuilder sb = new StringBuilder("OUTCOME (");
     		sb.append("(file "+filename+") ");
@@ -163,6 +267,243 @@ public final class SimpleCLI {
 
     private SimpleCLI() { }
 
+    /** Quotes and escapes a string as a JSON string literal. */
+    // [HASLab]
+    private static String json(String str) {
+    	if (str==null) return "null";
+    	StringBuilder sb = new StringBuilder("\"");
+    	for(int i=0; i<str.length(); i++) {
+    		char c = str.charAt(i);
+    		if (c=='"' || c=='\\') sb.append('\\').append(c);
+    		else if (c=='\n') sb.append("\\n");
+    		else if (c=='\r') sb.append("\\r");
+    		else if (c=='\t') sb.append("\\t");
+    		else if (c<32) sb.append(String.format("\\u%04x", (int)c));
+    		else sb.append(c);
+    	}
+    	return sb.append('"').toString();
+    }
+
+    /** Quotes a string as a CSV field, if needed. */
+    // [HASLab]
+    private static String csv(String str) {
+    	if (str==null) return "";
+    	if (str.indexOf(',')<0 && str.indexOf('"')<0 && str.indexOf('\n')<0) return str;
+    	return "\""+str.replace("\"", "\"\"")+"\"";
+    }
+
+    /** The result of a command executed in batch mode. */
+    // [HASLab]
+    private static final class BatchRow {
+    	private static final String HEADER = "file,index,label,cmd,expects,outcome,as_expected,translate_ms,solve_ms,total_ms,primary_vars,vars,clauses,trace_length";
+    	private final String file;
+    	private final int index;
+    	private final String label;
+    	private final boolean check;
+    	private final int expects;
+    	private String outcome = "NONE";
+    	private long translate_ms, solve_ms, total_ms;
+    	private int primary_vars, vars, clauses, trace_length;
+
+    	private BatchRow(String file, int index, String label, boolean check, int expects) {
+    		this.file = file;
+    		this.index = index;
+    		this.label = label;
+    		this.check = check;
+    		this.expects = expects;
+    	}
+
+    	/** Records the metrics of the command that was just executed. */
+    	private void record(SimpleReporter rep) {
+    		if (rep.reported) outcome = rep.outcome ? "SAT" : "UNSAT";
+    		total_ms = rep.reported ? rep.total_time : System.currentTimeMillis() - start_time;
+    		translate_ms = rep.phase_time(PhaseTimer.SCOPE, PhaseTimer.BOUNDS, PhaseTimer.FACTS, PhaseTimer.SIMPLIFY, PhaseTimer.TRANSLATE);
+    		solve_ms = rep.phase_time(PhaseTimer.SAT);
+    		primary_vars = rep.primary_vars;
+    		vars = rep.total_vars;
+    		clauses = rep.clauses;
+    		trace_length = rep.trace_length;
+    	}
+
+    	/** False if the command failed, or if its outcome contradicts its expectation. */
+    	private boolean as_expected() {
+    		if (outcome.equals("ERROR")) return false;
+    		if (expects<0 || outcome.equals("NONE")) return true;
+    		return outcome.equals(expects==1 ? "SAT" : "UNSAT");
+    	}
+
+    	/** The key used to match this command against the baseline. */
+    	private String key() { return file+"#"+index; }
+
+    	private String toCSV() {
+    		return csv(file)+","+index+","+csv(label)+","+(check?"check":"run")+","+expects+","+outcome+","+as_expected()+","
+    				+translate_ms+","+solve_ms+","+total_ms+","+primary_vars+","+vars+","+clauses+","+trace_length;
+    	}
+
+    	private String toJSON() {
+    		return "{\"file\":"+json(file)+",\"index\":"+index+",\"label\":"+json(label)+",\"cmd\":"+json(check?"check":"run")
+    				+",\"expects\":"+expects+",\"outcome\":"+json(outcome)+",\"as_expected\":"+as_expected()
+    				+",\"translate_ms\":"+translate_ms+",\"solve_ms\":"+solve_ms+",\"total_ms\":"+total_ms
+    				+",\"primary_vars\":"+primary_vars+",\"vars\":"+vars+",\"clauses\":"+clauses+",\"trace_length\":"+trace_length+"}";
+    	}
+    }
+
+    /** Returns the message of the given error, reported when a model or command fails in batch mode. */
+    // [HASLab]
+    private static String message(Throwable ex) {
+    	return ex instanceof Err ? ((Err)ex).msg : ex.toString();
+    }
+
+    /** Commands whose baseline time is below this many milliseconds are not checked for regressions, since their timing is mostly noise. */
+    // [HASLab]
+    private static final long BATCH_MIN_MS = 100;
+
+    /** Runs every command of every model under the given directory, writes the report and compares it against the baseline (if requested).
+     * @return 0 if every command ran as expected and no command slowed down beyond the threshold; 1 otherwise
+     */
+    // [HASLab]
+    private static int batch(SimpleReporter rep, File dir) throws IOException {
+    	List<File> files = new ArrayList<File>();
+    	collect(dir, files);
+    	String root = Util.canon(dir.getPath());
+    	List<BatchRow> rows = new ArrayList<BatchRow>();
+    	int failures = 0;
+    	for(File f: files) {
+    		String filename = Util.canon(f.getPath());
+    		String name = filename.startsWith(root) ? filename.substring(root.length()+1) : filename;
+    		rep.file_index();
+    		rep.info("Parsing " + filename + ".\n");
+    		Module world;
+    		try {
+    			world = CompUtil.parseEverything_fromFile(rep, null, filename);
+    		} catch (Throwable ex) { // a model that crashes the analyzer must not stop the batch
+    			rep.info("An error occurred: " + message(ex) + "\n");
+    			rep.debug("\n\nException: " + ex);
+    			BatchRow row = new BatchRow(name, -1, null, false, -1);
+    			row.outcome = "ERROR";
+    			rows.add(row);
+    			failures++;
+    			continue;
+    		}
+    		setupOptions(filename);
+    		List<Command> cmds = world.getAllCommands();
+    		for(int i = 0; i < cmds.size(); i++) {
+    			Command c = cmds.get(i);
+    			BatchRow row = new BatchRow(name, i, c.label, c.check, c.expects);
+    			rep.cmd_index(i);
+    			rep.info("Executing \"" + c + "\"\n");
+    			options.skolemDepth = 2;
+    			start_time = System.currentTimeMillis();
+    			try {
+    				TranslateAlloyToKodkod.execute_commandFromBook(rep, world, c, options); // [HASLab] world, for slicing
+    				row.record(rep);
+    			} catch (Throwable ex) {
+    				rep.info("An error occurred: " + message(ex) + "\n");
+    				rep.debug("\n\nException: " + ex);
+    				row.outcome = "ERROR";
+    			}
+    			if (!row.as_expected()) {
+    				rep.LOGGER.warn("Unexpected outcome for " + name + " command " + i + " (" + c.label + "): " + row.outcome);
+    				failures++;
+    			}
+    			rows.add(row);
+    		}
+    	}
+    	if (clargs.hasOption("report")) {
+    		String out = clargs.getOptionValue("report");
+    		boolean isJSON = out.toLowerCase(Locale.US).endsWith(".json");
+    		StringBuilder sb = new StringBuilder();
+    		if (!isJSON) sb.append(BatchRow.HEADER).append('\n');
+    		for(BatchRow row: rows) sb.append(isJSON ? row.toJSON() : row.toCSV()).append('\n');
+    		try { Util.writeAll(out, sb.toString()); } catch (Err ex) { rep.LOGGER.warn("Could not write report: " + ex.msg); }
+    	}
+    	int regressions = 0;
+    	if (clargs.hasOption("baseline")) {
+    		double threshold = clargs.hasOption("threshold") ? Double.parseDouble(clargs.getOptionValue("threshold")) : 20;
+    		Map<String,Long> baseline = readBaseline(clargs.getOptionValue("baseline"));
+    		for(BatchRow row: rows) {
+    			Long old = baseline.get(row.key());
+    			if (old==null || old < BATCH_MIN_MS || row.outcome.equals("ERROR")) continue;
+    			if (row.total_ms > old * (1 + threshold/100)) {
+    				rep.LOGGER.warn("Regression in " + row.file + " command " + row.index + " (" + row.label + "): " + old + "ms -> " + row.total_ms + "ms");
+    				regressions++;
+    			}
+    		}
+    	}
+    	rep.info("Batch finished: " + rows.size() + " commands, " + failures + " unexpected outcomes, " + regressions + " regressions.\n");
+    	return failures>0 || regressions>0 ? 1 : 0;
+    }
+
+    /** Collects every Alloy or Electrum model under the given file, in a deterministic order. */
+    // [HASLab]
+    private static void collect(File f, List<File> files) {
+    	if (f.isDirectory()) {
+    		File[] children = f.listFiles();
+    		if (children==null) return;
+    		Arrays.sort(children);
+    		for(File c: children) collect(c, files);
+    	} else {
+    		String name = f.getName().toLowerCase(Locale.US);
+    		if (name.endsWith(".als") || name.endsWith(".ele")) files.add(f);
+    	}
+    }
+
+    /** Reads the total time of each command from a previous batch report (either CSV or JSON lines). */
+    // [HASLab]
+    private static Map<String,Long> readBaseline(String filename) throws IOException {
+    	Map<String,Long> ans = new HashMap<String,Long>();
+    	List<String> header = null;
+    	for(String line: Util.readAll(filename).split("\n")) {
+    		line = line.trim();
+    		if (line.length()==0) continue;
+    		Map<String,String> row = new HashMap<String,String>();
+    		if (line.startsWith("{")) {
+    			Matcher m = JSON_FIELD.matcher(line);
+    			while(m.find()) {
+    				String v = m.group(2).trim();
+    				if (v.startsWith("\"")) v = v.substring(1, v.length()-1).replace("\\\"", "\"").replace("\\\\", "\\");
+    				row.put(m.group(1), v);
+    			}
+    		} else if (header==null) {
+    			header = splitCSV(line);
+    			continue;
+    		} else {
+    			List<String> fields = splitCSV(line);
+    			for(int i = 0; i < fields.size() && i < header.size(); i++) row.put(header.get(i), fields.get(i));
+    		}
+    		try {
+    			ans.put(row.get("file")+"#"+row.get("index"), Long.parseLong(row.get("total_ms")));
+    		} catch (NumberFormatException ex) {
+    			// skip malformed entries
+    		}
+    	}
+    	return ans;
+    }
+
+    /** Matches a field of a flat JSON object. */
+    // [HASLab]
+    private static final Pattern JSON_FIELD = Pattern.compile("\"(\\w+)\":(\"(?:[^\"\\\\]|\\\\.)*\"|[^,}]*)");
+
+    /** Splits a CSV line into its fields. */
+    // [HASLab]
+    private static List<String> splitCSV(String line) {
+    	List<String> ans = new ArrayList<String>();
+    	StringBuilder sb = new StringBuilder();
+    	boolean quoted = false;
+    	for(int i = 0; i < line.length(); i++) {
+    		char c = line.charAt(i);
+    		if (quoted) {
+    			if (c=='"' && i+1<line.length() && line.charAt(i+1)=='"') { sb.append('"'); i++; }
+    			else if (c=='"') quoted = false;
+    			else sb.append(c);
+    		} else if (c=='"') quoted = true;
+    		else if (c==',') { ans.add(sb.toString()); sb.setLength(0); }
+    		else sb.append(c);
+    	}
+    	ans.add(sb.toString());
+    	return ans;
+    }
+
     private static Options options() {
     		Options options = new Options();
 
@@ -200,6 +541,117 @@ public final class SimpleCLI {
     				.required(false)
     				.desc("additional solver-specific options").build());
 
+       		options.addOption(Option.builder("mt") // [HASLab]
+    				.longOpt("metrics")
+    				.hasArg(true)
+    				.argName("file")
+    				.required(false)
+    				.desc("append per-phase metrics of each command as JSON lines to file").build());
+
+       		options.addOption(Option.builder("p") // [HASLab]
+    				.longOpt("profile")
+    				.hasArg(false)
+    				.required(false)
+    				.desc("report the CNF size of each fact, predicate and assertion").build());
+
+       		options.addOption(Option.builder("b") // [HASLab]
+    				.longOpt("batch")
+    				.hasArg(false)
+    				.required(false)
+    				.desc("run every command of every model under the directory FILE").build());
+
+       		options.addOption(Option.builder("r") // [HASLab]
+    				.longOpt("report")
+    				.hasArg(true)
+    				.argName("file")
+    				.required(false)
+    				.desc("write the batch report to file (JSON lines if it ends in .json, CSV otherwise)").build());
+
+       		options.addOption(Option.builder("bl") // [HASLab]
+    				.longOpt("baseline")
+    				.hasArg(true)
+    				.argName("file")
+    				.required(false)
+    				.desc("compare the batch run against a previous report").build());
+
+       		options.addOption(Option.builder("t") // [HASLab]
+    				.longOpt("threshold")
+    				.hasArg(true)
+    				.argName("percent")
+    				.required(false)
+    				.desc("maximum slowdown over the baseline before failing (default 20)").build());
+
+       		options.addOption(Option.builder("mv") // [HASLab]
+    				.longOpt("max-vars")
+    				.hasArg(true)
+    				.argName("n")
+    				.required(false)
+    				.desc("warn if a command is estimated to need more than n primary variables").build());
+
+       		options.addOption(Option.builder("mc") // [HASLab]
+    				.longOpt("max-clauses")
+    				.hasArg(true)
+    				.argName("n")
+    				.required(false)
+    				.desc("warn if a command is estimated to need more than n clauses").build());
+
+       		options.addOption(Option.builder("rf") // [HASLab]
+    				.longOpt("refuse")
+    				.hasArg(false)
+    				.required(false)
+    				.desc("refuse, instead of warn about, commands over the size budgets").build());
+
+       		options.addOption(Option.builder("dt") // [HASLab]
+    				.longOpt("delta")
+    				.hasArg(false)
+    				.required(false)
+    				.desc("write each state of output traces as a delta of the previous one").build());
+
+       		options.addOption(Option.builder("sl") // [HASLab]
+    				.longOpt("slice")
+    				.hasArg(false)
+    				.required(false)
+    				.desc("slice away the facts and fields outside the cone of influence of each command").build());
+
+       		options.addOption(Option.builder("ib") // [HASLab]
+    				.longOpt("infer-bitwidth")
+    				.hasArg(false)
+    				.required(false)
+    				.desc("use the smallest bitwidth that represents the integer expressions of commands without one").build());
+
+       		options.addOption(Option.builder("is") // [HASLab]
+    				.longOpt("infer-seq")
+    				.hasArg(false)
+    				.required(false)
+    				.desc("infer the maximum sequence length of commands from their constraints").build());
+
+       		options.addOption(Option.builder("lc") // [HASLab]
+    				.longOpt("lazy-core")
+    				.hasArg(false)
+    				.required(false)
+    				.desc("with the MiniSat prover, only compute unsat cores when requested").build());
+
+       		options.addOption(Option.builder("ct") // [HASLab]
+    				.longOpt("core-threads")
+    				.hasArg(true)
+    				.argName("n")
+    				.required(false)
+    				.desc("with the MiniSat prover, minimize unsat cores with n solvers in parallel").build());
+
+       		options.addOption(Option.builder("cb") // [HASLab]
+    				.longOpt("core-budget")
+    				.hasArg(true)
+    				.argName("s")
+    				.required(false)
+    				.desc("stop the parallel unsat core minimization after s seconds").build());
+
+       		options.addOption(Option.builder("cc") // [HASLab]
+    				.longOpt("cubes")
+    				.hasArg(true)
+    				.argName("n")
+    				.required(false)
+    				.desc("solve check commands by cube-and-conquer with n threads").build());
+
     		OptionGroup g = new OptionGroup();
     		g.addOption(Option.builder("x").longOpt("nuXmv").hasArg(false).desc("select nuXmv unbounded solver").build());
     		g.addOption(Option.builder("m").longOpt("miniSAT").hasArg(false).desc("select miniSAT bounded solver").build());
@@ -237,28 +689,13 @@ public final class SimpleCLI {
 	        
 			final SimpleReporter rep = new SimpleReporter();
 			String filename = args[args.length - 1];
+			if (clargs.hasOption("batch")) // [HASLab]
+				System.exit(batch(rep, new File(filename)));
 			try {
 				rep.info("Parsing " + filename + ".\n");
 				Module world = CompUtil.parseEverything_fromFile(rep, null, filename);
 				List<Command> cmds = world.getAllCommands();
-				options = new A4Options();
-				options.originalFilename = filename;
-				options.solver = A4Options.SatSolver.MiniSatJNI;
-				if (clargs.hasOption("SAT4J"))
-					options.solver = A4Options.SatSolver.SAT4J;
-				else if (clargs.hasOption("glucose"))
-					options.solver = A4Options.SatSolver.GlucoseJNI;
-				else if (clargs.hasOption("NuSMV"))
-					options.solver = A4Options.SatSolver.electrodS(clargs.hasOption("so")?clargs.getOptionValue("so").split(","):new String[0]);
-				else if (clargs.hasOption("nuXmv"))
-					options.solver = A4Options.SatSolver.electrodX(clargs.hasOption("so")?clargs.getOptionValue("so").split(","):new String[0]);
-	
-				if (clargs.hasOption("decomposed"))
-					options.decomposed_mode = 1;
-					if (clargs.getOptionValue("decomposed") != null)
-						options.decomposed_threads = Integer.valueOf(clargs.getOptionValue("decomposed"));
-				else
-					options.decomposed_mode = 0;
+				setupOptions(filename); // [HASLab] refactored
 				int i0=0, i1=cmds.size();
 				if (clargs.hasOption("command")) {
 					i0 = Integer.valueOf(clargs.getOptionValue("command"));
@@ -272,7 +709,7 @@ public final class SimpleCLI {
 					rep.info("Executing \"" + c + "\"\n");
 					options.skolemDepth = 2;
 					start_time = System.currentTimeMillis();
-					TranslateAlloyToKodkod.execute_commandFromBook(rep, world.getAllReachableSigs(), c, options);
+					TranslateAlloyToKodkod.execute_commandFromBook(rep, world, c, options); // [HASLab] world, for slicing
 				}
 				rep.info("Shutting down.");
 				System.exit(0);
@@ -283,6 +720,41 @@ public final class SimpleCLI {
     		}
 	}
     
+    /** Sets up the solving options for the given file according to the command-line arguments. */
+    // [HASLab]
+    private static void setupOptions(String filename) {
+		options = new A4Options();
+		options.originalFilename = filename;
+		options.costProfiling = clargs.hasOption("profile"); // [HASLab]
+		if (clargs.hasOption("max-vars")) options.primaryVarsBudget = Long.parseLong(clargs.getOptionValue("max-vars")); // [HASLab]
+		if (clargs.hasOption("max-clauses")) options.clausesBudget = Long.parseLong(clargs.getOptionValue("max-clauses")); // [HASLab]
+		options.refuseOverBudget = clargs.hasOption("refuse"); // [HASLab]
+		options.deltaTraces = clargs.hasOption("delta"); // [HASLab]
+		options.slicing = clargs.hasOption("slice"); // [HASLab]
+		options.inferBitwidth = clargs.hasOption("infer-bitwidth"); // [HASLab]
+		options.inferSeq = clargs.hasOption("infer-seq"); // [HASLab]
+		options.lazyCore = clargs.hasOption("lazy-core"); // [HASLab]
+		if (clargs.hasOption("core-threads")) options.coreThreads = Integer.parseInt(clargs.getOptionValue("core-threads")); // [HASLab]
+		if (clargs.hasOption("core-budget")) options.coreBudget = Integer.parseInt(clargs.getOptionValue("core-budget")); // [HASLab]
+		if (clargs.hasOption("cubes")) options.cubeThreads = Integer.parseInt(clargs.getOptionValue("cubes")); // [HASLab]
+		options.solver = A4Options.SatSolver.MiniSatJNI;
+		if (clargs.hasOption("SAT4J"))
+			options.solver = A4Options.SatSolver.SAT4J;
+		else if (clargs.hasOption("glucose"))
+			options.solver = A4Options.SatSolver.GlucoseJNI;
+		else if (clargs.hasOption("NuSMV"))
+			options.solver = A4Options.SatSolver.electrodS(clargs.hasOption("so")?clargs.getOptionValue("so").split(","):new String[0]);
+		else if (clargs.hasOption("nuXmv"))
+			options.solver = A4Options.SatSolver.electrodX(clargs.hasOption("so")?clargs.getOptionValue("so").split(","):new String[0]);
+		
+		if (clargs.hasOption("decomposed"))
+			options.decomposed_mode = 1;
+			if (clargs.getOptionValue("decomposed") != null)
+				options.decomposed_threads = Integer.valueOf(clargs.getOptionValue("decomposed"));
+		else
+			options.decomposed_mode = 0;
+    }
+
     /** Copy the required files from the JAR into a temporary directory. */
     private static void copyFromJAR() {
         // Compute the appropriate platform
@@ -36,6 +36,8 @@ import static edu.mit.csail.sdg.alloy4.A4Preferences.Model2;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.Model3;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.NoOverflow;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.RecordKodkod;
+import static edu.mit.csail.sdg.alloy4.A4Preferences.CostProfiling;
+import static edu.mit.csail.sdg.alloy4.A4Preferences.LazyCore;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.SkolemDepth;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.Solver;
 import static edu.mit.csail.sdg.alloy4.A4Preferences.SubMemory;
@@ -976,12 +978,14 @@ public final class SimpleGUI implements ComponentListener, Listener {
         opt.solverDirectory = alloyHome() + fs + "binary";
         opt.recordKodkod = RecordKodkod.get();
         opt.noOverflow = NoOverflow.get();
+        opt.costProfiling = CostProfiling.get(); // [HASLab]
         opt.unrolls = Version.experimental ? Unrolls.get() : (-1);
         opt.skolemDepth = SkolemDepth.get();
         opt.coreMinimization = CoreMinimization.get();
         opt.decomposed_mode = DecomposedPref.get().ordinal(); // [HASLab]
         opt.run_unbounded = Unbounded.get(); // [HASLab]
         opt.coreGranularity = CoreGranularity.get();
+        opt.lazyCore = LazyCore.get(); // [HASLab]
         opt.originalFilename = Util.canon(text.get().getFilename());
         opt.solver = Solver.get();
         task.bundleIndex = i;
@@ -1189,8 +1193,9 @@ public final class SimpleGUI implements ComponentListener, Listener {
             addToMenu(optmenu, SkolemDepth);
             JMenu cmMenu = addToMenu(optmenu, CoreMinimization); cmMenu.setEnabled(Solver.get() == SatSolver.MiniSatProverJNI);
             JMenu cgMenu = addToMenu(optmenu, CoreGranularity); cgMenu.setEnabled(Solver.get() == SatSolver.MiniSatProverJNI);
+            addToMenu(optmenu, LazyCore); // [HASLab]
 
-            addToMenu(optmenu, AutoVisualize, RecordKodkod);
+            addToMenu(optmenu, AutoVisualize, RecordKodkod, CostProfiling); // [HASLab] profiling
 
             if (Version.experimental) {
               addToMenu(optmenu, Unrolls);
@@ -1377,6 +1382,10 @@ public final class SimpleGUI implements ComponentListener, Listener {
         }
         if (arg.startsWith("CORE: ")) { // CORE: filename
             String filename = Util.canon(arg.substring(6));
+            if (!(new File(filename)).exists()) { // [HASLab] lazy cores are written once computed in the background
+                log.logRed("The unsat core is still being computed (or its computation was stopped); please try again later.\n");
+                return null;
+            }
             Pair<Set<Pos>,Set<Pos>> hCore;
             //Set<Pos> lCore;
             InputStream is = null;
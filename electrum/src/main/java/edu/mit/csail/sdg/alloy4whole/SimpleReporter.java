@@ -45,7 +45,6 @@ import edu.mit.csail.sdg.alloy4.Util;
 import edu.mit.csail.sdg.alloy4.Version;
 import edu.mit.csail.sdg.alloy4.WorkerEngine.WorkerCallback;
 import edu.mit.csail.sdg.alloy4.WorkerEngine.WorkerTask;
-import edu.mit.csail.sdg.alloy4.XMLNode;
 import edu.mit.csail.sdg.alloy4compiler.ast.Command;
 import edu.mit.csail.sdg.alloy4compiler.ast.Module;
 import edu.mit.csail.sdg.alloy4compiler.ast.Sig;
@@ -72,6 +71,7 @@ final class SimpleReporter extends A4Reporter {
         private final Set<ErrorWarning> warnings = new HashSet<ErrorWarning>();
         private final List<String> results = new ArrayList<String>();
         private int len2=0, len3=0, verbosity=0;
+        private boolean costs = false; // [HASLab] whether the cost profile header was printed
         private final String latestName;
         private final int latestVersion;
         public SimpleCallback1(SimpleGUI gui, VizGUI viz, SwingLogPanel span, int verbosity, String latestName, int latestVersion) {
@@ -136,7 +136,17 @@ final class SimpleReporter extends A4Reporter {
             if (array[0].equals("bound") && verbosity>1) { span.log("   " + array[1]); }
             if (array[0].equals("resultCNF")) { results.add(null); span.setLength(len3); span.log("   File written to "+array[1]+"\n\n"); }
             if (array[0].equals("debug") && verbosity>2) { span.log("   "+array[1]+"\n"); len2=len3=span.getLength(); }
-            if (array[0].equals("translate")) { span.log("   " + array[1]); len3 = span.getLength(); span.logBold("   Generating CNF...\n"); }
+            if (array[0].equals("translate")) { costs = false; span.log("   " + array[1]); len3 = span.getLength(); span.logBold("   Generating CNF...\n"); }
+            if (array[0].equals("cost")) { // [HASLab]
+                span.setLength(len3);
+                if (!costs) { span.log("   Cost profile (gates/vars/clauses per constraint):\n"); costs = true; }
+                Pos p = (Pos)(array[2]);
+                span.log("      ");
+                if (p==Pos.UNKNOWN) span.log(""+array[1]); else span.logLink(""+array[1], "POS: "+p.x+" "+p.y+" "+p.x2+" "+p.y2+" "+p.filename);
+                span.log(": "+array[3]+" gates, "+array[4]+" vars, "+array[5]+" clauses.\n");
+                len3 = span.getLength();
+                span.logBold("   Generating CNF...\n");
+            }
             if (array[0].equals("solve")) { span.setLength(len3); span.log("   " + array[1]); len3=span.getLength(); span.logBold("   Solving...\n"); }
             if (array[0].equals("warnings")) {
                 if (warnings.size()==0) span.setLength(len2);
@@ -190,6 +200,23 @@ final class SimpleReporter extends A4Reporter {
                 span.log(". "+array[4]+"ms.\n");
                 span.logBold("   Minimizing the unsat core of "+array[3]+" entries...\n");
             }
+            if (array[0].equals("computingcore")) { // [HASLab] the outcome is known before the core is computed
+                boolean chk = Boolean.TRUE.equals(array[1]);
+                int expects = (Integer) (array[2]);
+                String formula = (String) (array[4]), core = (String) (array[5]);
+                span.setLength(len3);
+                span.log(chk ? "   No counterexample found. " : "   No instance found. ");
+                span.logLink(chk ? "Assertion" : "Predicate", formula);
+                span.log(chk? " may be valid" : " may be inconsistent");
+                if (expects==1) span.log(", contrary to expectation"); else if (expects==0) span.log(", as expected");
+                span.log(". "+array[3]+"ms.\n");
+                results.add(core);
+                if (core.length()==0) { span.log("   No unsat core is available in this case.\n\n"); span.flush(); return; }
+                (new File(core)).deleteOnExit();
+                span.log("   ");
+                span.logLink("Core", core);
+                span.log(" is being computed in the background.\n\n");
+            }
             if (array[0].equals("unsat")) {
                 boolean chk = Boolean.TRUE.equals(array[1]);
                 int expects = (Integer) (array[2]);
@@ -258,6 +285,12 @@ final class SimpleReporter extends A4Reporter {
         lastTime = System.currentTimeMillis();
     }
     
+    /** {@inheritDoc} */
+    // [HASLab]
+    @Override public void cost(String label, Pos pos, long gates, long vars, long clauses) {
+        cb("cost", label, pos, gates, vars, clauses);
+    }
+
     /** {@inheritDoc} */
     // [HASLab]
     @Override public void configs(final int configs) {
@@ -316,28 +349,45 @@ final class SimpleReporter extends A4Reporter {
             formulafilename=tempfile+".java";
             try { Util.writeAll(formulafilename, originalFormula); formulafilename="CNF: "+formulafilename; } catch(Throwable ex) { formulafilename=""; }
         }
+        if (sol.isCorePending()) { // [HASLab] report the outcome at once, and write the core once it is computed in the background
+            final A4Solution s = sol;
+            final String filename = tempfile!=null ? tempfile+".core" : null;
+            sol.computeCoreInBackground(filename==null ? null : new Runnable() {
+                public void run() { writeCore(s, s.highLevelCore(), filename); }
+            });
+            cb("computingcore", cmd.check, cmd.expects, System.currentTimeMillis()-lastTime, formulafilename, filename!=null ? "CORE: "+filename : "");
+            return;
+        }
         Pair<Set<Pos>,Set<Pos>> core = sol.highLevelCore();
         if ((core.a.size()>0 || core.b.size()>0) && tempfile!=null) {
             corefilename=tempfile+".core";
-            OutputStream fs=null;
-            ObjectOutputStream os=null;
-            try {
-                fs=new FileOutputStream(corefilename);
-                os=new ObjectOutputStream(fs);
-                os.writeObject(core);
-                os.writeObject(sol.lowLevelCore());
-                corefilename="CORE: "+corefilename;
-            } catch(Throwable ex) {
-                corefilename="";
-            } finally {
-                Util.close(os);
-                Util.close(fs);
-            }
+            corefilename=writeCore(sol, core, corefilename) ? "CORE: "+corefilename : "";
         }
         if (minimized==0) cb("unsat", cmd.check, cmd.expects, (System.currentTimeMillis()-lastTime), formulafilename);
         else cb("unsat", cmd.check, cmd.expects, minimized-lastTime, formulafilename, corefilename, minimizedBefore, minimizedAfter, (System.currentTimeMillis()-minimized));
     }
 
+    /** Writes the given unsat core of the given solution to the given file; returns false if it could not be written.
+     * The core is written to a temporary file first, so that the file only appears once it is complete. */
+    private static boolean writeCore(A4Solution sol, Pair<Set<Pos>,Set<Pos>> core, String filename) {
+        File file = new File(filename), tmp = new File(filename+".tmp");
+        OutputStream fs=null;
+        ObjectOutputStream os=null;
+        try {
+            if (file.getParentFile()!=null) file.getParentFile().mkdirs(); // the temporary directory may have been removed in the meantime
+            fs=new FileOutputStream(tmp);
+            os=new ObjectOutputStream(fs);
+            os.writeObject(core);
+            os.writeObject(sol.lowLevelCore());
+        } catch(Throwable ex) {
+            return false;
+        } finally {
+            Util.close(os);
+            Util.close(fs);
+        }
+        return tmp.renameTo(file);
+    }
+
     private final WorkerCallback cb;
 
     //========== These fields should be set each time we execute a set of commands
@@ -438,7 +488,7 @@ final class SimpleReporter extends A4Reporter {
 
     /** Validate the given filename to see if it is a valid Alloy XML instance file. */
     private static void validate(String filename) throws Exception {
-        A4SolutionReader.read(new ArrayList<Sig>(), new XMLNode(new File(filename))).toString();
+        A4SolutionReader.read(new ArrayList<Sig>(), new File(filename)).toString(); // [HASLab] streamed
         StaticInstanceReader.parseInstance(new File(filename),0); // [HASLab] only validates first
     }
     
@@ -482,10 +532,10 @@ final class SimpleReporter extends A4Reporter {
                 if (cmd.maxtime != -1 && options.solver.external() != null && options.solver.external().equals("electrod"))
                 	rep.warning(new ErrorWarning("Complete solver selected, Time scope will be ignored.")); // [HASLab]
                 cb(out, "bold", "Executing \""+cmd+"\"\n");
-                A4Solution ai=TranslateAlloyToKodkod.execute_commandFromBook(rep, world.getAllReachableSigs(), cmd, options);
+                A4Solution ai=TranslateAlloyToKodkod.execute_commandFromBook(rep, world, cmd, options); // [HASLab] world, for slicing
                 if (ai==null) result.add(null);
                 else if (ai.satisfiable()) result.add(tempXML);
-                else if (ai.highLevelCore().a.size()>0) result.add(tempCNF+".core");
+                else if (ai.isCorePending() || ai.highLevelCore().a.size()>0) result.add(tempCNF+".core"); // [HASLab] do not wait for a lazy core
                 else result.add("");
             }
             (new File(tempdir)).delete(); // In case it was UNSAT, or canceled...
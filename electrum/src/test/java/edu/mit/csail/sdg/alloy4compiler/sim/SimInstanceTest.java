@@ -0,0 +1,151 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.Util;
+import edu.mit.csail.sdg.alloy4compiler.ast.Expr;
+import edu.mit.csail.sdg.alloy4compiler.ast.ExprVar;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig.Field;
+import edu.mit.csail.sdg.alloy4compiler.parser.CompUtil;
+
+/** Regression tests for {@link SimInstance}: the values it brings up to date after a change rather than evaluating them again, and its binary snapshots.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-simulator
+ */
+
+public class SimInstanceTest {
+
+    /** The number of atoms of each sig. */
+    private static final int N = 10;
+
+    /** The expressions that are evaluated after every change; they cover unions, differences, joins and closures. */
+    private static final String[] EXPRS = {
+        "A.f.h", "f + g.f", "f - g.f", "g.g.f.h", "(f - g.f).h + f", "^g", "^h", "A.^g", "g.^g + ^g.g", "f.^h - f", "*g", "some g.f.h"
+    };
+
+    /** The model, sigs, fields and expressions of a test. */
+    private final Module world;
+    private final Sig a, b;
+    private final Field f, g, h;
+    private final List<Expr> exprs = new ArrayList<Expr>();
+    private final List<SimTuple> as = new ArrayList<SimTuple>(), bs = new ArrayList<SimTuple>();
+
+    /** Parses the model of every test. */
+    public SimInstanceTest() throws Err {
+        String filename = Util.canon("siminstance.als");
+        Map<String,String> loaded = new LinkedHashMap<String,String>();
+        loaded.put(filename, "sig A { f: set B, g: set A } sig B { h: set B }");
+        world = CompUtil.parseEverything_fromFile(A4Reporter.NOP, loaded, filename);
+        Sig x = null, y = null;
+        for(Sig s: world.getAllReachableSigs()) { if (s.label.equals("this/A")) x = s; if (s.label.equals("this/B")) y = s; }
+        a = x; b = y;
+        f = a.getFields().get(0); g = a.getFields().get(1); h = b.getFields().get(0);
+        for(String e: EXPRS) exprs.add(CompUtil.parseOneExpression_fromString(world, e));
+        for(int i=0; i<N; i++) { as.add(SimTuple.make("A$"+i)); bs.add(SimTuple.make("B$"+i)); }
+    }
+
+    /** Returns an instance with the given values of the fields, none of whose values were memoized. */
+    private SimInstance instance(Map<Field,SimTupleset> values) throws Err {
+        SimInstance ans = new SimInstance(world, 4, 0);
+        ans.init(a, SimTupleset.make(as));
+        ans.init(b, SimTupleset.make(bs));
+        for(Map.Entry<Field,SimTupleset> e: values.entrySet()) ans.init(e.getKey(), e.getValue());
+        return ans;
+    }
+
+    /** Returns a random tuple of the given field. */
+    private SimTuple tuple(Random r, Field x) {
+        return (x==h ? bs : as).get(r.nextInt(N)).product((x==f || x==h ? bs : as).get(r.nextInt(N)));
+    }
+
+    /** Changes the fields of an instance one tuple at a time, and compares the values of the expressions after each change
+     * with those of a fresh instance; if additions is true, tuples are only ever added, otherwise they are also removed. */
+    private void compare(long seed, boolean additions) throws Err {
+        Random r = new Random(seed);
+        Field[] fields = {f, g, h};
+        Map<Field,SimTupleset> values = new LinkedHashMap<Field,SimTupleset>();
+        for(Field x: fields) {
+            Set<SimTuple> s = new LinkedHashSet<SimTuple>();
+            for(int i=0; i<N/2; i++) s.add(tuple(r, x));
+            values.put(x, SimTupleset.make(s));
+        }
+        SimInstance inst = instance(values);
+        for(int step=0; step<300; step++) {
+            SimInstance full = instance(values);
+            for(Expr e: exprs) {
+                Object now = e.type().is_bool ? (Object)inst.cform(e) : inst.cset(e);
+                Object expected = e.type().is_bool ? (Object)full.cform(e) : full.cset(e);
+                assertEquals("step " + step + ": " + e, expected, now);
+            }
+            // change one or two fields before evaluating again, so that some values are brought up to date from several changes
+            for(int i=r.nextInt(2); i>=0; i--) {
+                Field x = fields[r.nextInt(fields.length)];
+                SimTuple t = tuple(r, x);
+                SimTupleset v = values.get(x);
+                v = v.has(t) ? (additions ? v : v.difference(t)) : v.union(t);
+                values.put(x, v);
+                inst.init(x, v);
+            }
+        }
+    }
+
+    /** Values brought up to date after adding tuples, which includes closures, are those of a full evaluation. */
+    @Test public void additions() throws Err {
+        for(long seed=0; seed<5; seed++) compare(seed, true);
+    }
+
+    /** A binary snapshot is read back as it was written, and its file is released once read (so it can be deleted at once). */
+    @Test public void snapshot() throws Err, IOException {
+        Map<Field,SimTupleset> values = new LinkedHashMap<Field,SimTupleset>();
+        Random r = new Random(0);
+        for(Field x: new Field[]{f, g, h}) values.put(x, SimTupleset.make(Collections.singletonList(tuple(r, x))));
+        SimInstance inst = instance(values);
+        File file = File.createTempFile("siminstance", ".snapshot");
+        try {
+            inst.writeSnapshot(file.getAbsolutePath());
+            SimInstance read = SimInstance.read(world, file.getAbsolutePath(), new ArrayList<ExprVar>());
+            for(Expr e: exprs) if (!e.type().is_bool) assertEquals(e.toString(), inst.cset(e), read.cset(e));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    /** Values brought up to date after adding and removing tuples, or evaluated again, are those of a full evaluation. */
+    @Test public void additionsAndRemovals() throws Err {
+        for(long seed=0; seed<5; seed++) compare(seed, false);
+    }
+}
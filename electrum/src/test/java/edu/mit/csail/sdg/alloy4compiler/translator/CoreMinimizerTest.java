@@ -0,0 +1,85 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorFatal;
+import edu.mit.csail.sdg.alloy4.Pos;
+
+/** Regression tests for the parallel unsat core minimization of {@link CoreMinimizer}.
+ *
+ * <p> These tests need the native MiniSat library with proof logging, and are skipped if it cannot be loaded.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-core
+ */
+
+public class CoreMinimizerTest {
+
+    /** A model whose facts 1 and 2 (on lines 2 and 3) form the only minimal core, while fact 3 (on line 4) is redundant. */
+    private static final String MODEL = "sig A {}\n"
+        + "fact f1 { some A }\n"
+        + "fact f2 { no A }\n"
+        + "fact f3 { #A < 3 }\n"
+        + "run {} for 3\n";
+
+    /** Solves the model with the given number of minimization threads and budget, and returns the lines of its core. */
+    private static Set<Integer> core(int threads, int budget) throws Err {
+        A4Options opt = Models.options();
+        opt.solver = A4Options.SatSolver.MiniSatProverJNI;
+        opt.coreGranularity = 0;
+        opt.coreMinimization = 0;
+        opt.coreThreads = threads;
+        opt.coreBudget = budget;
+        A4Solution sol;
+        try {
+            sol = Models.solve(A4Reporter.NOP, Models.parse("core.als", MODEL), 0, opt);
+        } catch(ErrorFatal ex) {
+            assumeTrue("the native MiniSat library is not available", !ex.getMessage().contains("JNI"));
+            throw ex;
+        }
+        assertFalse(sol.satisfiable());
+        Set<Integer> ans = new TreeSet<Integer>();
+        for(Pos p: sol.highLevelCore().a) ans.add(p.y);
+        return ans;
+    }
+
+    /** The parallel minimization finds the minimal core, as the sequential one does. */
+    @Test(timeout = 60000) public void minimal() throws Err {
+        Set<Integer> expected = new TreeSet<Integer>();
+        expected.add(2);
+        expected.add(3);
+        assertEquals(expected, core(4, 0));
+        assertEquals(expected, core(1, 0));
+    }
+
+    /** Running out of the budget keeps an unsatisfiable core (every minimal core is contained in it), and does not wait for the checks still running. */
+    @Test(timeout = 60000) public void budget() throws Err {
+        Set<Integer> core = core(4, 1);
+        assertTrue(core.contains(2) && core.contains(3));
+    }
+}
@@ -0,0 +1,77 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.parser.CompUtil;
+
+/** Regression tests for the cube-and-conquer solving of check commands by {@link CubeSolver}.
+ *
+ * <p> Every command is solved with and without cubes, and both outcomes must agree.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-cubes
+ */
+
+public class CubeSolverTest {
+
+    /** Solves the only command of the given model with the given number of cube threads. */
+    private static A4Solution solve(Module world, int threads) throws Err {
+        A4Options opt = Models.options();
+        opt.cubeThreads = threads;
+        return Models.solve(A4Reporter.NOP, world, 0, opt);
+    }
+
+    /** A valid assertion has no counterexample in any cube. */
+    @Test public void valid() throws Err {
+        Module world = Models.parse("cubes1.als", "sig A { f: set A }\n"
+            + "fact { all x: A | x in x.f }\n"
+            + "assert refl { all x: A | x in x.f.f }\n"
+            + "check refl for 4\n");
+        assertFalse(solve(world, 1).satisfiable());
+        assertFalse(solve(world, 4).satisfiable());
+    }
+
+    /** The counterexample found in some cube violates the assertion, and records the skolems of that cube. */
+    @Test public void invalid() throws Err {
+        Module world = Models.parse("cubes2.als", "sig A { f: set A }\n"
+            + "assert refl { all x: A | x in x.f }\n"
+            + "check refl for 4\n");
+        assertTrue(solve(world, 1).satisfiable());
+        A4Solution sol = solve(world, 4);
+        assertTrue(sol.satisfiable());
+        assertEquals(Boolean.FALSE, sol.eval(CompUtil.parseOneExpression_fromString(world, "all x: A | x in x.f")));
+        assertTrue(sol.getAllSkolems().iterator().hasNext());
+    }
+
+    /** A counterexample that needs every atom is found whatever the cubes split on. */
+    @Test public void exact() throws Err {
+        Module world = Models.parse("cubes3.als", "sig A { f: set A }\n"
+            + "assert small { #A < 4 or some f }\n"
+            + "check small for 4\n");
+        A4Solution sol = solve(world, 4);
+        assertTrue(sol.satisfiable());
+        assertEquals(4, sol.eval(CompUtil.parseOneExpression_fromString(world, "#A")));
+    }
+}
@@ -0,0 +1,131 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import kodkod.ast.Expression;
+import kodkod.ast.Formula;
+import kodkod.ast.Relation;
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorFatal;
+import edu.mit.csail.sdg.alloy4.Pos;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+
+/** Regression tests for the interning of Kodkod nodes by {@link HashCons}, and for the reuse of the translation
+ * of function calls during translation.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-hashcons
+ */
+
+public class HashConsTest {
+
+    /** Mutable; records the numbers of nodes and calls shared during the last translation. */
+    private static final class Counter extends A4Reporter {
+        /** The numbers of shared nodes and calls. */
+        private int nodes = -1, calls = -1;
+        /** {@inheritDoc} */
+        @Override public void debug(String msg) {
+            if (!msg.startsWith("Hash-consing shared ")) return;
+            String[] words = msg.split(" ");
+            nodes = Integer.parseInt(words[2]);
+            calls = Integer.parseInt(words[5]);
+        }
+    }
+
+    /** A model that calls the same function and predicate, with the same arguments, in several places. */
+    private static final String CALLS = "sig A { f: set A }\n"
+        + "fun g[x: set A]: set A { x.f }\n"
+        + "pred p[x: set A] { some g[x] }\n";
+
+    /** The commands over CALLS, each with the same command where the calls are inlined by hand. */
+    private static final String[][] RUNS = {
+        { "p[A] and no g[A] & A.f.f and p[A]", "some A.f and no A.f & A.f.f and some A.f" },
+        { "p[A] and not p[A]", "some A.f and not some A.f" },
+        { "p[A] and (no g[A] or g[A] = A) and p[A.f]", "some A.f and (no A.f or A.f = A) and some A.f.f" },
+        { "all a: A | p[a] and no g[a] & a", "all a: A | some a.f and no a.f & a" }
+    };
+
+    /** Structurally equal expressions, whose children were interned, are interned to the same object. */
+    @Test public void expressions() {
+        HashCons hc = new HashCons(true);
+        Relation r = Relation.binary("r"), s = Relation.unary("s");
+        Expression a = hc.intern(hc.intern(s.join(r)).union(s));
+        Expression b = hc.intern(hc.intern(s.join(r)).union(s));
+        assertSame(a, b);
+        assertEquals(2, hc.shared());
+        assertNotSame(a, hc.intern(hc.intern(s.join(r)).difference(s)));
+        assertNotSame(hc.intern(s.join(r)), hc.intern(r.join(s)));
+        assertSame(r, hc.intern(r));
+    }
+
+    /** Formulas are only interned if asked to, so that equal constraints from different positions stay apart for the unsat core. */
+    @Test public void formulas() {
+        Relation r = Relation.unary("r");
+        HashCons all = new HashCons(true);
+        assertSame(all.intern(r.some()), all.intern(r.some()));
+        HashCons exprs = new HashCons(false);
+        Formula a = exprs.intern(r.some()), b = exprs.intern(r.some());
+        assertNotSame(a, b);
+        assertEquals(0, exprs.shared());
+        assertSame(exprs.intern(r.join(r)), exprs.intern(r.join(r)));
+    }
+
+    /** Calls with the same arguments are translated once, and give the same outcome as the same command with the calls inlined. */
+    @Test public void calls() throws Err {
+        for(String[] run: RUNS) {
+            Counter rep = new Counter();
+            Module world = Models.parse("hashcons.als", CALLS + "run { " + run[0] + " } for 3\nrun { " + run[1] + " } for 3\n");
+            boolean called = Models.solve(rep, world, 0, Models.options()).satisfiable();
+            assertTrue(run[0], rep.calls > 0);
+            assertEquals(run[0], Models.solve(A4Reporter.NOP, world, 1, Models.options()).satisfiable(), called);
+        }
+    }
+
+    /** With the unsat core solver formulas are not interned, and a shared call still reports the position of each call site. */
+    @Test public void core() throws Err {
+        A4Options opt = Models.options();
+        opt.solver = A4Options.SatSolver.MiniSatProverJNI;
+        opt.coreGranularity = 0;
+        opt.coreMinimization = 0;
+        String model = CALLS + "fact { p[A] }\nfact { no A.f }\nfact { p[A] or some A }\nrun {} for 3\n";
+        A4Solution sol;
+        try {
+            sol = Models.solve(A4Reporter.NOP, Models.parse("hashcons.als", model), 0, opt);
+        } catch(ErrorFatal ex) {
+            assumeTrue("the native MiniSat library is not available", !ex.getMessage().contains("JNI"));
+            throw ex;
+        }
+        assertFalse(sol.satisfiable());
+        Set<Integer> lines = new TreeSet<Integer>();
+        for(Pos p: sol.highLevelCore().a) lines.add(p.y);
+        assertTrue(lines.toString(), lines.contains(4));
+        assertTrue(lines.toString(), lines.contains(5));
+        assertFalse(lines.toString(), lines.contains(6));
+    }
+}
@@ -0,0 +1,121 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.ErrorWarning;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+
+/** Regression tests for the bitwidth inferred by {@link IntRangeAnalyzer} when A4Options.inferBitwidth is set.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-ints
+ */
+
+public class IntRangeAnalyzerTest {
+
+    /** Mutable; records the scope messages and the warnings of the last command. */
+    private static final class Counter extends A4Reporter {
+        /** The scope messages. */
+        private final List<String> scopes = new ArrayList<String>();
+        /** The warnings. */
+        private final List<ErrorWarning> warnings = new ArrayList<ErrorWarning>();
+        /** {@inheritDoc} */
+        @Override public void scope(String msg) { scopes.add(msg); }
+        /** {@inheritDoc} */
+        @Override public void warning(ErrorWarning msg) { warnings.add(msg); }
+        /** Returns the message that reports the inferred bitwidth, or null if there is none. */
+        private String inferred() {
+            for(String s: scopes) if (s.startsWith("Using inferred bitwidth ") || s.startsWith("Inferred bitwidth ")) return s;
+            return null;
+        }
+    }
+
+    /** Solves the only command of the given model, with or without inferring the bitwidth. */
+    private static A4Solution solve(A4Reporter rep, String model, boolean infer) throws Err {
+        Module world = Models.parse("ints.als", model);
+        A4Options opt = Models.options();
+        opt.inferBitwidth = infer;
+        return Models.solve(rep, world, 0, opt);
+    }
+
+    /** Integers only used as counters and constants need just enough bits for their values. */
+    @Test public void counters() throws Err {
+        Counter rep = new Counter();
+        assertEquals(2, solve(rep, "sig A {} run { #A = 1 } for 1", true).getBitwidth());
+        assertTrue(rep.inferred(), rep.inferred().startsWith("Using inferred bitwidth 2 (for values from 0 to 1)"));
+        assertEquals(3, solve(A4Reporter.NOP, "sig A {} run { #A = 3 } for 3", true).getBitwidth());
+        assertEquals(4, solve(A4Reporter.NOP, "sig A {} sig B {} run { #A + #B = 6 } for 3", true).getBitwidth());
+    }
+
+    /** Integers stored in relations may take any value, so the default bitwidth is the minimum. */
+    @Test public void stored() throws Err {
+        Counter rep = new Counter();
+        assertTrue(solve(rep, "sig A { n: Int } run { #A = 1 } for 1", true).getBitwidth() >= IntRangeAnalyzer.DEFAULT);
+        assertTrue(rep.inferred(), rep.inferred().contains("the default"));
+    }
+
+    /** Quantification over Int depends on the bitwidth itself, so the default bitwidth is the minimum. */
+    @Test public void quantified() throws Err {
+        assertTrue(solve(A4Reporter.NOP, "sig A {} run { some i: Int | i = #A } for 1", true).getBitwidth() >= IntRangeAnalyzer.DEFAULT);
+    }
+
+    /** A bitwidth given by the command is kept, with a warning if it is smaller than the inferred one. */
+    @Test public void explicit() throws Err {
+        Counter rep = new Counter();
+        assertEquals(2, solve(rep, "sig A {} run { #A > 1 } for 3 but 2 int", true).getBitwidth());
+        assertEquals(1, rep.warnings.size());
+        assertTrue(rep.inferred(), rep.inferred().startsWith("Inferred bitwidth 3"));
+        rep = new Counter();
+        assertEquals(5, solve(rep, "sig A {} run { #A = 3 } for 3 but 5 int", true).getBitwidth());
+        assertTrue(rep.warnings.isEmpty());
+    }
+
+    /** Without the option, the bitwidth is the default one and nothing is inferred. */
+    @Test public void disabled() throws Err {
+        Counter rep = new Counter();
+        assertEquals(IntRangeAnalyzer.DEFAULT, solve(rep, "sig A {} run { #A = 1 } for 1", false).getBitwidth());
+        assertEquals(null, rep.inferred());
+    }
+
+    /** The inferred bitwidth gives the same outcome as the default one. */
+    @Test public void soundness() throws Err {
+        String[] models = {
+            "sig A {} run { #A = 3 } for 3",
+            "sig A {} run { #A > 3 } for 3",
+            "sig A {} sig B {} run { #A + #B = 6 } for 3",
+            "sig A {} sig B {} run { #A - #B = 3 and some B } for 3",
+            "sig A { f: set A } run { all a: A | #a.f = 2 } for 2",
+            "sig A { f: set A } run { #f = 4 and #A < 2 } for 2",
+            "sig A { n: Int } run { all a: A | a.n > 5 and some A } for 2"
+        };
+        for(String model: models) {
+            boolean inferred = solve(A4Reporter.NOP, model, true).satisfiable();
+            assertEquals(model, solve(A4Reporter.NOP, model, false).satisfiable(), inferred);
+        }
+        assertFalse(solve(A4Reporter.NOP, "sig A {} run { #A > 3 } for 3", true).satisfiable());
+    }
+}
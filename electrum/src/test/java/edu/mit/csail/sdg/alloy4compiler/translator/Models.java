@@ -0,0 +1,57 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4.Util;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.parser.CompUtil;
+
+/** This class provides the models and options shared by the translator tests.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-tests
+ */
+
+final class Models {
+
+    /** This class cannot be instantiated. */
+    private Models() { }
+
+    /** Parses and typechecks the given model, as if it were stored in a file of the given name. */
+    static Module parse(String name, String model) throws Err {
+        String filename = Util.canon(name);
+        Map<String,String> loaded = new LinkedHashMap<String,String>();
+        loaded.put(filename, model);
+        return CompUtil.parseEverything_fromFile(A4Reporter.NOP, loaded, filename);
+    }
+
+    /** Returns the options used by every test: SAT4J, so that no JNI library is needed. */
+    static A4Options options() {
+        A4Options opt = new A4Options();
+        opt.solver = A4Options.SatSolver.SAT4J;
+        return opt;
+    }
+
+    /** Solves the command with the given index of the given model with the given options. */
+    static A4Solution solve(A4Reporter rep, Module world, int index, A4Options opt) throws Err {
+        return TranslateAlloyToKodkod.execute_command(rep, world.getAllReachableSigs(), world.getAllCommands().get(index), opt);
+    }
+}
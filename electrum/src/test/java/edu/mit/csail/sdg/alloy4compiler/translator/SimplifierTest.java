@@ -0,0 +1,157 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+
+/** Regression tests for the patterns recognized by {@link Simplifier}.
+ *
+ * <p> Each pattern is tested by solving a model whose constraint triggers it, and the same model without that
+ * constraint (or with a weaker one): the bounds of the former must have fewer primary variables, while the
+ * outcome must be the expected one.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-symbolic
+ */
+
+public class SimplifierTest {
+
+    /** Mutable; records the number of primary variables of the last CNF. */
+    private static final class Counter extends A4Reporter {
+        /** The number of primary variables. */
+        private int primaryVars = -1;
+        /** {@inheritDoc} */
+        @Override public void solve(int primaryVars, int vars, int clauses) { this.primaryVars = primaryVars; }
+    }
+
+    /** Solves the only command of the given model and returns the number of primary variables of its CNF,
+     * checking that its outcome is the expected one.
+     */
+    private static int primaryVars(String model, boolean sat) throws Err {
+        Module world = Models.parse("simplifier.als", model);
+        Counter rep = new Counter();
+        assertEquals(sat, Models.solve(rep, world, 0, Models.options()).satisfiable());
+        assertTrue(rep.primaryVars >= 0);
+        return rep.primaryVars;
+    }
+
+    /** "no R" empties the upperbound of R. */
+    @Test public void emptyRelation() throws Err {
+        int before = primaryVars("sig A { f: set A } run {} for 3", true);
+        int after = primaryVars("sig A { f: set A } fact { no f } run {} for 3", true);
+        assertEquals(before - 9, after);
+    }
+
+    /** "no X.R" removes from the upperbound of R the tuples that start with an atom of X. */
+    @Test public void emptyJoin() throws Err {
+        int before = primaryVars("sig A { f: set A } one sig X extends A {} run {} for 3", true);
+        int after = primaryVars("sig A { f: set A } one sig X extends A {} fact { no X.f } run {} for 3", true);
+        assertEquals(before - 3, after);
+    }
+
+    /** "no A &amp; B" removes the lowerbound of B from the upperbound of A. */
+    @Test public void disjoint() throws Err {
+        int before = primaryVars("sig U {} one sig X extends U {} sig S in U {} run {} for 3", true);
+        int after = primaryVars("sig U {} one sig X extends U {} sig S in U {} fact { no S & X } run {} for 3", true);
+        assertEquals(before - 1, after);
+    }
+
+    /** "A in B" adds the lowerbound of A to the lowerbound of B. */
+    @Test public void lowerbound() throws Err {
+        int before = primaryVars("sig U {} one sig X extends U {} sig S in U {} run {} for 3", true);
+        int after = primaryVars("sig U {} one sig X extends U {} sig S in U {} fact { X in S } run {} for 3", true);
+        assertEquals(before - 1, after);
+    }
+
+    /** "some R" makes the only candidate tuple of R known. */
+    @Test public void some() throws Err {
+        int before = primaryVars("sig A {} run {} for 1", true);
+        int after = primaryVars("sig A {} run { some A } for 1", true);
+        assertEquals(before - 1, after);
+    }
+
+    /** "all v: D | one v.R" (eg. a functional field) makes the only candidate image of each atom of D known. */
+    @Test public void function() throws Err {
+        int before = primaryVars("one sig B {} one sig A { f: lone B } run {}", true);
+        int after = primaryVars("one sig B {} one sig A { f: one B } run {}", true);
+        assertEquals(before - 1, after);
+    }
+
+    /** The model of the tests of definitional facts: two exact atoms of A, two of B, and relations over them. */
+    private static final String DEFS = "abstract sig A { f: set B } one sig X, W extends A {} abstract sig B {} one sig Y, Z extends B {} sig S in B {} ";
+
+    /** "f = E" makes the bounds of f those of E, so "f = X->Y" makes f exact. */
+    @Test public void definitionalProduct() throws Err {
+        int before = primaryVars(DEFS + "run {}", true);
+        int after = primaryVars(DEFS + "fact { f = X->Y } run {}", true);
+        assertEquals(before - 4, after);
+    }
+
+    /** "S = X.f" makes S exact once f is, which takes a second round of the fixpoint. */
+    @Test public void definitionalJoin() throws Err {
+        int before = primaryVars(DEFS + "fact { f = X->Y } run {}", true);
+        int after = primaryVars(DEFS + "fact { f = X->Y S = X.f } run {}", true);
+        assertEquals(before - 2, after);
+    }
+
+    /** "E in r" adds the lowerbound of E to the lowerbound of r. */
+    @Test public void definitionalLowerbound() throws Err {
+        int before = primaryVars(DEFS + "run {}", true);
+        int after = primaryVars(DEFS + "fact { X->Y + W->Z in f } run {}", true);
+        assertEquals(before - 2, after);
+    }
+
+    /** "no R.X" removes from the upperbound of R the tuples that end with an atom of X. */
+    @Test public void emptyRange() throws Err {
+        int before = primaryVars("sig A { f: set A } one sig X extends A {} run {} for 3", true);
+        int after = primaryVars("sig A { f: set A } one sig X extends A {} fact { no f.X } run {} for 3", true);
+        assertEquals(before - 3, after);
+    }
+
+    /** A definitional fact over static relations under "always" is used as if it were not temporal. */
+    @Test public void alwaysDefinition() throws Err {
+        int before = primaryVars("var sig V {} " + DEFS + "run {}", true);
+        int after = primaryVars("var sig V {} " + DEFS + "fact { always f = X->Y } run {}", true);
+        assertTrue(after < before);
+    }
+
+    /** Definitional facts do not change the outcome: each is compared with the same fact under an implication,
+     * which the Simplifier does not look into, against commands that are satisfiable or not depending on the fact.
+     */
+    @Test public void definitionalSoundness() throws Err {
+        String[] facts = { "f = X->Y", "S = X.f and f = X->Y", "X->Y + W->Z in f", "no X.f", "no f.Y", "some f", "no f" };
+        String[] runs = { "Y in X.f", "Z in X.f", "no f", "S = Y", "some S and no S & X.f", "one f" };
+        for(String fact: facts) for(String run: runs) {
+            boolean direct = Models.solve(A4Reporter.NOP, Models.parse("simplifier.als", DEFS + "fact { " + fact + " } run { " + run + " }"), 0, Models.options()).satisfiable();
+            boolean guarded = Models.solve(A4Reporter.NOP, Models.parse("simplifier.als", DEFS + "fact { some A implies (" + fact + ") } run { " + run + " }"), 0, Models.options()).satisfiable();
+            assertEquals(fact + " / " + run, guarded, direct);
+        }
+    }
+
+    /** A pattern that shrinks the upperbound below the lowerbound makes the problem trivially unsatisfiable. */
+    @Test public void unsatisfiable() throws Err {
+        assertFalse(Models.solve(A4Reporter.NOP, Models.parse("simplifier.als", "sig A {} fact { no A } run { some A }"), 0, Models.options()).satisfiable());
+        assertFalse(Models.solve(A4Reporter.NOP, Models.parse("simplifier.als", "one sig B {} sig A { f: one B } fact { no f } run { some A }"), 0, Models.options()).satisfiable());
+    }
+}
@@ -0,0 +1,86 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.A4Reporter;
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4compiler.ast.Command;
+import edu.mit.csail.sdg.alloy4compiler.ast.Decl;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.ast.Sig;
+
+/** Regression tests for the cone of influence computed by {@link Slicer}.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-slicing
+ */
+
+public class SlicerTest {
+
+    /** Returns the declaration of the given field of the given sig. */
+    private static Decl decl(Module world, String sig, String field) {
+        for(Sig s: world.getAllReachableSigs()) if (s.label.equals("this/"+sig))
+            for(Decl d: s.getFieldDecls()) if (d.get().label.equals(field)) return d;
+        throw new IllegalArgumentException("No field "+sig+"."+field);
+    }
+
+    /** Returns the outcome of the only command of the given model, with or without slicing. */
+    private static boolean satisfiable(Module world, boolean slicing) throws Err {
+        A4Options opt = Models.options();
+        opt.slicing = slicing;
+        Command cmd = world.getAllCommands().get(0);
+        return TranslateAlloyToKodkod.execute_commandFromBook(A4Reporter.NOP, world, cmd, opt).satisfiable();
+    }
+
+    /** A multiplicity that may fail constrains the relations of its bound, so "f: one B" keeps B nonempty. */
+    @Test public void boundOfMandatoryField() throws Err {
+        Module world = Models.parse("slicer1.als", "sig B {} one sig A { f: one B } run { no B }");
+        Slicer slicer = Slicer.compute(null, world, world.getAllCommands().get(0));
+        assertTrue(slicer.isRelevant(decl(world, "A", "f")));
+        assertFalse(satisfiable(world, true));
+        assertEquals(satisfiable(world, false), satisfiable(world, true));
+    }
+
+    /** An optional field does not constrain its bound, so it can be sliced away. */
+    @Test public void boundOfOptionalField() throws Err {
+        Module world = Models.parse("slicer2.als", "sig B {} one sig A { f: set B } run { no B }");
+        Slicer slicer = Slicer.compute(null, world, world.getAllCommands().get(0));
+        assertFalse(slicer.isRelevant(decl(world, "A", "f")));
+        assertTrue(satisfiable(world, true));
+    }
+
+    /** A fact that only mentions relations outside the cone is dropped, one that shares a relation is kept. */
+    @Test public void factsOutsideTheCone() throws Err {
+        Module world = Models.parse("slicer3.als", "sig A {} sig B {} fact { some A } fact { no B } run { some B }");
+        Slicer slicer = Slicer.compute(null, world, world.getAllCommands().get(0));
+        assertFalse(satisfiable(world, true));
+        assertEquals(satisfiable(world, false), satisfiable(world, true));
+        assertTrue(slicer.command!=world.getAllCommands().get(0));
+    }
+
+    /** A fact that mentions a builtin constrains every hierarchy, so it is never dropped. */
+    @Test public void builtinFacts() throws Err {
+        Module world = Models.parse("slicer4.als", "sig A {} sig B {} fact { no univ - Int } run { some B }");
+        assertFalse(satisfiable(world, true));
+        assertEquals(satisfiable(world, false), satisfiable(world, true));
+    }
+}
@@ -0,0 +1,72 @@
+/* Alloy Analyzer 4 -- Copyright (c) 2006-2009, Felix Chang
+ * Electrum -- Copyright (c) 2015-present, Nuno Macedo
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files
+ * (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF
+ * OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package edu.mit.csail.sdg.alloy4compiler.translator;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.mit.csail.sdg.alloy4.Err;
+import edu.mit.csail.sdg.alloy4compiler.ast.Module;
+import edu.mit.csail.sdg.alloy4compiler.parser.CompUtil;
+
+/** Regression tests for the time-invariant expressions decided by {@link StaticAnalyzer}.
+ *
+ * @modified Nuno Macedo // [HASLab] electrum-temporal
+ */
+
+public class StaticAnalyzerTest {
+
+    /** The sigs, fields and functions of every model; S, f and h are static, while g and k are not. */
+    private static final String DECLS = "sig S { f: set S, var g: set S } fun h[x: S]: set S { x.*f } fun k[x: S]: set S { x.g } ";
+
+    /** Checks whether each of the given expressions (evaluated in the given model) is static. */
+    private static void check(Module world, boolean expected, String... exprs) throws Err {
+        StaticAnalyzer analyzer = new StaticAnalyzer(world.getAllReachableSigs());
+        for(String e: exprs) {
+            boolean ans = analyzer.isStatic(CompUtil.parseOneExpression_fromString(world, e));
+            if (expected) assertTrue(e, ans); else assertFalse(e, ans);
+        }
+    }
+
+    /** When some sig is variable, so are univ, iden and "*r", but not where they are guarded by a static expression. */
+    @Test public void variableUniv() throws Err {
+        Module world = Models.parse("static1.als", "var sig V {} " + DECLS + "run {}");
+        assertTrue(new StaticAnalyzer(world.getAllReachableSigs()).isUnivVariable());
+        check(world, true, "S.f", "S.*f", "*f.S", "S <: iden", "iden :> S", "f & iden", "iden & f", "f - iden", "f in iden",
+            "all x: S | x.*f in S", "h[S]", "some S.*f", "let y = S.f | y.*f");
+        check(world, false, "*f", "iden", "univ", "S.*g", "S.g", "V", "S + V", "iden - f", "iden ++ f", "k[S]",
+            "after some S.f", "always some S.f", "some S.f until some S", "let y = S.g | y.*f", "all x: V | some x");
+    }
+
+    /** When no sig is variable, univ, iden and "*r" over static relations are static, even if some field is variable. */
+    @Test public void staticUniv() throws Err {
+        Module world = Models.parse("static2.als", DECLS + "run {}");
+        assertFalse(new StaticAnalyzer(world.getAllReachableSigs()).isUnivVariable());
+        check(world, true, "*f", "iden", "univ", "S.*f", "iden - f", "h[S]");
+        check(world, false, "*g", "S.*g", "g", "k[S]", "after some S.f");
+    }
+
+    /** A variable subsig makes its parent, but not a sibling, variable. */
+    @Test public void variableSubsig() throws Err {
+        Module world = Models.parse("static3.als", "abstract sig A {} var sig B extends A {} sig C extends A {} run {}");
+        assertTrue(new StaticAnalyzer(world.getAllReachableSigs()).isUnivVariable());
+        check(world, true, "C", "C.*(C->C)");
+        check(world, false, "A", "B", "A - B", "univ");
+    }
+}